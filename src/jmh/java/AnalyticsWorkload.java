@@ -0,0 +1,68 @@
+import benchmarks.AnalyticsBenchmark;
+
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class AnalyticsWorkload implements AnalyticsBenchmark.Workload {
+    private static final ZoneId ZONE = ZoneId.of("America/New_York");
+
+    private List<Track> tracks;
+    private ListeningAnalytics analytics;
+    private TimeWindow all;
+    private TimeWindow lastMonth;
+
+    @Override
+    public void setUp(int trackCount) throws Exception {
+        tracks = BenchmarkFixtures.tracks(trackCount);
+        analytics = ListeningAnalytics.of(tracks);
+        long newest = tracks.get(0).getListenedAt().getTime() / 1000L;
+        all = new TimeWindow(0, 0);
+        lastMonth = new TimeWindow(newest - 30 * 86400L, 0);
+    }
+
+    @Override
+    public Object build() {
+        return ListeningAnalytics.of(tracks);
+    }
+
+    @Override
+    public Object topArtists() {
+        return analytics.topArtists(all, 10);
+    }
+
+    @Override
+    public Object topArtistsLastMonth() {
+        return analytics.topArtists(lastMonth, 10);
+    }
+
+    @Override
+    public Object topTracks() {
+        return analytics.topTracks(all, 10, false);
+    }
+
+    @Override
+    public Object playsByHourOfDay() {
+        return analytics.playsByHourOfDay(all, ZONE);
+    }
+
+    @Override
+    public Object longestStreak() {
+        return analytics.longestStreak(ZONE);
+    }
+
+    /**
+     * Ranks the artists the way one would without the analytics, grouping the tracks into boxed counts.
+     */
+    @Override
+    public Object streamTopArtists() {
+        Map<String, Long> plays = tracks.stream().collect(Collectors.groupingBy(Track::getArtist, Collectors.counting()));
+        return plays.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(10)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,89 @@
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inputs shared by the benchmarks: pages of recent tracks in the shape last.fm returns them, parsed tracks, and a
+ * JDBC connection stand-in for measuring the client side of inserts without a database.
+ */
+final class BenchmarkFixtures {
+    private static final long NEWEST_UTS = 1563768000L;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Renders a page of recent tracks as it comes over the wire.
+     *
+     * @param tracksPerPage the number of scrobbles on the page (1 to 200).
+     * @return the response body in UTF-8.
+     */
+    static byte[] recentTracksPage(int tracksPerPage) {
+        MockLastFmServer server = new MockLastFmServer(1000000, NEWEST_UTS, 180, 0);
+        Map<String, String> params = new HashMap<>();
+        params.put("user", "benchmark");
+        params.put("page", "2");
+        params.put("limit", String.valueOf(tracksPerPage));
+        return server.renderPage(params).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses enough pages to produce the given number of tracks.
+     *
+     * @param count the number of tracks wanted.
+     * @return the tracks, newest first.
+     */
+    static List<Track> tracks(int count) throws Exception {
+        List<Track> tracks = new ArrayList<>(count);
+        RecentTracksParser parser = new RecentTracksParser();
+        MockLastFmServer server = new MockLastFmServer(count, NEWEST_UTS, 180, 0);
+        Map<String, String> params = new HashMap<>();
+        params.put("limit", "200");
+        params.put("to", String.valueOf(NEWEST_UTS));
+        for (int page = 1; tracks.size() < count; page++) {
+            params.put("page", String.valueOf(page));
+            byte[] body = server.renderPage(params).toString().getBytes(StandardCharsets.UTF_8);
+            tracks.addAll(parser.parse(new java.io.ByteArrayInputStream(body)).getTracks());
+        }
+        return tracks;
+    }
+
+    /**
+     * Creates a connection whose statements accept every parameter and report every row as written, so that only
+     * the work done on our side of the driver is measured.
+     *
+     * @return a connection stand-in.
+     */
+    static Connection stubConnection() {
+        PreparedStatement statement = stub(PreparedStatement.class);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> method.getName().equals("prepareStatement")
+                        ? statement
+                        : defaultValue(method.getReturnType()));
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getName().equals("executeUpdate")) return 1;
+            if (method.getName().equals("executeBatch")) return new int[0];
+            return defaultValue(method.getReturnType());
+        }));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == char.class) return (char) 0;
+        return null;
+    }
+}
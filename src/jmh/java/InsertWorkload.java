@@ -0,0 +1,53 @@
+import benchmarks.InsertBenchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+public class InsertWorkload implements InsertBenchmark.Workload {
+    private Connection connection;
+    private List<Track> tracks;
+    private PreparedStatement reusedStatement;
+    private Timestamp current;
+    private int next;
+
+    @Override
+    public void setUp(String jdbcUrl, int batchSize) throws Exception {
+        connection = jdbcUrl.isEmpty() ? BenchmarkFixtures.stubConnection() : DriverManager.getConnection(jdbcUrl);
+        connection.setAutoCommit(false);
+        tracks = BenchmarkFixtures.tracks(batchSize);
+        reusedStatement = connection.prepareStatement(Track.INSERT_SQL);
+        current = new Timestamp(System.currentTimeMillis());
+    }
+
+    @Override
+    public int prepareInsertStatement() throws SQLException {
+        next = (next + 1) % tracks.size();
+        try (PreparedStatement statement = tracks.get(next).prepareInsertStatement(connection)) {
+            return statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public int[] batchInsert() throws SQLException {
+        for (Track track : tracks) {
+            track.bindInsertStatement(reusedStatement, current);
+            reusedStatement.addBatch();
+        }
+        return reusedStatement.executeBatch();
+    }
+
+    @Override
+    public void rollBack() throws SQLException {
+        connection.rollback();
+    }
+
+    @Override
+    public void tearDown() throws SQLException {
+        reusedStatement.close();
+        connection.close();
+    }
+}
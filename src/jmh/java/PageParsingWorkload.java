@@ -0,0 +1,46 @@
+import benchmarks.PageParsingBenchmark;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class PageParsingWorkload implements PageParsingBenchmark.Workload {
+    private byte[] page;
+    private RecentTracksParser parser;
+
+    @Override
+    public void setUp(int tracksPerPage) {
+        page = BenchmarkFixtures.recentTracksPage(tracksPerPage);
+        parser = new RecentTracksParser();
+    }
+
+    @Override
+    public Object streamingParse() throws IOException {
+        return parser.parse(new ByteArrayInputStream(page)).getTracks();
+    }
+
+    @Override
+    public Object domParse() {
+        JSONArray trackArray = new JSONObject(new String(page, StandardCharsets.UTF_8))
+                .getJSONObject("recenttracks")
+                .getJSONArray("track");
+        List<Track> tracks = new ArrayList<>(trackArray.length());
+        for (int i = 0; i < trackArray.length(); i++) {
+            JSONObject trackObject = trackArray.getJSONObject(i);
+            if (!trackObject.has("date")) continue;
+            tracks.add(new Track(
+                    trackObject.getJSONObject("artist").getString("#text"),
+                    trackObject.getJSONObject("album").getString("#text"),
+                    trackObject.getString("name"),
+                    new Date(trackObject.getJSONObject("date").getLong("uts") * 1000L),
+                    trackObject.getJSONArray("image").getJSONObject(3).getString("#text"),
+                    trackObject.getString("url")));
+        }
+        return tracks;
+    }
+}
@@ -0,0 +1,78 @@
+import benchmarks.SerializationBenchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+public class SerializationWorkload implements SerializationBenchmark.Workload {
+    private Track track;
+    private TrackFetcher fetcher;
+
+    @Override
+    public void setUp(int trackCount) throws Exception {
+        fetcher = new TrackFetcher(TrackFetcher.DEFAULT_API_ROOT, "benchmark", "benchmark", null, null);
+        fetcher.getTracks().addAll(BenchmarkFixtures.tracks(trackCount));
+        track = fetcher.getTracks().get(0);
+    }
+
+    @Override
+    public Object toJsonObject() {
+        return track.toJsonObject();
+    }
+
+    @Override
+    public String reflectiveJson() {
+        return track.toJsonObject().toString();
+    }
+
+    @Override
+    public String handWrittenJson() {
+        return TrackJsonWriter.toJson(track);
+    }
+
+    @Override
+    public void dumpTracks() {
+        fetcher.dumpTracks(new PrintWriter(new DiscardingWriter()));
+    }
+
+    /**
+     * Dumps the tracks the way {@link TrackFetcher#dumpTracks(PrintWriter)} did before the hand written serializer.
+     */
+    @Override
+    public void dumpReflectiveTracks() {
+        PrintWriter writer = new PrintWriter(new DiscardingWriter());
+        boolean started = false;
+        for (Track each : fetcher.getTracks()) {
+            writer.print(started ? ',' : '[');
+            writer.print(each.toJsonObject());
+            started = true;
+        }
+        writer.println(started ? "]" : "[]");
+        writer.close();
+    }
+
+    @Override
+    public void dumpNdjson() throws IOException {
+        try (JsonTrackSink sink = new JsonTrackSink(new PrintWriter(new DiscardingWriter()), true)) {
+            for (Track each : fetcher.getTracks())
+                sink.accept(each);
+        }
+    }
+
+    /**
+     * Throws away everything written, so only the cost of serializing is measured.
+     */
+    private static class DiscardingWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
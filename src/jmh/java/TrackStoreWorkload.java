@@ -0,0 +1,80 @@
+import benchmarks.TrackStoreBenchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TrackStoreWorkload implements TrackStoreBenchmark.Workload {
+    private List<Track> tracks;
+    private ArrayList<Track> list;
+    private TrackStore store;
+    private TimeWindow lastWeek;
+
+    @Override
+    public void setUp(int trackCount) throws Exception {
+        tracks = BenchmarkFixtures.tracks(trackCount);
+        list = new ArrayList<>(tracks);
+        store = TrackStore.of(tracks);
+        long newest = store.getNewest();
+        lastWeek = new TimeWindow(newest - 7 * 86400L, newest + 1);
+    }
+
+    @Override
+    public Object appendList() {
+        ArrayList<Track> appended = new ArrayList<>();
+        for (Track track : tracks)
+            appended.add(track);
+        return appended;
+    }
+
+    /**
+     * Appends newest first as the fetcher does, then runs a query so the cost of sorting is included.
+     */
+    @Override
+    public Object appendStore(boolean offHeap) {
+        TrackStore appended = new TrackStore(TrackStore.DEFAULT_CAPACITY, offHeap);
+        for (Track track : tracks)
+            appended.add(track);
+        appended.count(lastWeek);
+        return appended;
+    }
+
+    /**
+     * Sums the times of the tracks in the last week, checking every track the way a list has to.
+     */
+    @Override
+    public long scanWindowList() {
+        long sum = 0;
+        for (Track track : list)
+            if (lastWeek.contains(track.getListenedAt())) sum += track.getListenedAt().getTime() / 1000L;
+        return sum;
+    }
+
+    @Override
+    public long scanWindowStore() {
+        long sum = 0;
+        TrackStore.Cursor cursor = store.cursor(lastWeek);
+        while (cursor.next())
+            sum += cursor.getTime();
+        return sum;
+    }
+
+    /**
+     * Sums the times and artist hashes of every track.
+     */
+    @Override
+    public long scanAllList() {
+        long sum = 0;
+        for (Track track : list)
+            sum += track.getListenedAt().getTime() / 1000L + track.getArtist().hashCode();
+        return sum;
+    }
+
+    @Override
+    public long scanAllStore() {
+        long sum = 0;
+        TrackStore.Cursor cursor = store.cursor(new TimeWindow(0, 0));
+        while (cursor.next())
+            sum += cursor.getTime() + cursor.getString(TrackArchive.Column.ARTIST).hashCode();
+        return sum;
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the analytics queries over a large history, against grouping the tracks with a stream as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalyticsBenchmark {
+    public interface Workload {
+        void setUp(int trackCount) throws Exception;
+
+        Object build();
+
+        Object topArtists();
+
+        Object topArtistsLastMonth();
+
+        Object topTracks();
+
+        Object playsByHourOfDay();
+
+        Object longestStreak();
+
+        Object streamTopArtists();
+    }
+
+    @Param({"1000000"})
+    public int trackCount;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workloads.create("AnalyticsWorkload", Workload.class);
+        workload.setUp(trackCount);
+    }
+
+    @Benchmark
+    public Object build() {
+        return workload.build();
+    }
+
+    @Benchmark
+    public Object topArtists() {
+        return workload.topArtists();
+    }
+
+    @Benchmark
+    public Object topArtistsLastMonth() {
+        return workload.topArtistsLastMonth();
+    }
+
+    @Benchmark
+    public Object topTracks() {
+        return workload.topTracks();
+    }
+
+    @Benchmark
+    public Object playsByHourOfDay() {
+        return workload.playsByHourOfDay();
+    }
+
+    @Benchmark
+    public Object longestStreak() {
+        return workload.longestStreak();
+    }
+
+    @Benchmark
+    public Object streamTopArtists() {
+        return workload.streamTopArtists();
+    }
+}
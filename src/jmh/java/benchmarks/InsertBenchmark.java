@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the insert path. By default statements go to a stand-in connection, which isolates the work done on our
+ * side of the driver. Pass {@code -p jdbcUrl=jdbc:postgresql://localhost/lastfm?user=...&password=...} to run against
+ * a local Postgres instead; the inserts are rolled back after every iteration.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+    private static final int BATCH_SIZE = 500;
+
+    public interface Workload {
+        void setUp(String jdbcUrl, int batchSize) throws Exception;
+
+        int prepareInsertStatement() throws Exception;
+
+        int[] batchInsert() throws Exception;
+
+        void rollBack() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({""})
+    public String jdbcUrl;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workloads.create("InsertWorkload", Workload.class);
+        workload.setUp(jdbcUrl, BATCH_SIZE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollBack() throws Exception {
+        workload.rollBack();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    /**
+     * The per-track path: prepare, bind and execute a fresh statement for every track.
+     */
+    @Benchmark
+    public int prepareInsertStatement() throws Exception {
+        return workload.prepareInsertStatement();
+    }
+
+    /**
+     * The batched path: bind tracks onto one reused statement and send them a batch at a time.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] batchInsert() throws Exception {
+        return workload.batchInsert();
+    }
+}
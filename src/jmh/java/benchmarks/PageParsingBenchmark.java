@@ -0,0 +1,46 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a page of recent tracks into tracks. {@code domParse} keeps the org.json path the fetcher used
+ * before the streaming parser as a point of comparison.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageParsingBenchmark {
+    public interface Workload {
+        void setUp(int tracksPerPage) throws Exception;
+
+        Object streamingParse() throws Exception;
+
+        Object domParse();
+    }
+
+    @Param({"1", "50", "200"})
+    public int tracksPerPage;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workloads.create("PageParsingWorkload", Workload.class);
+        workload.setUp(tracksPerPage);
+    }
+
+    @Benchmark
+    public Object streamingParse() throws Exception {
+        return workload.streamingParse();
+    }
+
+    @Benchmark
+    public Object domParse() {
+        return workload.domParse();
+    }
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing tracks out as JSON, both one track at a time and as a whole dump, comparing org.json's reflective
+ * serialization with the hand written one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    public interface Workload {
+        void setUp(int trackCount) throws Exception;
+
+        Object toJsonObject();
+
+        String reflectiveJson();
+
+        String handWrittenJson();
+
+        void dumpTracks();
+
+        void dumpReflectiveTracks();
+
+        void dumpNdjson() throws Exception;
+    }
+
+    @Param({"1000"})
+    public int trackCount;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workloads.create("SerializationWorkload", Workload.class);
+        workload.setUp(trackCount);
+    }
+
+    @Benchmark
+    public Object toJsonObject() {
+        return workload.toJsonObject();
+    }
+
+    @Benchmark
+    public String reflectiveJson() {
+        return workload.reflectiveJson();
+    }
+
+    @Benchmark
+    public String handWrittenJson() {
+        return workload.handWrittenJson();
+    }
+
+    @Benchmark
+    public void dumpTracks() {
+        workload.dumpTracks();
+    }
+
+    @Benchmark
+    public void dumpReflectiveTracks() {
+        workload.dumpReflectiveTracks();
+    }
+
+    @Benchmark
+    public void dumpNdjson() throws Exception {
+        workload.dumpNdjson();
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures appending tracks and scanning them by time in the columnar store, on and off the heap, against a list of
+ * tracks searched linearly as the fetcher keeps them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrackStoreBenchmark {
+    public interface Workload {
+        void setUp(int trackCount) throws Exception;
+
+        Object appendList();
+
+        Object appendStore(boolean offHeap);
+
+        long scanWindowList();
+
+        long scanWindowStore();
+
+        long scanAllList();
+
+        long scanAllStore();
+    }
+
+    @Param({"1000000"})
+    public int trackCount;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workloads.create("TrackStoreWorkload", Workload.class);
+        workload.setUp(trackCount);
+    }
+
+    @Benchmark
+    public Object appendList() {
+        return workload.appendList();
+    }
+
+    @Benchmark
+    public Object appendStore() {
+        return workload.appendStore(false);
+    }
+
+    @Benchmark
+    public Object appendStoreOffHeap() {
+        return workload.appendStore(true);
+    }
+
+    @Benchmark
+    public long scanWindowList() {
+        return workload.scanWindowList();
+    }
+
+    @Benchmark
+    public long scanWindowStore() {
+        return workload.scanWindowStore();
+    }
+
+    @Benchmark
+    public long scanAllList() {
+        return workload.scanAllList();
+    }
+
+    @Benchmark
+    public long scanAllStore() {
+        return workload.scanAllStore();
+    }
+}
@@ -0,0 +1,23 @@
+package benchmarks;
+
+/**
+ * The classes under test live in the default package, which a benchmark class (required by JMH to be in a named
+ * package) can't refer to. Each benchmark therefore declares the operations it measures as an interface, and a
+ * default package class implements it. The implementation is loaded once per trial, and the JIT inlines the
+ * monomorphic interface calls, so the indirection doesn't show in the results.
+ */
+final class Workloads {
+    private Workloads() {
+    }
+
+    /**
+     * Loads a workload implemented in the default package.
+     *
+     * @param className the name of the implementing class.
+     * @param type      the interface it implements.
+     * @return a new instance of the workload.
+     */
+    static <T> T create(String className, Class<T> type) throws ReflectiveOperationException {
+        return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+    }
+}
@@ -0,0 +1,265 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A small pool of database connections. Connections are opened on demand up to a maximum, handed back after use and
+ * reused. A connection that has sat idle for a while is checked before it is handed out again, and one that turns
+ * out to be dead is closed and replaced with a fresh one, so a dropped connection costs a reconnect rather than the
+ * rest of the load.
+ */
+public class ConnectionPool implements AutoCloseable {
+    /**
+     * Opens a new connection to the database.
+     */
+    public interface ConnectionFactory {
+        /**
+         * Opens a new connection.
+         *
+         * @return the connection.
+         * @throws SQLException thrown if the connection can't be opened.
+         */
+        Connection open() throws SQLException;
+    }
+
+    /**
+     * How long a connection may sit idle before it is checked again, in milliseconds.
+     */
+    public static final long DEFAULT_VALIDATION_INTERVAL = 5000;
+
+    /**
+     * How long a health check may take, in seconds.
+     */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    /**
+     * How long to wait for a connection to be handed back when the pool is exhausted, in milliseconds.
+     */
+    private static final long BORROW_TIMEOUT = 60000;
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long validationInterval;
+
+    /**
+     * The connections waiting to be borrowed, most recently used first.
+     */
+    private final Deque<IdleConnection> idle;
+
+    /**
+     * The number of connections open, whether idle or borrowed, including those being opened.
+     */
+    private int openCount;
+
+    /**
+     * The number of connections closed because they failed a health check or were reported broken.
+     */
+    private long discardedCount;
+
+    private boolean closed;
+
+    /**
+     * Create a new pool. No connection is opened until one is borrowed.
+     *
+     * @param factory            opens new connections.
+     * @param maxSize            the maximum number of connections open at once.
+     * @param validationInterval how long a connection may sit idle before it is checked again, in milliseconds.
+     */
+    public ConnectionPool(ConnectionFactory factory, int maxSize, long validationInterval) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive");
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.validationInterval = validationInterval;
+        this.idle = new ArrayDeque<>();
+    }
+
+    public ConnectionPool(ConnectionFactory factory, int maxSize) {
+        this(factory, maxSize, DEFAULT_VALIDATION_INTERVAL);
+    }
+
+    // Getters
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets how long a connection may sit idle before it is checked again.
+     *
+     * @return the interval in milliseconds.
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Gets the number of connections thrown away because they were dead.
+     *
+     * @return the number of connections discarded.
+     */
+    public synchronized long getDiscardedCount() {
+        return discardedCount;
+    }
+
+    // Borrowing
+
+    /**
+     * Borrows a healthy connection, opening a new one if none is idle. Blocks while every connection is in use.
+     *
+     * @return the connection, which must be handed back with {@link #release(Connection)} or
+     * {@link #invalidate(Connection)}.
+     * @throws SQLException thrown if a connection can't be opened, or if none is handed back in time.
+     */
+    public Connection borrow() throws SQLException {
+        while (true) {
+            IdleConnection candidate = takeIdleOrReserve();
+            if (candidate == null) return open();
+            if (System.currentTimeMillis() - candidate.since < validationInterval || isValid(candidate.connection))
+                return candidate.connection;
+            invalidate(candidate.connection);
+        }
+    }
+
+    /**
+     * Hands a connection back to the pool. Any transaction left open on it is rolled back.
+     *
+     * @param connection the connection borrowed from this pool.
+     */
+    public void release(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                invalidate(connection);
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            invalidate(connection);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                openCount--;
+                closeQuietly(connection);
+            } else {
+                idle.push(new IdleConnection(connection));
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes a broken connection instead of handing it back, making room for a new one.
+     *
+     * @param connection the connection borrowed from this pool.
+     */
+    public void invalidate(Connection connection) {
+        closeQuietly(connection);
+        synchronized (this) {
+            openCount--;
+            discardedCount++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Checks whether a connection still works, with a round trip to the server.
+     *
+     * @param connection the connection to check.
+     * @return true if the connection can be used.
+     */
+    public boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the idle connections. Borrowed connections are closed as they are handed back.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (IdleConnection each : idle) {
+            closeQuietly(each.connection);
+            openCount--;
+        }
+        idle.clear();
+        notifyAll();
+    }
+
+    // Helpers
+
+    /**
+     * Takes an idle connection, or reserves room for a new one and returns null.
+     */
+    private synchronized IdleConnection takeIdleOrReserve() throws SQLException {
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+        while (idle.isEmpty() && openCount >= maxSize) {
+            if (closed) throw new SQLException("The connection pool is closed");
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) throw new SQLException("Timed out waiting for a database connection");
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+        }
+        if (closed) throw new SQLException("The connection pool is closed");
+        if (!idle.isEmpty()) return idle.pop();
+        openCount++;
+        return null;
+    }
+
+    /**
+     * Opens a connection in the room reserved by {@link #takeIdleOrReserve()}, outside the lock so a slow connect
+     * doesn't hold up connections being handed back.
+     */
+    private Connection open() throws SQLException {
+        try {
+            return factory.open();
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                openCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // The connection is being thrown away, most likely because it is already dead.
+        }
+    }
+
+    /**
+     * A connection waiting in the pool, with the time it was handed back.
+     */
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long since;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.since = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Drops tracks that were already written during this run before they reach another sink. A scrobble is identified by
+ * its artist, name and time, the same key as the unique index on the tracks table, so a repeat is dropped here
+ * instead of costing a round trip to the database.
+ */
+public class DeduplicatingSink implements TrackSink {
+    private final TrackSink downstream;
+
+    /**
+     * The scrobbles written so far.
+     */
+    private final Set<Key> seen;
+
+    /**
+     * The number of tracks dropped as repeats.
+     */
+    private long duplicateCount;
+
+    /**
+     * Create a new deduplicating sink.
+     *
+     * @param downstream the sink the first copy of each scrobble is written to. It is closed when this sink is.
+     */
+    public DeduplicatingSink(TrackSink downstream) {
+        this.downstream = downstream;
+        this.seen = new HashSet<>();
+    }
+
+    /**
+     * Gets the number of tracks dropped as repeats.
+     *
+     * @return the number of tracks dropped.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Forgets the scrobbles up to a time, for a caller that knows none of them can come again, such as a daemon
+     * whose polls only ask for newer ones. Call it between tracks, on the thread accepting them.
+     *
+     * @param time the time up to which scrobbles are forgotten, inclusive, or null to keep them all.
+     */
+    public void forgetUntil(Date time) {
+        if (time == null) return;
+        long until = time.getTime();
+        seen.removeIf(key -> key.listenedAt <= until);
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        if (seen.add(new Key(track)))
+            downstream.accept(track);
+        else
+            duplicateCount++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        downstream.flush();
+    }
+
+    @Override
+    public void whenDurable(Runnable action) throws IOException {
+        downstream.whenDurable(action);
+    }
+
+    @Override
+    public void close() throws IOException {
+        downstream.close();
+    }
+
+    /**
+     * The artist, name and time that identify a scrobble. The strings are the track's own, which the parser already
+     * shares between tracks, so a key costs little more than the object itself.
+     */
+    private static class Key {
+        private final String artist;
+        private final String name;
+        private final long listenedAt;
+
+        Key(Track track) {
+            this.artist = track.getArtist();
+            this.name = track.getName();
+            this.listenedAt = track.getListenedAt().getTime();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return listenedAt == key.listenedAt && Objects.equals(artist, key.artist) && Objects.equals(name, key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(artist, name, listenedAt);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Records which pages of a fetch have been written, so that an interrupted backfill picks up where it stopped
+ * instead of starting over.
+ * <p>
+ * A checkpointed fetch is pinned to a window of scrobble times, saved alongside the pages. Pinning the window keeps
+ * page numbers stable between runs: without it, every scrobble made after the first run would shift every page by
+ * one track. The file is rewritten through a temporary file and moved into place, so a crash never leaves it half
+ * written.
+ */
+public class FetchCheckpoint {
+    private final Path path;
+
+    /**
+     * The user whose scrobbles are being fetched, or null if no fetch has begun.
+     */
+    private String username;
+
+    /**
+     * The start of the window, in seconds since epoch.
+     */
+    private long from;
+
+    /**
+     * The end of the window, in seconds since epoch.
+     */
+    private long to;
+
+    /**
+     * The number of pages in the window, or 0 if it isn't known yet.
+     */
+    private int totalPages;
+
+    /**
+     * The windows the range was split into, newest first, or empty if it wasn't split.
+     */
+    private final List<TimeWindow> windows;
+
+    /**
+     * The pages whose tracks have been written.
+     */
+    private final BitSet completedPages;
+
+    private FetchCheckpoint(Path path) {
+        this.path = path;
+        this.windows = new ArrayList<>();
+        this.completedPages = new BitSet();
+    }
+
+    /**
+     * Loads a checkpoint from a file. A missing file gives an empty checkpoint, which is saved once a fetch begins.
+     *
+     * @param path the file the checkpoint is kept in.
+     * @return the checkpoint.
+     * @throws IOException thrown if the file exists but can't be read.
+     */
+    public static FetchCheckpoint load(Path path) throws IOException {
+        FetchCheckpoint checkpoint = new FetchCheckpoint(path);
+        if (!Files.exists(path)) return checkpoint;
+
+        Properties properties = new Properties();
+        try (InputStream stream = Files.newInputStream(path)) {
+            properties.load(stream);
+        }
+        try {
+            checkpoint.username = properties.getProperty("user");
+            checkpoint.from = Long.parseLong(properties.getProperty("from", "0"));
+            checkpoint.to = Long.parseLong(properties.getProperty("to", "0"));
+            checkpoint.totalPages = Integer.parseInt(properties.getProperty("totalPages", "0"));
+            parseRanges(properties.getProperty("completed", ""), checkpoint.completedPages);
+            for (String window : properties.getProperty("windows", "").split(","))
+                if (!window.trim().isEmpty()) checkpoint.windows.add(TimeWindow.parse(window));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unreadable checkpoint " + path, e);
+        }
+        return checkpoint;
+    }
+
+    // Getters
+
+    public synchronized long getFrom() {
+        return from;
+    }
+
+    public synchronized long getTo() {
+        return to;
+    }
+
+    /**
+     * Gets the windows the range was split into, so a resumed fetch numbers its pages the same way.
+     *
+     * @return the windows, newest first, or an empty list if the range wasn't split.
+     */
+    public synchronized List<TimeWindow> getWindows() {
+        return new ArrayList<>(windows);
+    }
+
+    /**
+     * Checks whether the checkpoint holds a fetch for the given user that can be resumed.
+     *
+     * @param username the user whose scrobbles are about to be fetched.
+     * @return true if the fetch should resume from this checkpoint.
+     */
+    public synchronized boolean isResumableFor(String username) {
+        return this.username != null && this.username.equals(username);
+    }
+
+    /**
+     * Checks whether a page has been written.
+     *
+     * @param pageNumber the page number.
+     * @return true if the page has been written.
+     */
+    public synchronized boolean isCompleted(int pageNumber) {
+        return completedPages.get(pageNumber);
+    }
+
+    /**
+     * Gets the number of pages written so far.
+     *
+     * @return the number of pages written so far.
+     */
+    public synchronized int getCompletedCount() {
+        return completedPages.cardinality();
+    }
+
+    // Updates
+
+    /**
+     * Starts a new fetch, forgetting any earlier one.
+     *
+     * @param username the user whose scrobbles are fetched.
+     * @param from     the start of the window, in seconds since epoch.
+     * @param to       the end of the window, in seconds since epoch.
+     * @throws IOException thrown if the checkpoint can't be saved.
+     */
+    public synchronized void begin(String username, long from, long to) throws IOException {
+        this.username = username;
+        this.from = from;
+        this.to = to;
+        this.totalPages = 0;
+        windows.clear();
+        completedPages.clear();
+        save();
+    }
+
+    /**
+     * Records the windows the range was split into.
+     *
+     * @param windows the windows, newest first.
+     * @throws IOException thrown if the checkpoint can't be saved.
+     */
+    public synchronized void setWindows(List<TimeWindow> windows) throws IOException {
+        this.windows.clear();
+        this.windows.addAll(windows);
+        save();
+    }
+
+    /**
+     * Records the number of pages in the window. If it changed since the checkpoint was saved, scrobbles inside the
+     * window were deleted and the page numbers no longer line up, so every page is fetched again.
+     *
+     * @param totalPages the number of pages in the window.
+     * @return false if the pages written earlier had to be forgotten.
+     * @throws IOException thrown if the checkpoint can't be saved.
+     */
+    public synchronized boolean setTotalPages(int totalPages) throws IOException {
+        boolean consistent = this.totalPages == 0 || this.totalPages == totalPages;
+        if (!consistent) completedPages.clear();
+        this.totalPages = totalPages;
+        save();
+        return consistent;
+    }
+
+    /**
+     * Records that a page has been written.
+     *
+     * @param pageNumber the page number.
+     * @throws IOException thrown if the checkpoint can't be saved.
+     */
+    public synchronized void complete(int pageNumber) throws IOException {
+        completedPages.set(pageNumber);
+        save();
+    }
+
+    /**
+     * Deletes the checkpoint once the fetch has finished, so the next run starts a new one.
+     *
+     * @throws IOException thrown if the file can't be deleted.
+     */
+    public synchronized void delete() throws IOException {
+        username = null;
+        windows.clear();
+        completedPages.clear();
+        Files.deleteIfExists(path);
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("user", username);
+        properties.setProperty("from", String.valueOf(from));
+        properties.setProperty("to", String.valueOf(to));
+        properties.setProperty("totalPages", String.valueOf(totalPages));
+        properties.setProperty("completed", formatRanges(completedPages));
+        StringBuilder formattedWindows = new StringBuilder();
+        for (TimeWindow window : windows)
+            formattedWindows.append(formattedWindows.length() > 0 ? "," : "").append(window);
+        properties.setProperty("windows", formattedWindows.toString());
+
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temporary)) {
+                properties.store(stream, "last.fm fetch checkpoint");
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // Helpers
+
+    /**
+     * Formats a set of page numbers as ranges, such as {@code 1-30,32,35-40}.
+     *
+     * @param pages the page numbers.
+     * @return the ranges, or an empty string if there are no pages.
+     */
+    static String formatRanges(BitSet pages) {
+        StringBuilder ranges = new StringBuilder();
+        for (int start = pages.nextSetBit(0); start >= 0; start = pages.nextSetBit(start)) {
+            int end = pages.nextClearBit(start) - 1;
+            if (ranges.length() > 0) ranges.append(',');
+            ranges.append(start);
+            if (end > start) ranges.append('-').append(end);
+            start = end + 1;
+        }
+        return ranges.toString();
+    }
+
+    /**
+     * Parses ranges written by {@link #formatRanges(BitSet)}.
+     *
+     * @param ranges the ranges.
+     * @param pages  the set to add the page numbers to.
+     */
+    static void parseRanges(String ranges, BitSet pages) {
+        for (String range : ranges.split(",")) {
+            if (range.trim().isEmpty()) continue;
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                pages.set(Integer.parseInt(range.trim()));
+            } else {
+                pages.set(Integer.parseInt(range.substring(0, dash).trim()),
+                        Integer.parseInt(range.substring(dash + 1).trim()) + 1);
+            }
+        }
+    }
+}
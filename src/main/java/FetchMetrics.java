@@ -0,0 +1,271 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Measures where a fetch spends its time: fetching and parsing pages, and writing batches to the database. Recording
+ * is a handful of uncontended additions, so it stays on even on the hot paths, and the numbers are read out through
+ * {@link MetricsReporter} as a periodic summary, over JMX or in the Prometheus text format.
+ */
+public class FetchMetrics implements FetchMetricsMXBean {
+    private final long startNanos;
+
+    /**
+     * The time from making a request to having parsed its page.
+     */
+    private final LatencyHistogram pageLatency;
+
+    /**
+     * The time spent reading and parsing response bodies, which is part of {@link #pageLatency}.
+     */
+    private final LatencyHistogram parseLatency;
+
+    /**
+     * The time taken to send a batch of rows to the database and have it run.
+     */
+    private final LatencyHistogram batchLatency;
+
+    private final LongAdder pagesFetched;
+    private final LongAdder pagesFailed;
+    private final LongAdder tracksFetched;
+    private final LongAdder rowsWritten;
+
+    private volatile LastFmHttpClient httpClient;
+    private volatile RetryPolicy retryPolicy;
+    private volatile IntSupplier queueDepth;
+
+    public FetchMetrics() {
+        startNanos = System.nanoTime();
+        pageLatency = new LatencyHistogram();
+        parseLatency = new LatencyHistogram();
+        batchLatency = new LatencyHistogram();
+        pagesFetched = new LongAdder();
+        pagesFailed = new LongAdder();
+        tracksFetched = new LongAdder();
+        rowsWritten = new LongAdder();
+        queueDepth = () -> 0;
+    }
+
+    // Sources
+
+    /**
+     * Reports the requests, bytes and retries counted by a client and a retry policy alongside the rest.
+     *
+     * @param httpClient  the client making requests to the API.
+     * @param retryPolicy the retry policy counting retries.
+     */
+    public void watch(LastFmHttpClient httpClient, RetryPolicy retryPolicy) {
+        this.httpClient = httpClient;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Reports the number of tracks waiting to be written.
+     *
+     * @param queueDepth reads the number of tracks waiting.
+     */
+    public void watchQueue(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    // Recording
+
+    /**
+     * Records a page fetched and parsed.
+     *
+     * @param nanos      the time from making the request to having parsed the page.
+     * @param trackCount the number of tracks on the page.
+     */
+    public void recordPage(long nanos, int trackCount) {
+        pageLatency.record(nanos);
+        pagesFetched.increment();
+        tracksFetched.add(trackCount);
+    }
+
+    /**
+     * Records a page that couldn't be fetched even after retrying.
+     */
+    public void recordFailedPage() {
+        pagesFailed.increment();
+    }
+
+    /**
+     * Records the time spent reading and parsing a response body.
+     *
+     * @param nanos the time taken.
+     */
+    public void recordParse(long nanos) {
+        parseLatency.record(nanos);
+    }
+
+    /**
+     * Records a batch of rows written to the database.
+     *
+     * @param nanos the time taken to send and run the batch.
+     * @param rows  the number of rows in the batch.
+     */
+    public void recordBatch(long nanos, int rows) {
+        batchLatency.record(nanos);
+        rowsWritten.add(rows);
+    }
+
+    // Reading
+
+    @Override
+    public long getPagesFetched() {
+        return pagesFetched.sum();
+    }
+
+    @Override
+    public long getPagesFailed() {
+        return pagesFailed.sum();
+    }
+
+    @Override
+    public long getTracksFetched() {
+        return tracksFetched.sum();
+    }
+
+    @Override
+    public double getTracksPerSecond() {
+        return perSecond(getTracksFetched());
+    }
+
+    @Override
+    public double getPageLatencyMeanMillis() {
+        return pageLatency.getMeanMillis();
+    }
+
+    @Override
+    public long getPageLatencyP50Millis() {
+        return pageLatency.getQuantileMillis(0.5);
+    }
+
+    @Override
+    public long getPageLatencyP99Millis() {
+        return pageLatency.getQuantileMillis(0.99);
+    }
+
+    @Override
+    public double getParseLatencyMeanMillis() {
+        return parseLatency.getMeanMillis();
+    }
+
+    @Override
+    public long getRequestCount() {
+        LastFmHttpClient httpClient = this.httpClient;
+        return httpClient == null ? 0 : httpClient.getRequestCount();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        LastFmHttpClient httpClient = this.httpClient;
+        ResponseCache cache = httpClient == null ? null : httpClient.getCache();
+        return cache == null ? 0 : cache.getMemoryHitCount() + cache.getDiskHitCount();
+    }
+
+    @Override
+    public long getWireBytes() {
+        LastFmHttpClient httpClient = this.httpClient;
+        return httpClient == null ? 0 : httpClient.getWireBytes();
+    }
+
+    @Override
+    public long getDecodedBytes() {
+        LastFmHttpClient httpClient = this.httpClient;
+        return httpClient == null ? 0 : httpClient.getDecodedBytes();
+    }
+
+    @Override
+    public long getRetryCount() {
+        RetryPolicy retryPolicy = this.retryPolicy;
+        return retryPolicy == null ? 0 : retryPolicy.getRetryCount();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchLatency.getCount();
+    }
+
+    @Override
+    public double getBatchLatencyMeanMillis() {
+        return batchLatency.getMeanMillis();
+    }
+
+    @Override
+    public long getBatchLatencyP99Millis() {
+        return batchLatency.getQuantileMillis(0.99);
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return perSecond(getRowsWritten());
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    /**
+     * Summarises the metrics on one line, for logging.
+     *
+     * @return the summary.
+     */
+    public String summary() {
+        return String.format(Locale.ROOT, "%d pages (%d failed, p50 %s, p99 %s, parse %.1f ms), %d tracks (%.0f/s); "
+                        + "%d requests (%d cached), %d retries, %d KB received, %d KB decoded; %d batches (p99 %s), "
+                        + "%d rows (%.0f/s); queue %d",
+                getPagesFetched(), getPagesFailed(), formatMillis(getPageLatencyP50Millis()),
+                formatMillis(getPageLatencyP99Millis()), getParseLatencyMeanMillis(), getTracksFetched(),
+                getTracksPerSecond(), getRequestCount(), getCacheHitCount(), getRetryCount(), getWireBytes() / 1024,
+                getDecodedBytes() / 1024, getBatchCount(),
+                formatMillis(getBatchLatencyP99Millis()), getRowsWritten(), getRowsPerSecond(), getQueueDepth());
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format.
+     *
+     * @return the metrics.
+     */
+    public String toPrometheus() {
+        StringBuilder output = new StringBuilder(4096);
+        pageLatency.appendPrometheus(output, "lastfm_page_fetch_seconds", "Time to fetch and parse a page.");
+        parseLatency.appendPrometheus(output, "lastfm_page_parse_seconds", "Time to read and parse a response body.");
+        batchLatency.appendPrometheus(output, "lastfm_db_batch_seconds", "Time to send and run a batch of rows.");
+        appendCounter(output, "lastfm_pages_fetched_total", "Pages fetched.", getPagesFetched());
+        appendCounter(output, "lastfm_pages_failed_total", "Pages that failed even after retrying.", getPagesFailed());
+        appendCounter(output, "lastfm_tracks_fetched_total", "Tracks fetched.", getTracksFetched());
+        appendCounter(output, "lastfm_requests_total", "Requests made to the API.", getRequestCount());
+        appendCounter(output, "lastfm_cache_hits_total", "Responses read from the cache instead of the API.",
+                getCacheHitCount());
+        appendCounter(output, "lastfm_retries_total", "Requests retried.", getRetryCount());
+        appendCounter(output, "lastfm_received_bytes_total", "Bytes received from the API.", getWireBytes());
+        appendCounter(output, "lastfm_decoded_bytes_total", "Bytes received once decompressed.", getDecodedBytes());
+        appendCounter(output, "lastfm_db_rows_written_total", "Rows sent to the database.", getRowsWritten());
+        output.append("# HELP lastfm_queue_depth Tracks waiting to be written.\n")
+                .append("# TYPE lastfm_queue_depth gauge\n")
+                .append("lastfm_queue_depth ").append(getQueueDepth()).append('\n');
+        return output.toString();
+    }
+
+    private static void appendCounter(StringBuilder output, String name, String help, long value) {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(" counter\n");
+        output.append(name).append(' ').append(value).append('\n');
+    }
+
+    private double perSecond(long count) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : count / seconds;
+    }
+
+    private static String formatMillis(long millis) {
+        return millis < 0 ? "> 30 s" : millis + " ms";
+    }
+}
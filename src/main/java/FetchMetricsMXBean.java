@@ -0,0 +1,42 @@
+/**
+ * The view of {@link FetchMetrics} published over JMX.
+ */
+public interface FetchMetricsMXBean {
+    long getPagesFetched();
+
+    long getPagesFailed();
+
+    long getTracksFetched();
+
+    double getTracksPerSecond();
+
+    double getPageLatencyMeanMillis();
+
+    long getPageLatencyP50Millis();
+
+    long getPageLatencyP99Millis();
+
+    double getParseLatencyMeanMillis();
+
+    long getRequestCount();
+
+    long getCacheHitCount();
+
+    long getWireBytes();
+
+    long getDecodedBytes();
+
+    long getRetryCount();
+
+    long getBatchCount();
+
+    double getBatchLatencyMeanMillis();
+
+    long getBatchLatencyP99Millis();
+
+    long getRowsWritten();
+
+    double getRowsPerSecond();
+
+    int getQueueDepth();
+}
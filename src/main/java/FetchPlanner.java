@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a range of scrobble times into windows of roughly the same number of scrobbles, so that a long history can
+ * be fetched as many short, independent cursors instead of one deep one.
+ * <p>
+ * Listening is rarely even, so the range is cut by density rather than by time: each window is counted with a
+ * one-track page, and a window holding more than twice the target is split again in proportion to its count.
+ */
+public class FetchPlanner {
+    /**
+     * Fetches one page of a window.
+     */
+    public interface Probe {
+        /**
+         * Fetches a page of a window.
+         *
+         * @param window the window.
+         * @param page   the page number, starting at 1.
+         * @param limit  the number of tracks per page.
+         * @return the page.
+         * @throws IOException thrown if the page can't be fetched.
+         */
+        RecentTracksPage fetch(TimeWindow window, int page, int limit) throws IOException;
+    }
+
+    private final Probe probe;
+
+    /**
+     * The number of scrobbles aimed for in each window.
+     */
+    private final int targetTracks;
+
+    /**
+     * Runs the counts of a level of windows at the same time, or null to run them one after another.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The number of requests made to plan so far.
+     */
+    private int probeCount;
+
+    /**
+     * Create a new planner.
+     *
+     * @param probe        fetches the pages used to count windows.
+     * @param targetTracks the number of scrobbles aimed for in each window.
+     * @param executor     runs counts at the same time, or null to run them one after another.
+     */
+    public FetchPlanner(Probe probe, int targetTracks, ExecutorService executor) {
+        if (targetTracks < 1)
+            throw new IllegalArgumentException("targetTracks must be positive");
+        this.probe = probe;
+        this.targetTracks = targetTracks;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the number of requests made to plan so far.
+     *
+     * @return the number of requests made to plan so far.
+     */
+    public int getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * Splits a bounded range into counted windows, newest first. Windows without scrobbles are left out. A range
+     * starting at epoch is only split once its oldest scrobble has been found; if last.fm doesn't return it, the range
+     * is fetched as one window.
+     *
+     * @param range the range to split, bounded on both sides except that a start of 0 means since epoch.
+     * @return the windows, newest first.
+     * @throws IOException thrown if a window can't be counted.
+     */
+    public List<TimeWindow> plan(TimeWindow range) throws IOException {
+        if (range.getTo() == 0)
+            throw new IllegalArgumentException("The range to plan must have an end");
+        RecentTracksPage first = fetch(range, 1);
+        long total = first.getTotal();
+        if (total == 0) return new ArrayList<>();
+
+        // Start at the oldest scrobble rather than at epoch, so no counts are wasted on years of nothing.
+        List<Track> oldest = fetch(range, (int) Math.min(Integer.MAX_VALUE, total)).getTracks();
+        if (!oldest.isEmpty()) {
+            long oldestUts = oldest.get(oldest.size() - 1).getListenedAt().getTime() / 1000L;
+            if (oldestUts > range.getFrom()) range = range.withFrom(oldestUts);
+        }
+
+        List<TimeWindow> windows = new ArrayList<>();
+        split(range.withTrackCount(total), windows);
+        return windows;
+    }
+
+    private void split(TimeWindow window, List<TimeWindow> windows) throws IOException {
+        long count = window.getTrackCount();
+        if (count <= 2L * targetTracks || window.getFrom() == 0 || window.getTo() - window.getFrom() <= 1) {
+            windows.add(window);
+            return;
+        }
+        int partCount = (int) Math.min(Integer.MAX_VALUE, (count + targetTracks - 1) / targetTracks);
+        List<TimeWindow> parts = window.split(partCount);
+        for (TimeWindow part : count(parts))
+            if (part.getTrackCount() > 0) split(part, windows);
+    }
+
+    /**
+     * Counts windows, at the same time if there is an executor.
+     */
+    private List<TimeWindow> count(List<TimeWindow> windows) throws IOException {
+        List<TimeWindow> counted = new ArrayList<>(windows.size());
+        if (executor == null) {
+            for (TimeWindow window : windows)
+                counted.add(window.withTrackCount(fetch(window, 1).getTotal()));
+            return counted;
+        }
+        List<Future<RecentTracksPage>> pages = new ArrayList<>(windows.size());
+        for (TimeWindow window : windows) {
+            probeCount++;
+            pages.add(executor.submit(() -> probe.fetch(window, 1, 1)));
+        }
+        for (int i = 0; i < windows.size(); i++)
+            counted.add(windows.get(i).withTrackCount(await(pages.get(i)).getTotal()));
+        return counted;
+    }
+
+    private RecentTracksPage fetch(TimeWindow window, int page) throws IOException {
+        probeCount++;
+        return probe.fetch(window, page, 1);
+    }
+
+    private static RecentTracksPage await(Future<RecentTracksPage> page) throws IOException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while planning the fetch");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IllegalStateException("Unable to plan the fetch", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Adds tracks to the end of a JSON file written by an earlier run, a JSON array or NDJSON, so a daily export only
+ * writes the new scrobbles instead of the whole history again.
+ * <p>
+ * Where to start fetching is the newest scrobble in the file, found without parsing it. A dump is written newest
+ * first, and every batch appended after it is written oldest first, so the newest scrobble is always the first or the
+ * last record. Only those two are read, from the head and the tail of the mapped file, and the file is only mapped
+ * as far as it takes to find them, usually a few kilobytes at each end.
+ * <p>
+ * Appended tracks are held until the sink is flushed or closed, then sorted and written in one go, replacing the
+ * closing bracket of an array. A file that doesn't exist yet, or holds no tracks, is written as a plain dump, streamed
+ * newest first, until the first flush.
+ */
+public class JsonTrackAppender implements TrackSink {
+    /**
+     * How much of each end of the file is mapped at first, in bytes. It is doubled until a whole record fits.
+     */
+    private static final int WINDOW_SIZE = 1 << 12;
+
+    private final Path path;
+
+    /**
+     * Whether the file holds one object per line instead of an array.
+     */
+    private final boolean ndjson;
+
+    /**
+     * The time of the newest scrobble in the file when it was opened, or null if it held none.
+     */
+    private final Date newest;
+
+    /**
+     * The sink writing a new file, until it is first flushed, or null once appending.
+     */
+    private JsonTrackSink dump;
+
+    /**
+     * The tracks waiting to be appended.
+     */
+    private final List<Track> pending = new ArrayList<>();
+
+    /**
+     * The actions to run once the pending tracks are written.
+     */
+    private final List<Runnable> pendingActions = new ArrayList<>();
+
+    /**
+     * Open a JSON file to append to.
+     *
+     * @param path   the file. It is created if it doesn't exist.
+     * @param ndjson whether the file holds one object per line instead of an array.
+     * @throws IOException thrown if the file can't be read, or its first or last track can't be parsed.
+     */
+    public JsonTrackAppender(Path path, boolean ndjson) throws IOException {
+        this.path = path;
+        this.ndjson = ndjson;
+        this.newest = Files.exists(path) ? newestListenedAt(path, ndjson) : null;
+        if (newest == null) {
+            dump = new JsonTrackSink(new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(path), StandardCharsets.UTF_8), 1 << 16)), ndjson);
+        }
+    }
+
+    /**
+     * Gets the time of the newest scrobble in the file when it was opened, which is where the fetch should start.
+     *
+     * @return the time, or null if the file held no tracks.
+     */
+    public Date getNewest() {
+        return newest;
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        if (dump != null)
+            dump.accept(track);
+        else
+            pending.add(track);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (dump != null) {
+            // The dump is finished, so the next tracks are newer than everything in it and are appended.
+            JsonTrackSink finished = dump;
+            dump = null;
+            finished.close();
+        } else if (!pending.isEmpty()) {
+            append();
+        }
+        for (Runnable action : pendingActions)
+            action.run();
+        pendingActions.clear();
+    }
+
+    @Override
+    public void whenDurable(Runnable action) throws IOException {
+        if (dump != null)
+            dump.whenDurable(action);
+        else
+            pendingActions.add(action);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Writes the pending tracks to the end of the file, oldest first, so the last one is the newest in the file.
+     */
+    private void append() throws IOException {
+        pending.sort(Comparator.comparing(Track::getListenedAt));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            boolean first = false;
+            boolean lineBreak = false;
+            long position = size;
+            if (ndjson) {
+                lineBreak = size > 0 && map(channel, size - 1, size).get() != '\n';
+            } else {
+                ByteBuffer tail = map(channel, Math.max(0, size - WINDOW_SIZE), size);
+                int close = skipWhitespaceBackward(tail, tail.limit() - 1);
+                if (close < 0 || tail.get(close) != ']')
+                    throw new IOException("Not a JSON array of tracks: " + path);
+                int previous = skipWhitespaceBackward(tail, close - 1);
+                first = previous >= 0 && tail.get(previous) == '[';
+                position = size - tail.limit() + close;
+            }
+            channel.position(position);
+            TrackJsonWriter writer = new TrackJsonWriter(new BufferedWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16));
+            // The last line of an NDJSON file written by hand may have no line break.
+            if (lineBreak) writer.write('\n');
+            for (Track track : pending) {
+                if (ndjson) {
+                    writer.writeLine(track);
+                } else {
+                    if (!first) writer.write(',');
+                    writer.writeTrack(track);
+                    first = false;
+                }
+            }
+            if (!ndjson) {
+                writer.write(']');
+                writer.write('\n');
+            }
+            writer.flush();
+            channel.truncate(channel.position());
+        }
+        pending.clear();
+    }
+
+    // Reading the newest track
+
+    /**
+     * Finds the newest scrobble in a JSON file, reading only its first and last tracks.
+     *
+     * @param path   the file.
+     * @param ndjson whether the file holds one object per line instead of an array.
+     * @return the time of the newest scrobble, or null if the file holds no tracks.
+     * @throws IOException thrown if the file can't be read, or its first or last track can't be parsed.
+     */
+    static Date newestListenedAt(Path path, boolean ndjson) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            String first = null;
+            String last = null;
+            for (long window = WINDOW_SIZE; first == null || last == null; window *= 2) {
+                boolean whole = window >= size;
+                if (first == null) first = firstRecord(map(channel, 0, Math.min(size, window)), ndjson, whole);
+                if (last == null) last = lastRecord(map(channel, Math.max(0, size - window), size), ndjson, whole);
+                if (whole && (first == null || last == null))
+                    throw new IOException("Unable to find the first and last tracks of " + path);
+            }
+            if (first.isEmpty()) return null;
+            long newest = Math.max(listenedAt(first), listenedAt(last));
+            return new Date(newest);
+        } catch (JSONException e) {
+            throw new IOException("Unable to parse the first or last track of " + path, e);
+        }
+    }
+
+    /**
+     * Finds the first record of a file from its head.
+     *
+     * @param head   the head of the file.
+     * @param ndjson whether the file holds one object per line.
+     * @param whole  whether the head is the whole file.
+     * @return the record, an empty string if the file holds no tracks, or null if the head is too short to tell.
+     * @throws IOException thrown if the file isn't a JSON array of tracks.
+     */
+    private static String firstRecord(ByteBuffer head, boolean ndjson, boolean whole) throws IOException {
+        int start = skipWhitespace(head, 0);
+        if (start == head.limit()) return whole ? "" : null;
+        if (ndjson) {
+            for (int i = start; i < head.limit(); i++) {
+                if (head.get(i) == '\n') return decode(head, start, i);
+            }
+            return whole ? decode(head, start, head.limit()) : null;
+        }
+        if (head.get(start) != '[') throw new IOException("Not a JSON array of tracks");
+        start = skipWhitespace(head, start + 1);
+        if (start == head.limit()) return whole ? "" : null;
+        if (head.get(start) == ']') return "";
+        int end = objectEnd(head, start);
+        return end < 0 ? null : decode(head, start, end);
+    }
+
+    /**
+     * Finds the last record of a file from its tail.
+     *
+     * @param tail   the tail of the file.
+     * @param ndjson whether the file holds one object per line.
+     * @param whole  whether the tail is the whole file.
+     * @return the record, an empty string if the file holds no tracks, or null if the tail is too short to tell.
+     * @throws IOException thrown if the file isn't a JSON array of tracks.
+     */
+    private static String lastRecord(ByteBuffer tail, boolean ndjson, boolean whole) throws IOException {
+        int end = skipWhitespaceBackward(tail, tail.limit() - 1);
+        if (end < 0) return whole ? "" : null;
+        if (ndjson) {
+            for (int i = end; i >= 0; i--) {
+                if (tail.get(i) == '\n') return decode(tail, i + 1, end + 1);
+            }
+            return whole ? decode(tail, 0, end + 1) : null;
+        }
+        if (tail.get(end) != ']') throw new IOException("Not a JSON array of tracks");
+        end = skipWhitespaceBackward(tail, end - 1);
+        if (end < 0) return whole ? "" : null;
+        if (tail.get(end) == '[') return "";
+        // Strings may hold braces, so each opening brace is tried until one starts an object running to the end.
+        for (int start = end - 1; start >= 0; start--) {
+            if (tail.get(start) != '{') continue;
+            int before = skipWhitespaceBackward(tail, start - 1);
+            if (before < 0 || tail.get(before) != ',' && tail.get(before) != '[') continue;
+            if (objectEnd(tail, start) == end + 1) return decode(tail, start, end + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the end of the JSON object starting at an offset, skipping over strings.
+     *
+     * @return the offset just past the closing brace, or -1 if the object doesn't end in the buffer.
+     */
+    private static int objectEnd(ByteBuffer buffer, int start) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (inString) {
+                if (b == '\\') i++;
+                else if (b == '"') inString = false;
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{') {
+                depth++;
+            } else if (b == '}' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the time of a record from its {@code uts}. The {@code listenedAt} text isn't parsed instead: its time zone
+     * abbreviation can name more than one zone, and a wrong guess would skip scrobbles on every later append.
+     */
+    private static long listenedAt(String record) throws IOException {
+        JSONObject json = new JSONObject(record);
+        if (!json.has("uts"))
+            throw new IOException("The track " + record + " has no uts, so where to resume can't be told exactly."
+                    + " Write the file again before appending to it");
+        return json.getLong("uts") * 1000L;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int offset) {
+        while (offset < buffer.limit() && Character.isWhitespace(buffer.get(offset)))
+            offset++;
+        return offset;
+    }
+
+    private static int skipWhitespaceBackward(ByteBuffer buffer, int offset) {
+        while (offset >= 0 && Character.isWhitespace(buffer.get(offset)))
+            offset--;
+        return offset;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes tracks as JSON, one element at a time, so the output never has to be built in memory. Tracks are written
+ * either as a single JSON array or as NDJSON, one object per line, which readers can also consume a line at a time.
+ */
+public class JsonTrackSink implements TrackSink {
+    private final PrintWriter writer;
+    private final TrackJsonWriter jsonWriter;
+
+    /**
+     * Whether to write one object per line instead of an array.
+     */
+    private final boolean ndjson;
+
+    /**
+     * Whether or not a track has been written yet.
+     */
+    private boolean started;
+
+    /**
+     * Create a new JSON sink that writes a JSON array.
+     *
+     * @param writer the writer to write the tracks to. It is closed when the sink is closed.
+     */
+    public JsonTrackSink(PrintWriter writer) {
+        this(writer, false);
+    }
+
+    /**
+     * Create a new JSON sink.
+     *
+     * @param writer the writer to write the tracks to. It is closed when the sink is closed.
+     * @param ndjson whether to write one object per line instead of an array.
+     */
+    public JsonTrackSink(PrintWriter writer, boolean ndjson) {
+        this.writer = writer;
+        this.jsonWriter = new TrackJsonWriter(writer);
+        this.ndjson = ndjson;
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        if (ndjson) {
+            jsonWriter.writeLine(track);
+        } else {
+            jsonWriter.write(started ? ',' : '[');
+            jsonWriter.writeTrack(track);
+        }
+        started = true;
+        if (writer.checkError()) throw new IOException("Unable to write track");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        jsonWriter.flush();
+        if (writer.checkError()) throw new IOException("Unable to write tracks");
+    }
+
+    @Override
+    public void close() throws IOException {
+        jsonWriter.flush();
+        if (!ndjson) writer.println(started ? "]" : "[]");
+        boolean failed = writer.checkError();
+        writer.close();
+        if (failed) throw new IOException("Unable to write tracks");
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+
+/**
+ * An error reported by the last.fm API, either as an HTTP status or as an error code in the response body.
+ */
+public class LastFmException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The error code last.fm uses when a client goes over its rate limit.
+     */
+    public static final int RATE_LIMIT_EXCEEDED = 29;
+
+    /**
+     * The HTTP status of the response, or 200 if the error was reported in the body of a successful response.
+     */
+    private final int httpStatus;
+
+    /**
+     * The last.fm error code, or 0 if the response had none.
+     */
+    private final int errorCode;
+
+    /**
+     * How long the server asked us to wait before trying again, in milliseconds, or -1 if it didn't say.
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * Create a new last.fm exception.
+     *
+     * @param message          the message describing the error.
+     * @param httpStatus       the HTTP status of the response.
+     * @param errorCode        the last.fm error code, or 0 if there was none.
+     * @param retryAfterMillis how long the server asked us to wait, or -1 if it didn't say.
+     */
+    public LastFmException(String message, int httpStatus, int errorCode, long retryAfterMillis) {
+        super(message);
+        this.httpStatus = httpStatus;
+        this.errorCode = errorCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    // Getters
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Whether last.fm is throttling us, so every request should slow down rather than just this one.
+     *
+     * @return true if the error is a rate limit.
+     */
+    public boolean isRateLimited() {
+        return httpStatus == 429 || errorCode == RATE_LIMIT_EXCEEDED;
+    }
+
+    /**
+     * Whether the same request could succeed if tried again later.
+     *
+     * @return true for rate limits, server errors and last.fm's temporary failures.
+     */
+    public boolean isRetryable() {
+        if (isRateLimited() || httpStatus >= 500) return true;
+        switch (errorCode) {
+            case 8:  // Operation failed
+            case 11: // Service offline
+            case 16: // Temporarily unavailable
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Makes requests to the last.fm API. Responses are requested compressed and decoded on the fly, every request has
+ * connect and read timeouts, and each response body is read to the end and closed so the JDK can hand the connection
+ * back to its keep-alive pool for the next page. With a {@link ResponseCache}, responses already seen are read from it
+ * instead, and don't count as requests.
+ */
+public class LastFmHttpClient {
+    /**
+     * The connect timeout used when none is configured, in milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /**
+     * The read timeout used when none is configured, in milliseconds.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    /**
+     * Reads a response body.
+     *
+     * @param <T> the type read from the body.
+     */
+    public interface ResponseReader<T> {
+        T read(InputStream stream) throws IOException;
+    }
+
+    /**
+     * Finds the error code in a last.fm error body such as {@code {"error": 29, "message": "Rate Limit Exceeded"}}.
+     */
+    private static final Pattern ERROR_CODE = Pattern.compile("\"error\"\\s*:\\s*(\\d+)");
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong compressedResponseCount = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * Keeps responses so they aren't requested again, or null to request every time.
+     */
+    private volatile ResponseCache cache;
+
+    /**
+     * Records every response received, or null to record nothing.
+     */
+    private volatile ResponseRecording recording;
+
+    /**
+     * Create a new client with the default timeouts.
+     */
+    public LastFmHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Create a new client. The number of idle connections the JDK keeps alive per host is set for the whole JVM by the
+     * {@code http.maxConnections} system property, 5 by default.
+     *
+     * @param connectTimeout the connect timeout in milliseconds.
+     * @param readTimeout    the read timeout in milliseconds.
+     */
+    public LastFmHttpClient(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    // Getters and setters
+
+    public ResponseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets where responses are kept so they aren't requested again.
+     *
+     * @param cache the cache, or null to request every time.
+     */
+    public void setCache(ResponseCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets where every response received is recorded, to be replayed by {@link MockLastFmServer}.
+     *
+     * @param recording the recording, or null to record nothing.
+     */
+    public void setRecording(ResponseRecording recording) {
+        this.recording = recording;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getCompressedResponseCount() {
+        return compressedResponseCount.get();
+    }
+
+    /**
+     * Gets the number of response body bytes received, before decompression.
+     *
+     * @return the number of bytes received.
+     */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    /**
+     * Gets the number of response body bytes after decompression.
+     *
+     * @return the number of bytes decoded.
+     */
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    // Requests
+
+    /**
+     * Reads the response kept in the cache for a request, without making it.
+     *
+     * @param url    the URL of the request.
+     * @param reader reads the response body.
+     * @param <T>    the type read from the body.
+     * @return what the reader read, or null if no response is kept for the request.
+     * @throws IOException thrown if the body can't be read.
+     */
+    public <T> T getCached(URL url, ResponseReader<T> reader) throws IOException {
+        ResponseCache cache = this.cache;
+        byte[] body = cache == null ? null : cache.get(url);
+        return body == null ? null : reader.read(new ByteArrayInputStream(body));
+    }
+
+    /**
+     * Reads the response kept in the cache for a request, or makes a GET request if none is kept.
+     *
+     * @param url    the URL to request.
+     * @param reader reads the decoded response body.
+     * @param <T>    the type read from the body.
+     * @return what the reader read.
+     * @throws LastFmException thrown if the status isn't 200.
+     * @throws IOException     thrown if the request fails or the body can't be read.
+     */
+    public <T> T get(URL url, ResponseReader<T> reader) throws IOException {
+        T cached = getCached(url, reader);
+        return cached != null ? cached : request(url, reader);
+    }
+
+    /**
+     * Makes a GET request and reads the response body, without looking in the cache first. The response is still
+     * kept in the cache if it is cacheable.
+     *
+     * @param url    the URL to request.
+     * @param reader reads the decoded response body.
+     * @param <T>    the type read from the body.
+     * @return what the reader read.
+     * @throws LastFmException thrown if the status isn't 200.
+     * @throws IOException     thrown if the request fails or the body can't be read.
+     */
+    public <T> T request(URL url, ResponseReader<T> reader) throws IOException {
+        ResponseCache cache = this.cache;
+        ResponseRecording recording = this.recording;
+        requestCount.incrementAndGet();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        connection.setRequestProperty("Accept", "application/json");
+
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            String body = readError(connection);
+            Matcher errorCode = ERROR_CODE.matcher(body);
+            throw new LastFmException(String.format("HTTP %d from %s", status, url.getPath()), status,
+                    errorCode.find() ? Integer.parseInt(errorCode.group(1)) : 0,
+                    parseRetryAfter(connection.getHeaderField("Retry-After")));
+        }
+
+        try (CountingInputStream wire = new CountingInputStream(connection.getInputStream(), wireBytes);
+             CountingInputStream decoded = new CountingInputStream(decode(wire, connection.getContentEncoding()), decodedBytes)) {
+            // The body is copied as it is read, so it is only kept once the reader has accepted it.
+            boolean keep = recording != null || cache != null && cache.isCacheable(url);
+            ByteArrayOutputStream copy = keep ? new ByteArrayOutputStream(16384) : null;
+            InputStream body = copy == null ? decoded : new CopyingInputStream(decoded, copy);
+            T result = reader.read(body);
+            // The connection only goes back to the pool once the body has been read to the end.
+            drain(body);
+            if (copy != null) {
+                byte[] copied = copy.toByteArray();
+                if (cache != null) cache.put(url, copied);
+                if (recording != null) recording.record(url, copied);
+            }
+            return result;
+        }
+    }
+
+    private InputStream decode(InputStream stream, String encoding) throws IOException {
+        if (encoding == null) return stream;
+        switch (encoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                compressedResponseCount.incrementAndGet();
+                return new GZIPInputStream(stream, 8192);
+            case "deflate":
+                compressedResponseCount.incrementAndGet();
+                return new InflaterInputStream(stream);
+            default:
+                return stream;
+        }
+    }
+
+    // Helpers
+
+    private static void drain(InputStream stream) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (stream.read(buffer) != -1) ;
+    }
+
+    /**
+     * Reads the start of an error response, which last.fm fills with a JSON error code, and drains the rest so the
+     * connection can be reused.
+     */
+    private String readError(HttpURLConnection connection) {
+        InputStream stream = connection.getErrorStream();
+        if (stream == null) return "";
+        byte[] start = new byte[1024];
+        int length = 0;
+        try (InputStream closing = decode(stream, connection.getContentEncoding())) {
+            int count;
+            while (length < start.length && (count = closing.read(start, length, start.length - length)) != -1)
+                length += count;
+            drain(closing);
+        } catch (IOException ignored) {
+            // The connection won't be reused and the error code may be missing, which is all we lose.
+        }
+        return new String(start, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a Retry-After header, which holds either a number of seconds or an HTTP date.
+     *
+     * @param header the value of the header, or null if there was none.
+     * @return how long to wait in milliseconds, or -1 if the header is missing or unreadable.
+     */
+    static long parseRetryAfter(String header) {
+        if (header == null) return -1;
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(header.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime retryAt = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, retryAt.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Copies the bytes read through it to an output stream.
+     */
+    private static class CopyingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream copy;
+
+        CopyingInputStream(InputStream stream, ByteArrayOutputStream copy) {
+            super(stream);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int chr = super.read();
+            if (chr != -1) copy.write(chr);
+            return chr;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) copy.write(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes still have to be copied, so they are read instead.
+            byte[] buffer = new byte[(int) Math.min(count, 4096)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+    }
+
+    /**
+     * Adds the number of bytes read through it to a counter.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream stream, AtomicLong counter) {
+            super(stream);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int chr = super.read();
+            if (chr != -1) counter.incrementAndGet();
+            return chr;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) counter.addAndGet(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations into fixed buckets, cheaply enough to record every page and every batch from many threads at once.
+ * Quantiles are estimated from the buckets, so they are only as fine as the bucket bounds.
+ */
+public class LatencyHistogram {
+    /**
+     * The upper bounds of the buckets, in milliseconds. Durations above the last go into an overflow bucket.
+     */
+    private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final LongAdder sumNanos;
+
+    public LatencyHistogram() {
+        buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+        count = new LongAdder();
+        sumNanos = new LongAdder();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[bucket])
+            bucket++;
+        buckets[bucket].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time since a start time taken from {@link System#nanoTime()}.
+     *
+     * @param startNanos the start time.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the mean duration.
+     *
+     * @return the mean in milliseconds, or 0 if nothing was recorded.
+     */
+    public double getMeanMillis() {
+        long count = getCount();
+        return count == 0 ? 0 : sumNanos.sum() / 1e6 / count;
+    }
+
+    /**
+     * Estimates a quantile as the upper bound of the bucket it falls in.
+     *
+     * @param quantile the quantile, between 0 and 1.
+     * @return the estimate in milliseconds, 0 if nothing was recorded, or -1 if it is past the last bound.
+     */
+    public long getQuantileMillis(double quantile) {
+        long count = getCount();
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) return BOUNDS_MILLIS[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format, in seconds.
+     *
+     * @param output the output to append to.
+     * @param name   the name of the metric.
+     * @param help   what the metric measures.
+     */
+    public void appendPrometheus(StringBuilder output, String name, String help) {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            cumulative += buckets[i].sum();
+            output.append(name).append("_bucket{le=\"").append(String.format(Locale.ROOT, "%.3f", BOUNDS_MILLIS[i] / 1000.0))
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[BOUNDS_MILLIS.length].sum();
+        output.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        output.append(name).append("_sum ").append(String.format(Locale.ROOT, "%.6f", sumNanos.sum() / 1e9)).append('\n');
+        output.append(name).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,545 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Answers questions about a listening history, such as the top artists of last month or the hours most listened at,
+ * straight from fetched tracks rather than from the database.
+ * <p>
+ * The analytics read the sorted columns of a {@link TrackStore}: the times in seconds and the dictionary ids of the
+ * strings, the artist among them. On top of those, each scrobble gets a dense id for its album (an artist and album
+ * title) and its track, grouped the way {@link Track#looseEquals(Track, boolean)} compares them, by artist and name
+ * and, optionally, album. A time range is then a slice found by binary search, and counting plays is incrementing an
+ * {@code int[]} indexed by id, split across cores for large slices. Top entries are picked with a heap of packed
+ * {@code long}s, so no query boxes a count.
+ * <p>
+ * Nothing is written once the analytics are built, so they can be queried from many threads at once, as long as no
+ * track is added to the store.
+ */
+public class ListeningAnalytics {
+    /**
+     * Slices shorter than this are counted on the calling thread, since splitting them costs more than it saves.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private final TrackStore store;
+    private final int size;
+
+    /**
+     * The times of the scrobbles in seconds since epoch, oldest first.
+     */
+    private final LongBuffer times;
+
+    /**
+     * The store's artist id of each scrobble.
+     */
+    private final IntBuffer artistIds;
+
+    /**
+     * The id of each scrobble's album, -1 for none, its track, and its track told apart by album.
+     */
+    private final IntBuffer albumIds;
+    private final IntBuffer trackIds;
+    private final IntBuffer albumTrackIds;
+
+    /**
+     * The store's artist id and album id of each album.
+     */
+    private final int[] albumArtists;
+    private final int[] albumTitles;
+
+    /**
+     * The store's artist id and name id of each track.
+     */
+    private final int[] trackArtists;
+    private final int[] trackNames;
+
+    /**
+     * The track id and album id, -1 for none, of each track told apart by album.
+     */
+    private final int[] albumTrackTracks;
+    private final int[] albumTrackAlbums;
+
+    private ListeningAnalytics(TrackStore store) {
+        store.sort();
+        this.store = store;
+        this.times = store.getTimes();
+        this.artistIds = store.getIds(TrackArchive.Column.ARTIST);
+        IntBuffer titleColumn = store.getIds(TrackArchive.Column.ALBUM);
+        IntBuffer nameColumn = store.getIds(TrackArchive.Column.NAME);
+
+        // An empty album title means no album, like a missing one.
+        int[] titles = new int[store.getDictionarySize(TrackArchive.Column.ALBUM) + 1];
+        for (int title = 1; title < titles.length; title++)
+            titles[title] = store.getString(TrackArchive.Column.ALBUM, title).isEmpty() ? 0 : title;
+
+        this.size = store.size();
+        int[] albums = new int[size];
+        int[] tracks = new int[size];
+        int[] albumTracks = new int[size];
+        IdBuilder albumKeys = new IdBuilder();
+        IdBuilder trackKeys = new IdBuilder();
+        IdBuilder albumTrackKeys = new IdBuilder();
+        for (int i = 0; i < size; i++) {
+            int artist = artistIds.get(i);
+            int title = titles[titleColumn.get(i)];
+            albums[i] = title == 0 ? -1 : albumKeys.idOf(artist, title);
+            tracks[i] = trackKeys.idOf(artist, nameColumn.get(i));
+            albumTracks[i] = albumTrackKeys.idOf(tracks[i], albums[i]);
+        }
+        albumIds = IntBuffer.wrap(albums);
+        trackIds = IntBuffer.wrap(tracks);
+        albumTrackIds = IntBuffer.wrap(albumTracks);
+        albumArtists = albumKeys.highs();
+        albumTitles = albumKeys.lows();
+        trackArtists = trackKeys.highs();
+        trackNames = trackKeys.lows();
+        albumTrackTracks = albumTrackKeys.highs();
+        albumTrackAlbums = albumTrackKeys.lows();
+    }
+
+    /**
+     * Builds the analytics of some tracks, such as those in {@link TrackFetcher#getTracks()}, in a store of their
+     * own.
+     *
+     * @param tracks the tracks, in any order.
+     * @return the analytics.
+     */
+    public static ListeningAnalytics of(Iterable<Track> tracks) {
+        return new ListeningAnalytics(TrackStore.of(tracks));
+    }
+
+    /**
+     * Builds the analytics of the tracks in a store, reading its columns in place. Adding tracks to the store
+     * afterwards invalidates the analytics; build them again instead.
+     *
+     * @param store the store.
+     * @return the analytics.
+     */
+    public static ListeningAnalytics of(TrackStore store) {
+        return new ListeningAnalytics(store);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Rankings
+
+    /**
+     * Ranks the artists played most in a window.
+     *
+     * @param window the window of scrobble times.
+     * @param limit  the number of artists wanted.
+     * @return the artists, most played first, ties in the order the store first saw them.
+     */
+    public List<PlayCount> topArtists(TimeWindow window, int limit) {
+        List<PlayCount> top = new ArrayList<>();
+        for (long entry : top(artistIds, store.getDictionarySize(TrackArchive.Column.ARTIST) + 1, window, limit))
+            top.add(new PlayCount(artist(id(entry)), null, null, plays(entry)));
+        return top;
+    }
+
+    /**
+     * Ranks the albums played most in a window. Albums are told apart by artist too, so two artists' "Greatest Hits"
+     * are ranked separately. Scrobbles without an album aren't ranked.
+     *
+     * @param window the window of scrobble times.
+     * @param limit  the number of albums wanted.
+     * @return the albums, most played first, ties oldest play first.
+     */
+    public List<PlayCount> topAlbums(TimeWindow window, int limit) {
+        List<PlayCount> top = new ArrayList<>();
+        for (long entry : top(albumIds, albumTitles.length, window, limit)) {
+            int album = id(entry);
+            top.add(new PlayCount(artist(albumArtists[album]), albumTitle(album), null, plays(entry)));
+        }
+        return top;
+    }
+
+    /**
+     * Ranks the tracks played most in a window.
+     *
+     * @param window        the window of scrobble times.
+     * @param limit         the number of tracks wanted.
+     * @param considerAlbum whether the same song on two albums counts as two tracks, as in
+     *                      {@link Track#looseEquals(Track, boolean)}.
+     * @return the tracks, most played first, ties oldest play first.
+     */
+    public List<PlayCount> topTracks(TimeWindow window, int limit, boolean considerAlbum) {
+        List<PlayCount> top = new ArrayList<>();
+        if (considerAlbum) {
+            for (long entry : top(albumTrackIds, albumTrackTracks.length, window, limit)) {
+                int track = albumTrackTracks[id(entry)];
+                int album = albumTrackAlbums[id(entry)];
+                top.add(new PlayCount(artist(trackArtists[track]), album < 0 ? "" : albumTitle(album),
+                        trackName(track), plays(entry)));
+            }
+        } else {
+            for (long entry : top(trackIds, trackNames.length, window, limit)) {
+                int track = id(entry);
+                top.add(new PlayCount(artist(trackArtists[track]), null, trackName(track), plays(entry)));
+            }
+        }
+        return top;
+    }
+
+    private String artist(int id) {
+        return nullToEmpty(store.getString(TrackArchive.Column.ARTIST, id));
+    }
+
+    private String albumTitle(int album) {
+        return store.getString(TrackArchive.Column.ALBUM, albumTitles[album]);
+    }
+
+    private String trackName(int track) {
+        return nullToEmpty(store.getString(TrackArchive.Column.NAME, trackNames[track]));
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    // Time of day and streaks
+
+    /**
+     * Counts the plays in a window by the hour of the day they started in.
+     *
+     * @param window the window of scrobble times.
+     * @param zone   the time zone the hours are in.
+     * @return the plays in each hour, from midnight.
+     */
+    public int[] playsByHourOfDay(TimeWindow window, ZoneId zone) {
+        int[] plays = new int[24];
+        OffsetCursor offsets = new OffsetCursor(zone);
+        for (int i = store.start(window), end = store.end(window); i < end; i++)
+            plays[(int) Math.floorMod(offsets.local(times.get(i)), (long) SECONDS_PER_DAY) / 3600]++;
+        return plays;
+    }
+
+    /**
+     * Counts the plays in a window by the day of the week they started on.
+     *
+     * @param window the window of scrobble times.
+     * @param zone   the time zone the days are in.
+     * @return the plays on each day, Monday first.
+     */
+    public int[] playsByDayOfWeek(TimeWindow window, ZoneId zone) {
+        int[] plays = new int[7];
+        OffsetCursor offsets = new OffsetCursor(zone);
+        for (int i = store.start(window), end = store.end(window); i < end; i++)
+            plays[dayOfWeek(Math.floorDiv(offsets.local(times.get(i)), SECONDS_PER_DAY)).ordinal()]++;
+        return plays;
+    }
+
+    /**
+     * Counts the plays in a window on each day, from the day of the first play in it to the day of the last.
+     *
+     * @param window the window of scrobble times.
+     * @param zone   the time zone the days are in.
+     * @return the plays on each day, or none if nothing was played in the window.
+     */
+    public DailyPlays playsByDay(TimeWindow window, ZoneId zone) {
+        int start = store.start(window);
+        int end = store.end(window);
+        if (start >= end) return new DailyPlays(null, new int[0]);
+        OffsetCursor offsets = new OffsetCursor(zone);
+        long firstDay = Math.floorDiv(offsets.local(times.get(start)), SECONDS_PER_DAY);
+        long lastDay = Math.floorDiv(new OffsetCursor(zone).local(times.get(end - 1)), SECONDS_PER_DAY);
+        int[] plays = new int[(int) (lastDay - firstDay + 1)];
+        for (int i = start; i < end; i++)
+            plays[(int) (Math.floorDiv(offsets.local(times.get(i)), SECONDS_PER_DAY) - firstDay)]++;
+        return new DailyPlays(LocalDate.ofEpochDay(firstDay), plays);
+    }
+
+    /**
+     * Finds the longest run of days with at least one play on each. The earliest wins a tie.
+     *
+     * @param zone the time zone the days are in.
+     * @return the streak, or null if nothing was played.
+     */
+    public Streak longestStreak(ZoneId zone) {
+        DailyPlays days = playsByDay(new TimeWindow(0, 0), zone);
+        int[] plays = days.getPlays();
+        int bestStart = -1;
+        int bestLength = 0;
+        for (int i = 0; i < plays.length; ) {
+            if (plays[i] == 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < plays.length && plays[i] > 0)
+                i++;
+            if (i - start > bestLength) {
+                bestStart = start;
+                bestLength = i - start;
+            }
+        }
+        return bestStart < 0 ? null : new Streak(days.getFirstDay().plusDays(bestStart), bestLength);
+    }
+
+    /**
+     * Finds the run of days with at least one play that is still going: it ends today, or yesterday if nothing has
+     * been played yet today.
+     *
+     * @param zone  the time zone the days are in.
+     * @param today the current day in that zone.
+     * @return the streak, or null if there is none.
+     */
+    public Streak currentStreak(ZoneId zone, LocalDate today) {
+        DailyPlays days = playsByDay(new TimeWindow(0, 0), zone);
+        int[] plays = days.getPlays();
+        if (plays.length == 0) return null;
+        int last = (int) (days.getFirstDay().plusDays(plays.length - 1).toEpochDay());
+        if (last < today.toEpochDay() - 1) return null;
+        int start = plays.length - 1;
+        while (start > 0 && plays[start - 1] > 0)
+            start--;
+        return new Streak(days.getFirstDay().plusDays(start), plays.length - start);
+    }
+
+    // Counting
+
+    /**
+     * Counts the plays of each id in a window and picks the most played.
+     *
+     * @param column  the id of each scrobble, -1 for none.
+     * @param idCount the number of distinct ids.
+     * @param window  the window of scrobble times.
+     * @param limit   the number of ids wanted.
+     * @return the picked ids packed by {@link #pack(int, int)}, most played first.
+     */
+    private long[] top(IntBuffer column, int idCount, TimeWindow window, int limit) {
+        int[] plays = count(column, idCount, store.start(window), store.end(window));
+        return TopHeap.pick(plays, limit);
+    }
+
+    /**
+     * Counts the plays of each id between two positions, across cores if there are many.
+     */
+    private static int[] count(IntBuffer column, int idCount, int start, int end) {
+        if (end - start < PARALLEL_THRESHOLD) return countRange(column, idCount, start, end);
+        int parts = Math.min(Runtime.getRuntime().availableProcessors() * 2, (end - start) / (PARALLEL_THRESHOLD / 2));
+        int partSize = (end - start + parts - 1) / parts;
+        return IntStream.range(0, parts).parallel()
+                .mapToObj(part -> countRange(column, idCount, start + part * partSize,
+                        Math.min(end, start + (part + 1) * partSize)))
+                .reduce((left, right) -> {
+                    for (int i = 0; i < left.length; i++)
+                        left[i] += right[i];
+                    return left;
+                })
+                .orElseGet(() -> new int[idCount]);
+    }
+
+    private static int[] countRange(IntBuffer column, int idCount, int start, int end) {
+        int[] plays = new int[idCount];
+        for (int i = start; i < end; i++) {
+            int id = column.get(i);
+            if (id >= 0) plays[id]++;
+        }
+        return plays;
+    }
+
+    private static DayOfWeek dayOfWeek(long epochDay) {
+        // The epoch fell on a Thursday.
+        return DayOfWeek.of((int) Math.floorMod(epochDay + 3, 7L) + 1);
+    }
+
+    /**
+     * Packs a play count and an id so that a greater {@code long} is a higher rank: more plays, then a lower id.
+     */
+    static long pack(int plays, int id) {
+        return (long) plays << 32 | (Integer.MAX_VALUE - id);
+    }
+
+    static int plays(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    static int id(long entry) {
+        return Integer.MAX_VALUE - (int) entry;
+    }
+
+    /**
+     * Converts times to local times in a zone, for times given in increasing order. The offset only changes at the
+     * zone's transitions, a couple of times a year, so it is looked up again only when a transition is passed.
+     */
+    private static class OffsetCursor {
+        private final ZoneRules rules;
+        private long offsetUntil = Long.MIN_VALUE;
+        private int offset;
+
+        OffsetCursor(ZoneId zone) {
+            this.rules = zone.getRules();
+        }
+
+        long local(long time) {
+            if (time >= offsetUntil) {
+                Instant instant = Instant.ofEpochSecond(time);
+                offset = rules.getOffset(instant).getTotalSeconds();
+                ZoneOffsetTransition next = rules.nextTransition(instant);
+                offsetUntil = next == null ? Long.MAX_VALUE : next.toEpochSecond();
+            }
+            return time + offset;
+        }
+    }
+
+    /**
+     * Picks the greatest entries with a min-heap of packed counts, so only the entries kept are ever compared.
+     */
+    private static final class TopHeap {
+        private TopHeap() {
+        }
+
+        static long[] pick(int[] plays, int limit) {
+            long[] heap = new long[Math.max(0, limit)];
+            int size = 0;
+            for (int id = 0; id < plays.length && limit > 0; id++) {
+                if (plays[id] == 0) continue;
+                long entry = pack(plays[id], id);
+                if (size < limit) {
+                    heap[size] = entry;
+                    siftUp(heap, size++);
+                } else if (entry > heap[0]) {
+                    heap[0] = entry;
+                    siftDown(heap, size);
+                }
+            }
+            long[] top = Arrays.copyOf(heap, size);
+            Arrays.sort(top);
+            for (int i = 0, j = size - 1; i < j; i++, j--) {
+                long swap = top[i];
+                top[i] = top[j];
+                top[j] = swap;
+            }
+            return top;
+        }
+
+        private static void siftUp(long[] heap, int index) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (heap[parent] <= heap[index]) return;
+                long swap = heap[parent];
+                heap[parent] = heap[index];
+                heap[index] = swap;
+                index = parent;
+            }
+        }
+
+        private static void siftDown(long[] heap, int size) {
+            int index = 0;
+            while (true) {
+                int smallest = index;
+                int left = 2 * index + 1;
+                if (left < size && heap[left] < heap[smallest]) smallest = left;
+                if (left + 1 < size && heap[left + 1] < heap[smallest]) smallest = left + 1;
+                if (smallest == index) return;
+                long swap = heap[smallest];
+                heap[smallest] = heap[index];
+                heap[index] = swap;
+                index = smallest;
+            }
+        }
+    }
+
+    /**
+     * The plays on each of a run of days.
+     */
+    public static class DailyPlays {
+        private final LocalDate firstDay;
+        private final int[] plays;
+
+        DailyPlays(LocalDate firstDay, int[] plays) {
+            this.firstDay = firstDay;
+            this.plays = plays;
+        }
+
+        /**
+         * Gets the first day counted.
+         *
+         * @return the first day, or null if no day was counted.
+         */
+        public LocalDate getFirstDay() {
+            return firstDay;
+        }
+
+        /**
+         * Gets the plays on each day, from the first day on.
+         *
+         * @return the plays on each day.
+         */
+        public int[] getPlays() {
+            return plays;
+        }
+    }
+
+    /**
+     * A run of days with at least one play on each.
+     */
+    public static class Streak {
+        private final LocalDate firstDay;
+        private final int days;
+
+        Streak(LocalDate firstDay, int days) {
+            this.firstDay = firstDay;
+            this.days = days;
+        }
+
+        public LocalDate getFirstDay() {
+            return firstDay;
+        }
+
+        public LocalDate getLastDay() {
+            return firstDay.plusDays(days - 1);
+        }
+
+        public int getDays() {
+            return days;
+        }
+    }
+
+    /**
+     * Numbers the distinct pairs of ids it is given from 0, in the order first seen, and remembers each pair.
+     */
+    private static final class IdBuilder {
+        private final LongIntHashMap ids = new LongIntHashMap(1024);
+        private int[] highs = new int[256];
+        private int[] lows = new int[256];
+        private int count;
+
+        int idOf(int high, int low) {
+            int id = ids.putIfAbsent((long) high << 32 | (low & 0xffffffffL), count);
+            if (id == count) {
+                if (count == highs.length) {
+                    highs = Arrays.copyOf(highs, count * 2);
+                    lows = Arrays.copyOf(lows, count * 2);
+                }
+                highs[count] = high;
+                lows[count] = low;
+                count++;
+            }
+            return id;
+        }
+
+        int[] highs() {
+            return Arrays.copyOf(highs, count);
+        }
+
+        int[] lows() {
+            return Arrays.copyOf(lows, count);
+        }
+    }
+}
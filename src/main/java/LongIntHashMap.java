@@ -0,0 +1,92 @@
+/**
+ * Maps {@code long} keys to {@code int} values without boxing either, by open addressing with linear probing. It is
+ * meant for handing out dense ids to composite keys, such as an artist id and a name id packed into one {@code long},
+ * where a {@code HashMap<Long, Integer>} would allocate two objects per entry. Not thread safe.
+ */
+public class LongIntHashMap {
+    /**
+     * The value returned for missing keys.
+     */
+    public static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Create a new map.
+     *
+     * @param expectedSize the number of entries expected, to size the table up front.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key.
+     * @return the value, or {@link #MISSING} if the key isn't in the map.
+     */
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); used[slot]; slot = (slot + 1) & mask)
+            if (keys[slot] == key) return values[slot];
+        return MISSING;
+    }
+
+    /**
+     * Gets the value of a key, putting a value first if the key isn't in the map.
+     *
+     * @param key   the key.
+     * @param value the value to put if the key is missing.
+     * @return the value of the key, which is the given value if it was missing.
+     */
+    public int putIfAbsent(long key, int value) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; used[slot]; slot = (slot + 1) & mask)
+            if (keys[slot] == key) return values[slot];
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        // Kept at most half full, so probes stay short.
+        if (++size * 2 > keys.length) grow();
+        return value;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) continue;
+            int slot = slot(oldKeys[i], mask);
+            while (used[slot])
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            used[slot] = true;
+        }
+    }
+
+    /**
+     * Spreads the bits of a key before masking, since packed ids differ mostly in their low bits.
+     */
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,96 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes {@link FetchMetrics}: over JMX, as a Prometheus endpoint, and as a summary logged to standard error at
+ * a fixed interval. Each is optional, and all of them stop when the reporter is closed.
+ */
+public class MetricsReporter implements Closeable {
+    /**
+     * The name the metrics are registered under over JMX.
+     */
+    public static final String OBJECT_NAME = "lastfm:type=FetchMetrics";
+
+    private final FetchMetrics metrics;
+
+    private ObjectName objectName;
+    private HttpServer server;
+    private ScheduledExecutorService logger;
+
+    public MetricsReporter(FetchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, as {@link #OBJECT_NAME}.
+     *
+     * @throws JMException thrown if the metrics can't be registered, for example because they already are.
+     */
+    public void registerJmx() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName(OBJECT_NAME);
+        mBeanServer.registerMBean(new StandardMBean(metrics, FetchMetricsMXBean.class, true), objectName);
+    }
+
+    /**
+     * Serves the metrics in the Prometheus text format at {@code /metrics} on localhost.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @return the port listened on.
+     * @throws IOException thrown if the port can't be bound.
+     */
+    public int startHttpServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+        });
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Logs a summary of the metrics to standard error at a fixed interval.
+     *
+     * @param intervalSeconds the time between summaries, in seconds.
+     */
+    public void startLogging(long intervalSeconds) {
+        logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-logger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.scheduleAtFixedRate(() -> System.err.println(metrics.summary()), intervalSeconds, intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (logger != null) logger.shutdownNow();
+        if (server != null) server.stop(0);
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
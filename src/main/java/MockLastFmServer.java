@@ -0,0 +1,422 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the {@code user.getrecenttracks} endpoint of the last.fm API. It serves a synthetic listening
+ * history of any size, or replays a {@link ResponseRecording} of real responses, so that fetching can be exercised and
+ * timed without the network. Latency, server errors and rate limiting can be added to see how the fetch copes.
+ * <p>
+ * Run it with {@code mvn exec:java -Dexec.mainClass=MockLastFmServer -Dexec.args="8080 200000 150"} (port, number of
+ * scrobbles, latency in ms, and optionally the share of requests failing with a server error and with a 429), or with
+ * {@code -Dexec.args="replay recording 8080 150"} to replay a recording, and point the fetcher at it by setting
+ * {@code API_ROOT=http://localhost:8080/2.0/} in {@code .env}.
+ */
+public class MockLastFmServer {
+    /**
+     * The number of tracks per page when the request does not ask for a limit, matching last.fm.
+     */
+    private static final int DEFAULT_LIMIT = 50;
+
+    /**
+     * The largest page last.fm will serve.
+     */
+    private static final int MAX_LIMIT = 200;
+
+    /**
+     * The error code last.fm sends with a server error that is worth retrying.
+     */
+    private static final int OPERATION_FAILED = 8;
+
+    /**
+     * The error code last.fm sends for a request it can't answer.
+     */
+    private static final int INVALID_PARAMETERS = 6;
+
+    /**
+     * The number of scrobbles in the synthetic history.
+     */
+    private final int totalTracks;
+
+    /**
+     * The time, in seconds since epoch, of the newest scrobble.
+     */
+    private final long newestUts;
+
+    /**
+     * The gap between two consecutive scrobbles in seconds.
+     */
+    private final int spacingSeconds;
+
+    /**
+     * How long to wait before answering each request, to mimic the round trip to last.fm.
+     */
+    private final long latencyMillis;
+
+    /**
+     * The responses replayed instead of the synthetic history, or null to serve the synthetic history.
+     */
+    private final ResponseRecording recording;
+
+    /**
+     * The share of requests answered with a server error.
+     */
+    private volatile double errorRate;
+
+    /**
+     * The share of requests answered with a 429 and a {@code Retry-After} of {@link #retryAfterSeconds}.
+     */
+    private volatile double throttleRate;
+
+    private volatile int retryAfterSeconds;
+
+    /**
+     * Decides which requests fail. It is seeded, so a run with the same requests fails the same way.
+     */
+    private final Random random;
+
+    private final AtomicLong errorCount;
+    private final AtomicLong throttleCount;
+
+    /**
+     * The number of requests served so far.
+     */
+    private final AtomicLong requestCount;
+
+    /**
+     * The client addresses seen, one per TCP connection, to tell how well connections are reused.
+     */
+    private final Set<String> connections;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Create a new mock server.
+     *
+     * @param totalTracks    the number of scrobbles in the synthetic history.
+     * @param newestUts      the time of the newest scrobble in seconds since epoch.
+     * @param spacingSeconds the gap between two consecutive scrobbles in seconds.
+     * @param latencyMillis  the artificial latency added to every response.
+     */
+    public MockLastFmServer(int totalTracks, long newestUts, int spacingSeconds, long latencyMillis) {
+        this(totalTracks, newestUts, spacingSeconds, latencyMillis, null);
+    }
+
+    /**
+     * Create a new mock server that replays recorded responses.
+     *
+     * @param recording     the responses to replay.
+     * @param latencyMillis the artificial latency added to every response.
+     */
+    public MockLastFmServer(ResponseRecording recording, long latencyMillis) {
+        this(0, 0, 1, latencyMillis, recording);
+    }
+
+    private MockLastFmServer(int totalTracks, long newestUts, int spacingSeconds, long latencyMillis,
+                             ResponseRecording recording) {
+        this.totalTracks = totalTracks;
+        this.newestUts = newestUts;
+        this.spacingSeconds = spacingSeconds;
+        this.latencyMillis = latencyMillis;
+        this.recording = recording;
+        this.retryAfterSeconds = 1;
+        this.random = new Random(1);
+        this.requestCount = new AtomicLong();
+        this.errorCount = new AtomicLong();
+        this.throttleCount = new AtomicLong();
+        this.connections = ConcurrentHashMap.newKeySet();
+    }
+
+    public static void main(String... args) throws IOException {
+        MockLastFmServer server;
+        int port;
+        if (args.length > 0 && args[0].equals("replay")) {
+            port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+            long latencyMillis = args.length > 3 ? Long.parseLong(args[3]) : 150;
+            server = new MockLastFmServer(new ResponseRecording(Paths.get(args.length > 1 ? args[1] : "recording")),
+                    latencyMillis);
+        } else {
+            port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+            int totalTracks = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+            long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 150;
+            server = new MockLastFmServer(totalTracks, System.currentTimeMillis() / 1000L, 180, latencyMillis);
+            server.setFailureRates(args.length > 3 ? Double.parseDouble(args[3]) : 0,
+                    args.length > 4 ? Double.parseDouble(args[4]) : 0);
+        }
+        server.start(port);
+        if (server.recording != null)
+            System.out.printf("Replaying %s at %s\n", args.length > 1 ? args[1] : "recording", server.getApiRoot());
+        else
+            System.out.printf("Serving %d tracks at %s\n", server.totalTracks, server.getApiRoot());
+    }
+
+    // Failures
+
+    /**
+     * Makes a share of requests fail, at random but reproducibly.
+     *
+     * @param errorRate    the share of requests answered with a 503 and last.fm's "operation failed" error.
+     * @param throttleRate the share of requests answered with a 429 and last.fm's "rate limit exceeded" error.
+     */
+    public void setFailureRates(double errorRate, double throttleRate) {
+        if (errorRate < 0 || throttleRate < 0 || errorRate + throttleRate > 1)
+            throw new IllegalArgumentException("The failure rates must be shares adding up to at most 1");
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * Sets how long a throttled client is told to wait.
+     *
+     * @param retryAfterSeconds the {@code Retry-After} sent with every 429, in seconds.
+     */
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    // Lifecycle
+
+    /**
+     * Starts serving on the given port. A port of 0 picks any free port.
+     *
+     * @param port the port to listen on.
+     * @throws IOException thrown if the port can't be bound.
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/2.0/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Stops serving and releases the port.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the root URL of the API served, to be used in place of {@code http://ws.audioscrobbler.com/2.0/}.
+     *
+     * @return the root URL of the API served.
+     */
+    public String getApiRoot() {
+        return String.format("http://localhost:%d/2.0/", server.getAddress().getPort());
+    }
+
+    /**
+     * Gets the number of requests served so far.
+     *
+     * @return the number of requests served so far.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of distinct TCP connections requests came in on.
+     *
+     * @return the number of connections opened by clients.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Gets the number of requests answered with a server error.
+     *
+     * @return the number of server errors sent.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Gets the number of requests answered with a 429.
+     *
+     * @return the number of rate limit errors sent.
+     */
+    public long getThrottleCount() {
+        return throttleCount.get();
+    }
+
+    // Request handling
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        connections.add(exchange.getRemoteAddress().toString());
+        try {
+            if (latencyMillis > 0) Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double roll;
+        synchronized (random) {
+            roll = random.nextDouble();
+        }
+        if (roll < throttleRate) {
+            throttleCount.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            sendError(exchange, 429, LastFmException.RATE_LIMIT_EXCEEDED, "Rate Limit Exceeded");
+            return;
+        }
+        if (roll < throttleRate + errorRate) {
+            errorCount.incrementAndGet();
+            sendError(exchange, 503, OPERATION_FAILED, "Operation failed - Most likely the backend service failed");
+            return;
+        }
+
+        String query = exchange.getRequestURI().getRawQuery();
+        byte[] body;
+        if (recording == null) {
+            body = renderPage(parseQuery(query)).toString().getBytes(StandardCharsets.UTF_8);
+        } else {
+            body = recording.replay(query);
+            if (body == null) {
+                sendError(exchange, 400, INVALID_PARAMETERS, "No response recorded for " + query);
+                return;
+            }
+        }
+        send(exchange, 200, body);
+    }
+
+    private void sendError(HttpExchange exchange, int status, int errorCode, String message) throws IOException {
+        JSONObject error = new JSONObject().put("error", errorCode).put("message", message);
+        send(exchange, status, error.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = gzip(body);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+
+    /**
+     * Renders a page of the synthetic history in the shape last.fm returns for {@code user.getrecenttracks}.
+     *
+     * @param params the query parameters of the request.
+     * @return the JSON response body.
+     */
+    JSONObject renderPage(Map<String, String> params) {
+        int page = params.containsKey("page") ? Integer.parseInt(params.get("page")) : 1;
+        int limit = params.containsKey("limit") ? Math.min(Integer.parseInt(params.get("limit")), MAX_LIMIT) : DEFAULT_LIMIT;
+        Long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : null;
+        Long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : null;
+
+        // Scrobble i is at newestUts - i * spacingSeconds, so the window is a contiguous range of indices.
+        long firstIndex = to == null ? 0 : Math.max(0, ceilDiv(newestUts - to, spacingSeconds));
+        long endIndex = from == null ? totalTracks : Math.min(totalTracks, Math.floorDiv(newestUts - from, spacingSeconds) + 1);
+        long total = Math.max(0, endIndex - firstIndex);
+        long totalPages = ceilDiv(total, limit);
+
+        JSONArray trackArray = new JSONArray();
+        if (page == 1 && to == null) trackArray.put(renderNowPlaying());
+        long start = firstIndex + (long) (page - 1) * limit;
+        for (long i = start; i < Math.min(endIndex, start + limit); i++)
+            trackArray.put(renderTrack((int) i));
+
+        JSONObject attr = new JSONObject();
+        attr.put("user", params.get("user"));
+        attr.put("page", String.valueOf(page));
+        attr.put("perPage", String.valueOf(limit));
+        attr.put("totalPages", String.valueOf(totalPages));
+        attr.put("total", String.valueOf(total));
+
+        JSONObject recentTracks = new JSONObject();
+        recentTracks.put("track", trackArray);
+        recentTracks.put("@attr", attr);
+        return new JSONObject().put("recenttracks", recentTracks);
+    }
+
+    private JSONObject renderTrack(int index) {
+        JSONObject track = renderTrackBody(index);
+        long uts = newestUts - (long) index * spacingSeconds;
+        track.put("date", new JSONObject().put("uts", String.valueOf(uts)).put("#text", String.valueOf(uts)));
+        return track;
+    }
+
+    private JSONObject renderNowPlaying() {
+        JSONObject track = renderTrackBody(-1);
+        track.put("@attr", new JSONObject().put("nowplaying", "true"));
+        return track;
+    }
+
+    private JSONObject renderTrackBody(int index) {
+        int albumId = Math.floorMod(index / 12, 400);
+        int artistId = albumId % 150;
+        String artist = "Artist " + artistId;
+        String name = "Track " + (Math.floorMod(index, 12) + 1) + " of Album " + albumId;
+        String imageRoot = "https://lastfm.freetls.fastly.net/i/u/%s/" + Integer.toHexString(albumId * 7919) + ".png";
+
+        JSONArray images = new JSONArray();
+        String[] sizes = {"small", "medium", "large", "extralarge"};
+        String[] dimensions = {"34s", "64s", "174s", "300x300"};
+        for (int i = 0; i < sizes.length; i++)
+            images.put(new JSONObject().put("size", sizes[i]).put("#text", String.format(imageRoot, dimensions[i])));
+
+        JSONObject track = new JSONObject();
+        track.put("artist", new JSONObject().put("mbid", "").put("#text", artist));
+        track.put("album", new JSONObject().put("mbid", "").put("#text", "Album " + albumId));
+        track.put("name", name);
+        track.put("streamable", "0");
+        track.put("mbid", "");
+        track.put("image", images);
+        track.put("url", "https://www.last.fm/music/Artist+" + artistId + "/_/" + name.replace(' ', '+'));
+        return track;
+    }
+
+    // Helpers
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream stream = new GZIPOutputStream(compressed)) {
+            stream.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+        return params;
+    }
+}
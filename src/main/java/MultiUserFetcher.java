@@ -0,0 +1,236 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the scrobbles of many users from one process. Every user gets a fetcher of their own, made from a template
+ * so they all share its HTTP client, rate limit and retry policy, and a fixed number of users are polled at the same
+ * time. Throughput is then bounded by the API budget rather than by the number of processes.
+ * <p>
+ * Each user remembers the time of their newest scrobble written, so every poll after the first only asks for what is
+ * new. A user whose poll fails is left where they were and tried again on the next poll, without holding up the rest.
+ */
+public class MultiUserFetcher implements Closeable {
+    /**
+     * Where the scrobbles of each user are kept.
+     */
+    public interface UserStore {
+        /**
+         * Gets the time of the newest scrobble already stored for a user.
+         *
+         * @param username the user.
+         * @return the time of the newest scrobble, or null if none is stored.
+         * @throws IOException thrown if the store can't be read.
+         */
+        Date selectLastTime(String username) throws IOException;
+
+        /**
+         * Opens a sink for a user's tracks. It is closed, making the tracks durable, at the end of every poll.
+         *
+         * @param username the user.
+         * @return the sink.
+         * @throws IOException thrown if the sink can't be opened.
+         */
+        TrackSink openSink(String username) throws IOException;
+    }
+
+    private final TrackFetcher template;
+    private final UserStore store;
+
+    /**
+     * The users, in the order they were given.
+     */
+    private final Map<String, User> users;
+
+    private final ExecutorService executor;
+
+    /**
+     * Create a new multi-user fetcher.
+     *
+     * @param template        the fetcher every user's fetcher is made from. Its last time is used for users with
+     *                        nothing stored yet.
+     * @param usernames       the users to fetch.
+     * @param store           where the users' scrobbles are kept.
+     * @param userConcurrency the number of users polled at the same time.
+     */
+    public MultiUserFetcher(TrackFetcher template, List<String> usernames, UserStore store, int userConcurrency) {
+        if (userConcurrency < 1)
+            throw new IllegalArgumentException("userConcurrency must be at least 1");
+        this.template = template;
+        this.store = store;
+        this.users = new LinkedHashMap<>();
+        for (String username : usernames)
+            users.put(username, new User(username));
+        this.executor = Executors.newFixedThreadPool(userConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "user-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads usernames from a file, one per line. Blank lines and lines starting with {@code #} are skipped.
+     *
+     * @param path the file.
+     * @return the usernames, in order.
+     * @throws IOException thrown if the file can't be read.
+     */
+    public static List<String> readUsernames(Path path) throws IOException {
+        List<String> usernames = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String username = line.trim();
+            if (!username.isEmpty() && !username.startsWith("#")) usernames.add(username);
+        }
+        return usernames;
+    }
+
+    /**
+     * Reads usernames from the {@code username} column of a table.
+     *
+     * @param connection the database connection.
+     * @param table      the table, which may be qualified with its schema.
+     * @return the usernames, in order.
+     * @throws SQLException thrown if the table can't be read.
+     */
+    public static List<String> selectUsernames(Connection connection, String table) throws SQLException {
+        List<String> usernames = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT username FROM " + table + " ORDER BY username")) {
+            while (resultSet.next())
+                usernames.add(resultSet.getString(1));
+        }
+        return usernames;
+    }
+
+    /**
+     * Gets the progress of every user, in the order they were given.
+     *
+     * @return the progress of every user.
+     */
+    public List<User> getUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    /**
+     * Polls every user once, and waits for them all to finish.
+     *
+     * @return the number of tracks written, across all users.
+     * @throws IOException thrown if interrupted while waiting.
+     */
+    public long poll() throws IOException {
+        List<Future<Long>> polls = new ArrayList<>(users.size());
+        for (User user : users.values())
+            polls.add(executor.submit(user::poll));
+        long count = 0;
+        try {
+            for (Future<Long> poll : polls)
+                count += poll.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            polls.forEach(poll -> poll.cancel(true));
+            throw new InterruptedIOException("Interrupted while fetching users");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to fetch users", e.getCause());
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A user being fetched, and how their fetching is going.
+     */
+    public class User {
+        private final String username;
+
+        /**
+         * The user's fetcher, made on their first poll once their last time is known.
+         */
+        private volatile TrackFetcher fetcher;
+
+        private volatile long syncedCount;
+        private volatile int failedPollCount;
+        private volatile String lastError;
+
+        User(String username) {
+            this.username = username;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Gets the time of the newest scrobble written for the user.
+         *
+         * @return the time of the newest scrobble, or null if the user hasn't been polled.
+         */
+        public Date getLastTime() {
+            TrackFetcher fetcher = this.fetcher;
+            return fetcher == null ? null : fetcher.getLastTime();
+        }
+
+        public long getSyncedCount() {
+            return syncedCount;
+        }
+
+        public int getFailedPollCount() {
+            return failedPollCount;
+        }
+
+        /**
+         * Gets why the last poll failed.
+         *
+         * @return the error message, or null if the last poll succeeded.
+         */
+        public String getLastError() {
+            return lastError;
+        }
+
+        private synchronized long poll() {
+            Date previousTime = null;
+            try {
+                if (fetcher == null) {
+                    Date lastTime = store.selectLastTime(username);
+                    fetcher = template.forUser(username, lastTime == null ? template.getLastTime() : lastTime);
+                }
+                previousTime = fetcher.getLastTime();
+                long count;
+                try (TrackSink sink = store.openSink(username)) {
+                    count = fetcher.pollNewTracks(sink);
+                }
+                if (!fetcher.getFailedPages().isEmpty())
+                    throw new IOException("Unable to fetch pages " + fetcher.getFailedPages());
+                syncedCount += count;
+                lastError = null;
+                return count;
+            } catch (IOException | RuntimeException e) {
+                // The tracks may not have been written, so the next poll starts from where this one did.
+                if (fetcher != null) fetcher.setLastTime(previousTime);
+                failedPollCount++;
+                lastError = e.getMessage();
+                System.err.printf("Unable to fetch %s: %s\n", username, e.getMessage());
+                return 0;
+            }
+        }
+    }
+}
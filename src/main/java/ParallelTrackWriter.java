@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes tracks to the database over several connections at once. Each writer has its own connection from the pool,
+ * its own database writer and its own thread, and tracks are dealt out to the writers a batch at a time, so loading
+ * scales with the cores of the database rather than being held to one session.
+ * <p>
+ * Every writer remembers the tracks it hasn't committed yet. If its connection drops, it is replaced with a fresh
+ * one from the pool and those tracks are written again before carrying on; inserts skip rows already in the table,
+ * so writing them twice does no harm.
+ */
+public class ParallelTrackWriter implements TrackSink {
+    /**
+     * Creates the writer used on a connection, such as a {@link TrackBatchWriter} or a {@link TrackCopyWriter}.
+     */
+    public interface WriterFactory {
+        /**
+         * Creates a writer.
+         *
+         * @param connection the connection to write on.
+         * @return the writer. Closing it must not close the connection.
+         * @throws SQLException thrown if the writer can't be created.
+         */
+        TrackSink open(Connection connection) throws SQLException;
+    }
+
+    /**
+     * The number of times in a row a writer reconnects before giving up.
+     */
+    private static final int MAX_RECONNECTS = 3;
+
+    /**
+     * How long to wait before reconnecting, multiplied by the number of the attempt, in milliseconds.
+     */
+    private static final long RECONNECT_DELAY = 1000;
+
+    private final List<ReconnectingWriter> writers;
+
+    /**
+     * The threads feeding each writer, in the same order.
+     */
+    private final List<TrackPipeline> pipelines;
+
+    /**
+     * The number of tracks dealt to a writer before moving on to the next.
+     */
+    private final int batchSize;
+
+    private int currentWriter;
+    private int batchedRows;
+
+    /**
+     * Create a new parallel writer, borrowing a connection from the pool for every writer.
+     *
+     * @param pool            the pool to borrow connections from. It needs room for {@code writerCount} connections.
+     * @param factory         creates the writer used on each connection.
+     * @param writerCount     the number of connections written on at once.
+     * @param batchSize       the number of tracks dealt to a writer before moving on to the next.
+     * @param transactionSize the number of tracks a writer commits at once, and so may need to write again.
+     * @param queueCapacity   the maximum number of tracks waiting for each writer.
+     * @throws SQLException thrown if a connection can't be borrowed or a writer can't be created.
+     */
+    public ParallelTrackWriter(ConnectionPool pool, WriterFactory factory, int writerCount, int batchSize,
+                               int transactionSize, int queueCapacity) throws SQLException {
+        if (writerCount < 1 || batchSize < 1 || transactionSize < 1)
+            throw new IllegalArgumentException("writerCount, batchSize and transactionSize must be positive");
+        this.batchSize = batchSize;
+        this.writers = new ArrayList<>(writerCount);
+        this.pipelines = new ArrayList<>(writerCount);
+        try {
+            for (int i = 0; i < writerCount; i++)
+                writers.add(new ReconnectingWriter(pool, factory, transactionSize));
+        } catch (SQLException e) {
+            for (ReconnectingWriter writer : writers)
+                writer.abandon();
+            throw e;
+        }
+        for (ReconnectingWriter writer : writers)
+            pipelines.add(new TrackPipeline(writer, queueCapacity));
+    }
+
+    /**
+     * Gets the number of times a writer replaced a dropped connection.
+     *
+     * @return the number of reconnects.
+     */
+    public int getReconnectCount() {
+        int count = 0;
+        for (ReconnectingWriter writer : writers)
+            count += writer.reconnectCount;
+        return count;
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        pipelines.get(currentWriter).accept(track);
+        if (++batchedRows == batchSize) {
+            batchedRows = 0;
+            currentWriter = (currentWriter + 1) % pipelines.size();
+        }
+    }
+
+    /**
+     * Waits for every writer to commit the tracks dealt to it so far.
+     *
+     * @throws IOException thrown if a track could not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        for (TrackPipeline pipeline : pipelines)
+            pipeline.flush();
+    }
+
+    /**
+     * Runs the action on the thread of whichever writer is last to commit the tracks dealt to it so far.
+     *
+     * @param action the action to run.
+     * @throws IOException thrown if a track could not be written.
+     */
+    @Override
+    public void whenDurable(Runnable action) throws IOException {
+        AtomicInteger remaining = new AtomicInteger(pipelines.size());
+        for (TrackPipeline pipeline : pipelines)
+            pipeline.whenDurable(() -> {
+                if (remaining.decrementAndGet() == 0) action.run();
+            });
+    }
+
+    /**
+     * Waits for every writer to finish, then hands their connections back to the pool.
+     *
+     * @throws IOException thrown if a track could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (TrackPipeline pipeline : pipelines) {
+            try {
+                pipeline.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * A step that can be tried again on a new connection.
+     */
+    private interface WriterAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Writes on one connection, replacing it if it drops.
+     */
+    private static class ReconnectingWriter implements TrackSink {
+        private final ConnectionPool pool;
+        private final WriterFactory factory;
+        private final int transactionSize;
+
+        /**
+         * The tracks accepted since the last commit, written again after a reconnect.
+         */
+        private final List<Track> uncommitted;
+
+        private Connection connection;
+        private TrackSink writer;
+        private volatile int reconnectCount;
+
+        ReconnectingWriter(ConnectionPool pool, WriterFactory factory, int transactionSize) throws SQLException {
+            this.pool = pool;
+            this.factory = factory;
+            this.transactionSize = transactionSize;
+            this.uncommitted = new ArrayList<>();
+            this.connection = pool.borrow();
+            try {
+                this.writer = factory.open(connection);
+            } catch (SQLException e) {
+                pool.release(connection);
+                throw e;
+            }
+        }
+
+        @Override
+        public void accept(Track track) throws IOException {
+            run(() -> writer.accept(track));
+            uncommitted.add(track);
+            if (uncommitted.size() >= transactionSize) flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            run(() -> writer.flush());
+            uncommitted.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                run(() -> writer.close());
+                uncommitted.clear();
+            } finally {
+                if (connection != null && pool.isValid(connection)) pool.release(connection);
+                else if (connection != null) pool.invalidate(connection);
+            }
+        }
+
+        /**
+         * Hands the connection back without writing anything, when the parallel writer couldn't be set up.
+         */
+        void abandon() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            pool.release(connection);
+        }
+
+        /**
+         * Runs a step, and if it fails because the connection dropped, reconnects, writes the uncommitted tracks
+         * again and retries it.
+         */
+        private void run(WriterAction action) throws IOException {
+            for (int reconnects = 0; ; reconnects++) {
+                try {
+                    if (reconnects > 0) reconnect(reconnects);
+                    action.run();
+                    return;
+                } catch (IOException e) {
+                    if (reconnects >= MAX_RECONNECTS || (connection != null && pool.isValid(connection))) throw e;
+                }
+            }
+        }
+
+        private void reconnect(int attempt) throws IOException {
+            if (connection != null) pool.invalidate(connection);
+            connection = null;
+            try {
+                Thread.sleep(RECONNECT_DELAY * attempt);
+                connection = pool.borrow();
+                writer = factory.open(connection);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reconnecting to the database");
+            } catch (SQLException e) {
+                throw new IOException("Unable to reconnect to the database", e);
+            }
+            reconnectCount++;
+            for (Track track : uncommitted)
+                writer.accept(track);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.Set;
+
+/**
+ * Creates the monthly partitions of a partitioned tracks table ahead of the tracks that go into them. It sits in front
+ * of the database writers, on the one thread handing them tracks.
+ * <p>
+ * Creating a partition locks the whole table, so it would wait on any writer with rows it hasn't committed, while that
+ * writer waits for more tracks. Before creating one the writers are flushed, so none of them holds a transaction
+ * open. Tracks arrive in order of time, so that happens about once per month of history, and not at all once the
+ * partitions exist.
+ */
+public class PartitioningSink implements TrackSink {
+    private final TrackSink downstream;
+
+    /**
+     * The connection partitions are created on, in autocommit mode. No writer uses it.
+     */
+    private final Connection connection;
+
+    private final String schema;
+
+    /**
+     * The partitions known to exist.
+     */
+    private final Set<String> partitions;
+
+    /**
+     * The bounds, in milliseconds since epoch, of the month the last track fell in, whose partition exists.
+     */
+    private long monthStart = Long.MAX_VALUE;
+    private long monthEnd = Long.MIN_VALUE;
+
+    /**
+     * Create a new partitioning sink.
+     *
+     * @param downstream the sink writing to the table. It is closed when this sink is.
+     * @param connection the connection to create partitions on, in autocommit mode.
+     * @param schema     the schema holding the tracks table.
+     * @throws SQLException thrown if the existing partitions can't be listed.
+     */
+    public PartitioningSink(TrackSink downstream, Connection connection, String schema) throws SQLException {
+        this.downstream = downstream;
+        this.connection = connection;
+        this.schema = schema;
+        this.partitions = TrackSchema.partitions(connection, schema);
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        long listenedAt = track.getListenedAt().getTime();
+        if (listenedAt < monthStart || listenedAt >= monthEnd) enterMonth(listenedAt);
+        downstream.accept(track);
+    }
+
+    /**
+     * Makes sure the partition of the month holding a time exists.
+     */
+    private void enterMonth(long listenedAt) throws IOException {
+        YearMonth month = YearMonth.from(new Timestamp(listenedAt).toLocalDateTime());
+        if (!partitions.contains(TrackSchema.partitionName(month))) {
+            downstream.flush();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(TrackSchema.createPartitionSql(schema, month));
+            } catch (SQLException e) {
+                throw new IOException("Unable to create the partition for " + month, e);
+            }
+            partitions.add(TrackSchema.partitionName(month));
+        }
+        monthStart = Timestamp.valueOf(month.atDay(1).atStartOfDay()).getTime();
+        monthEnd = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()).getTime();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        downstream.flush();
+    }
+
+    @Override
+    public void whenDurable(Runnable action) throws IOException {
+        downstream.whenDurable(action);
+    }
+
+    @Override
+    public void close() throws IOException {
+        downstream.close();
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * The number of times an artist, album or track was played, as ranked by {@link ListeningAnalytics}.
+ */
+public class PlayCount {
+    private final String artist;
+
+    /**
+     * The album, or null when ranking artists, or tracks without regard to their album.
+     */
+    private final String album;
+
+    /**
+     * The name of the track, or null when ranking artists or albums.
+     */
+    private final String name;
+
+    private final int plays;
+
+    public PlayCount(String artist, String album, String name, int plays) {
+        this.artist = artist;
+        this.album = album;
+        this.name = name;
+        this.plays = plays;
+    }
+
+    // Getters
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPlays() {
+        return plays;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder label = new StringBuilder(artist);
+        if (album != null) label.append(" - ").append(album);
+        if (name != null) label.append(" - ").append(name);
+        return label.append(": ").append(plays).toString();
+    }
+}
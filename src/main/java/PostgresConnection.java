@@ -5,29 +5,85 @@ import java.util.Properties;
 
 import static java.lang.System.exit;
 
+/**
+ * The connection to the postgres database. Connections come from a {@link ConnectionPool}: one is kept as the main
+ * connection for queries and single writers, and the rest are there for parallel writers to borrow.
+ */
 public class PostgresConnection {
     private Connection connection;
+    private ConnectionPool pool;
     private final String databaseName;
     private final Properties properties;
 
+    /**
+     * The maximum number of connections open at once, the main connection included.
+     */
+    private int poolSize;
+
+    /**
+     * When the main connection was last handed out, in milliseconds since epoch.
+     */
+    private long lastUsed;
+
     public PostgresConnection(String databaseName) {
         this.databaseName = databaseName;
         this.properties = new Properties();
+        this.poolSize = 1;
     }
 
+    /**
+     * Gets the main connection, reconnecting first if it has dropped. Like a pooled connection, it is only checked
+     * once it has sat unused for the pool's validation interval, so a busy caller doesn't pay a round trip per call.
+     *
+     * @return the main connection.
+     */
     public Connection getConnection() {
+        long now = System.currentTimeMillis();
+        if (now - lastUsed >= pool.getValidationInterval() && !pool.isValid(connection)) {
+            pool.invalidate(connection);
+            try {
+                connection = pool.borrow();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                exitWithMessage("FATAL: Lost the connection to the database and could not reconnect", 5);
+            }
+        }
+        lastUsed = now;
         return connection;
     }
 
+    /**
+     * Gets the pool the main connection was borrowed from, to borrow more connections for parallel writers.
+     *
+     * @return the connection pool.
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the maximum number of connections open at once, the main connection included. Must be called before
+     * connecting.
+     *
+     * @param poolSize the maximum number of connections.
+     */
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1)
+            throw new IllegalArgumentException("poolSize must be positive");
+        this.poolSize = poolSize;
+    }
+
     public void tearDown() throws SQLException {
-        connection.close();
+        pool.release(connection);
+        pool.close();
     }
 
     public void connectToHost(String host, int port) throws SQLException {
         if (!checkIfCredentialsAreSet())
             exitWithMessage("FATAL: Credentials are not set. No connection to database could be established", 1);
         String url = String.format("jdbc:postgresql://%s:%d/%s", host, port, databaseName);
-        this.connection = DriverManager.getConnection(url, properties);
+        this.pool = new ConnectionPool(() -> DriverManager.getConnection(url, properties), poolSize);
+        this.connection = pool.borrow();
     }
 
     public void setupCredentials(String username, String password) {
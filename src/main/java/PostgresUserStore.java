@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the scrobbles of each user in a schema of their own, {@code lastfm_<username>}, holding a {@code tracks}
+ * table made like the main one, indexes included. A connection writing for a user has its schema set to the user's,
+ * so the usual statements on {@code tracks} work unchanged and users never see each other's scrobbles. With rollups,
+ * each schema gets its own rollup tables too, counted from the user's tracks when they are first created.
+ * <p>
+ * Connections are borrowed from the shared pool for the length of a poll, so the number of users written at the same
+ * time is bounded by the pool.
+ */
+public class PostgresUserStore implements MultiUserFetcher.UserStore {
+    private final ConnectionPool pool;
+    private final ParallelTrackWriter.WriterFactory writerFactory;
+
+    /**
+     * The main tracks table, qualified with its schema, that every user's table is made like.
+     */
+    private final String templateTable;
+
+    /**
+     * The users whose schema is known to exist.
+     */
+    private final Set<String> preparedUsers;
+
+    /**
+     * Whether each user's schema has rollup tables.
+     */
+    private boolean rollups;
+
+    /**
+     * Create a new user store.
+     *
+     * @param pool          the pool to borrow connections from.
+     * @param writerFactory creates the writer used for a user's tracks.
+     * @param connection    a connection whose current schema holds the main tracks table.
+     * @throws SQLException thrown if the schema of the connection can't be read.
+     */
+    public PostgresUserStore(ConnectionPool pool, ParallelTrackWriter.WriterFactory writerFactory,
+                             Connection connection) throws SQLException {
+        this.pool = pool;
+        this.writerFactory = writerFactory;
+        this.templateTable = quote(connection.getSchema()) + ".tracks";
+        this.preparedUsers = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Sets whether each user's schema gets rollup tables, for writers that keep them up to date.
+     *
+     * @param rollups whether to create the rollup tables.
+     */
+    public void setRollups(boolean rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * Gets the name of the schema holding a user's scrobbles.
+     *
+     * @param username the user.
+     * @return the schema name, unquoted.
+     */
+    public static String schemaName(String username) {
+        return "lastfm_" + username;
+    }
+
+    @Override
+    public Date selectLastTime(String username) throws IOException {
+        Connection connection = borrow(username);
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT max(listened_at) FROM tracks")) {
+            return resultSet.next() ? resultSet.getTimestamp(1) : null;
+        } catch (SQLException e) {
+            throw new IOException("Unable to read the last time of " + username, e);
+        } finally {
+            release(connection);
+        }
+    }
+
+    @Override
+    public TrackSink openSink(String username) throws IOException {
+        Connection connection = borrow(username);
+        TrackSink writer;
+        try {
+            writer = writerFactory.open(connection);
+        } catch (SQLException e) {
+            release(connection);
+            throw new IOException("Unable to write the tracks of " + username, e);
+        }
+        return new TrackSink() {
+            @Override
+            public void accept(Track track) throws IOException {
+                writer.accept(track);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    writer.close();
+                } finally {
+                    release(connection);
+                }
+            }
+        };
+    }
+
+    /**
+     * Borrows a connection set to a user's schema, creating the schema first if need be.
+     */
+    private Connection borrow(String username) throws IOException {
+        Connection connection;
+        try {
+            connection = pool.borrow();
+        } catch (SQLException e) {
+            throw new IOException("Unable to connect to the database", e);
+        }
+        try {
+            String schema = schemaName(username);
+            boolean prepared = preparedUsers.contains(username);
+            if (!prepared) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CREATE SCHEMA IF NOT EXISTS " + quote(schema));
+                    statement.execute("CREATE TABLE IF NOT EXISTS " + quote(schema) + ".tracks (LIKE "
+                            + templateTable + " INCLUDING ALL)");
+                }
+            }
+            connection.setSchema(schema);
+            if (!prepared) {
+                if (rollups && TrackRollups.createTables(connection)) TrackRollups.rebuild(connection);
+                preparedUsers.add(username);
+            }
+            return connection;
+        } catch (SQLException e) {
+            pool.invalidate(connection);
+            throw new IOException("Unable to prepare the schema of " + username, e);
+        }
+    }
+
+    /**
+     * Hands a connection back to the pool, with its schema reset so the next borrower isn't surprised.
+     */
+    private void release(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET search_path TO DEFAULT");
+        } catch (SQLException e) {
+            pool.invalidate(connection);
+            return;
+        }
+        pool.release(connection);
+    }
+
+    /**
+     * Quotes an identifier, so that usernames with capitals or dashes make valid schema names.
+     */
+    private static String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+}
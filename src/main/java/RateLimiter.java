@@ -0,0 +1,166 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket shared by every thread that fetches from the last.fm API, so that the combined request rate stays
+ * under the ceiling however many pages are in flight.
+ * <p>
+ * The rate adapts to the server: when last.fm throttles us the rate is halved and every thread holds off for the
+ * time the server asked for, then each successful request raises the rate a little until it is back at the ceiling.
+ */
+public class RateLimiter {
+    /**
+     * The rate to drop to when throttled without a ceiling, last.fm's documented limit.
+     */
+    private static final double THROTTLED_RATE = 5.0;
+
+    /**
+     * The rate never drops below this, so fetching always makes progress.
+     */
+    private static final double MIN_RATE = 0.2;
+
+    /**
+     * How much each successful request raises the rate, in permits per second.
+     */
+    private static final double RECOVERY_STEP = 0.1;
+
+    /**
+     * Without a ceiling, the limit is lifted once the rate has recovered to this.
+     */
+    private static final double UNLIMITED_RECOVERY_RATE = 50.0;
+
+    /**
+     * The highest rate handed out, or infinity for no ceiling.
+     */
+    private final double maxPermitsPerSecond;
+
+    /**
+     * The most permits that can be saved up and spent at once.
+     */
+    private final double burst;
+
+    /**
+     * The rate currently handed out.
+     */
+    private double permitsPerSecond;
+
+    /**
+     * The permits saved up.
+     */
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    /**
+     * The {@link System#nanoTime()} before which no permits are handed out.
+     */
+    private long pausedUntilNanos;
+
+    /**
+     * Create a new rate limiter that hands out one permit at a time.
+     *
+     * @param permitsPerSecond the maximum number of permits handed out per second.
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, 1);
+    }
+
+    /**
+     * Create a new rate limiter.
+     *
+     * @param permitsPerSecond the maximum number of permits handed out per second, or infinity for no ceiling.
+     * @param burst            the most permits that can be saved up and spent at once.
+     */
+    public RateLimiter(double permitsPerSecond, double burst) {
+        if (permitsPerSecond <= 0 || burst < 1)
+            throw new IllegalArgumentException("permitsPerSecond must be positive and burst at least 1");
+        this.maxPermitsPerSecond = permitsPerSecond;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.pausedUntilNanos = lastRefillNanos;
+    }
+
+    /**
+     * Create a rate limiter with no ceiling. It only holds requests back once the server has throttled us.
+     *
+     * @return a new rate limiter with no ceiling.
+     */
+    public static RateLimiter unlimited() {
+        return new RateLimiter(Double.POSITIVE_INFINITY, 1);
+    }
+
+    /**
+     * Gets the rate currently handed out.
+     *
+     * @return the rate in permits per second, or infinity if requests aren't limited.
+     */
+    public synchronized double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Blocks until a permit is available.
+     *
+     * @throws InterruptedException thrown if the thread is interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while ((waitNanos = tryAcquire()) > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * Holds back every request for a while, for example because the server asked us to.
+     *
+     * @param millis how long to hold requests back.
+     */
+    public synchronized void pause(long millis) {
+        pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Halves the rate after the server throttled us.
+     */
+    public synchronized void throttled() {
+        refill(System.nanoTime());
+        permitsPerSecond = Double.isInfinite(permitsPerSecond)
+                ? Math.min(THROTTLED_RATE, maxPermitsPerSecond)
+                : Math.max(MIN_RATE, permitsPerSecond / 2);
+        tokens = Math.min(tokens, 1);
+    }
+
+    /**
+     * Raises the rate a little after a successful request, up to the ceiling.
+     */
+    public synchronized void succeeded() {
+        if (permitsPerSecond >= maxPermitsPerSecond) return;
+        refill(System.nanoTime());
+        permitsPerSecond = Math.min(maxPermitsPerSecond, permitsPerSecond + RECOVERY_STEP);
+        if (Double.isInfinite(maxPermitsPerSecond) && permitsPerSecond >= UNLIMITED_RECOVERY_RATE)
+            permitsPerSecond = maxPermitsPerSecond;
+    }
+
+    /**
+     * Takes a permit if one is available.
+     *
+     * @return 0 if a permit was taken, otherwise how long to wait before trying again in nanoseconds.
+     */
+    private synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now < pausedUntilNanos) return pausedUntilNanos - now;
+        if (Double.isInfinite(permitsPerSecond)) return 0;
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) ((1 - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private void refill(long now) {
+        if (!Double.isInfinite(permitsPerSecond))
+            tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a user's recent tracks, as returned by {@code user.getrecenttracks}.
+ */
+public class RecentTracksPage {
+    /**
+     * The scrobbled tracks on the page, newest first. The track currently playing is left out since it has no date.
+     */
+    private final List<Track> tracks;
+
+    /**
+     * The number of this page, starting at 1.
+     */
+    private int page;
+
+    /**
+     * The number of tracks per page.
+     */
+    private int perPage;
+
+    /**
+     * The total number of pages.
+     */
+    private int totalPages;
+
+    /**
+     * The total number of scrobbles across every page.
+     */
+    private long total;
+
+    /**
+     * Create a new, empty page.
+     */
+    public RecentTracksPage() {
+        this.tracks = new ArrayList<>();
+    }
+
+    // Getters and setters
+
+    public List<Track> getTracks() {
+        return tracks;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    void setPage(int page) {
+        this.page = page;
+    }
+
+    public int getPerPage() {
+        return perPage;
+    }
+
+    void setPerPage(int perPage) {
+        this.perPage = perPage;
+    }
+
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    void setTotalPages(int totalPages) {
+        this.totalPages = totalPages;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    void setTotal(long total) {
+        this.total = total;
+    }
+}
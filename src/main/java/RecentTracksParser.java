@@ -0,0 +1,242 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+/**
+ * Parses a {@code user.getrecenttracks} response straight from the byte stream into {@link Track} objects. The
+ * response is read token by token: it is never held as a whole in a String and no DOM is built. Only the fields a
+ * track needs are read, everything else is skipped.
+ * <p>
+ * The strings of every track are looked up in a {@link StringDictionary}, so tracks parsed from any page share one
+ * instance of each artist, album, name and URL.
+ */
+public class RecentTracksParser {
+    /**
+     * The index of the extra large album art in a track's {@code image} array.
+     */
+    private static final int IMAGE_INDEX = 3;
+
+    /**
+     * Factories are thread safe and expensive to create, so one is shared by every parser.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final StringDictionary dictionary;
+
+    /**
+     * Create a new parser with a dictionary of its own.
+     */
+    public RecentTracksParser() {
+        this(new StringDictionary());
+    }
+
+    /**
+     * Create a new parser.
+     *
+     * @param dictionary the dictionary the strings of the tracks are shared through.
+     */
+    public RecentTracksParser(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Gets the dictionary the strings of the tracks are shared through.
+     *
+     * @return the dictionary.
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Parses a page of recent tracks. The stream is read to the end of the JSON document but not closed.
+     *
+     * @param stream the response body, encoded in UTF-8.
+     * @return the page parsed.
+     * @throws LastFmException thrown if the response is an API error.
+     * @throws IOException     thrown if the stream can't be read or isn't a recent tracks page.
+     */
+    public RecentTracksPage parse(InputStream stream) throws IOException {
+        RecentTracksPage page = new RecentTracksPage();
+        try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            boolean found = false;
+            Integer errorCode = null;
+            String errorMessage = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "recenttracks":
+                        parseRecentTracks(parser, page);
+                        found = true;
+                        break;
+                    case "error":
+                        errorCode = parser.getValueAsInt();
+                        break;
+                    case "message":
+                        errorMessage = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            if (errorCode != null)
+                throw new LastFmException(String.format("last.fm error %d: %s", errorCode, errorMessage),
+                        200, errorCode, -1);
+            if (!found)
+                throw new IOException("Response is not a page of recent tracks");
+        }
+        return page;
+    }
+
+    private void parseRecentTracks(JsonParser parser, RecentTracksPage page) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("track".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT)
+                    addTrack(parser, page);
+            } else if ("track".equals(field) && token == JsonToken.START_OBJECT) {
+                // A page holding a single track has the object in place of an array.
+                addTrack(parser, page);
+            } else if ("@attr".equals(field) && token == JsonToken.START_OBJECT) {
+                parseAttributes(parser, page);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseAttributes(JsonParser parser, RecentTracksPage page) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "page":
+                    page.setPage(parser.getValueAsInt());
+                    break;
+                case "perPage":
+                    page.setPerPage(parser.getValueAsInt());
+                    break;
+                case "totalPages":
+                    page.setTotalPages(parser.getValueAsInt());
+                    break;
+                case "total":
+                    page.setTotal(parser.getValueAsLong());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private void addTrack(JsonParser parser, RecentTracksPage page) throws IOException {
+        Track track = parseTrack(parser);
+        if (track != null) page.getTracks().add(track);
+    }
+
+    /**
+     * Parses a track object. The parser is left on the object's closing brace.
+     *
+     * @return the track parsed, or null if the track is playing right now and so has no date.
+     */
+    private Track parseTrack(JsonParser parser) throws IOException {
+        String artist = null, album = null, name = null, imageUrl = null, url = null;
+        long uts = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "artist":
+                    artist = parseText(parser, token);
+                    break;
+                case "album":
+                    album = parseText(parser, token);
+                    break;
+                case "name":
+                    name = parser.getValueAsString();
+                    break;
+                case "url":
+                    url = parser.getValueAsString();
+                    break;
+                case "image":
+                    imageUrl = parseImage(parser, token);
+                    break;
+                case "date":
+                    uts = parseUts(parser, token);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (uts < 0) return null;
+        return new Track(dictionary.intern(artist), dictionary.intern(album), dictionary.intern(name),
+                new Date(uts * 1000L), dictionary.intern(imageUrl), dictionary.intern(url));
+    }
+
+    /**
+     * Reads the {@code #text} of an object such as {@code {"mbid": "", "#text": "Snail Mail"}}.
+     */
+    private String parseText(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            String value = parser.getValueAsString();
+            parser.skipChildren();
+            return value;
+        }
+        String text = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("#text".equals(field)) text = parser.getValueAsString();
+            else parser.skipChildren();
+        }
+        return text;
+    }
+
+    /**
+     * Reads the extra large image URL out of the image array, falling back on the largest one present.
+     */
+    private String parseImage(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        String imageUrl = null;
+        for (int index = 0; parser.nextToken() != JsonToken.END_ARRAY; index++) {
+            if (index <= IMAGE_INDEX) imageUrl = parseText(parser, parser.getCurrentToken());
+            else parser.skipChildren();
+        }
+        return imageUrl;
+    }
+
+    /**
+     * Reads the seconds since epoch out of an object such as {@code {"uts": "1563768000", "#text": "..."}}.
+     */
+    private long parseUts(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return -1;
+        }
+        long uts = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("uts".equals(field)) uts = parser.getValueAsLong(-1);
+            else parser.skipChildren();
+        }
+        return uts;
+    }
+
+    private void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected)
+            throw new IOException(String.format("Expected %s but found %s at %s", expected, actual,
+                    parser.getCurrentLocation()));
+    }
+}
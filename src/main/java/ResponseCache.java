@@ -0,0 +1,452 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the bodies of API responses so the same page isn't downloaded twice. Responses are keyed by their request
+ * parameters, sorted and without the API key, so the same page requested in a different order or with another key is
+ * still a hit.
+ * <p>
+ * A page of a window that ended long enough ago never changes: last.fm doesn't accept scrobbles more than
+ * {@link #DEFAULT_SETTLE_TIME} in the past. Those responses are kept in memory and on disk, and serve later runs and
+ * re-parses. Every other response can still gain tracks, so it is only kept in memory for a few seconds, which covers
+ * the same page being asked for twice in one fetch.
+ * <p>
+ * Both tiers are bounded in bytes and evict the least recently used responses first. On disk, each response is a
+ * gzipped file named by the hash of its key, whose modification time records when it was last used.
+ */
+public class ResponseCache {
+    /**
+     * How long after a window ends its pages are taken to be settled.
+     */
+    public static final long DEFAULT_SETTLE_TIME = TimeUnit.DAYS.toMillis(14);
+
+    /**
+     * How long a response that may still change is kept, in milliseconds.
+     */
+    public static final long DEFAULT_FRESH_TIME = 5000;
+
+    /**
+     * The bytes of responses kept in memory when no bound is configured.
+     */
+    public static final long DEFAULT_MEMORY_SIZE = 32L << 20;
+
+    /**
+     * The request parameters left out of the key, since they don't change the response.
+     */
+    private static final String IGNORED_PARAMETER = "api_key";
+
+    private final long maxMemoryBytes;
+    private final Map<String, Entry> memory;
+    private long memoryBytes;
+
+    /**
+     * The folder holding the responses on disk, or null to keep them in memory only.
+     */
+    private final Path directory;
+    private final long maxDiskBytes;
+
+    /**
+     * The size of every file on disk by name, least recently used first.
+     */
+    private final Map<String, Long> diskFiles;
+    private long diskBytes;
+
+    private long settleTime;
+    private long freshTime;
+
+    private final AtomicLong memoryHitCount = new AtomicLong();
+    private final AtomicLong diskHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Create a new cache that keeps responses in memory only.
+     *
+     * @param maxMemoryBytes the bytes of responses kept in memory.
+     */
+    public ResponseCache(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.memory = new LinkedHashMap<>(256, 0.75f, true);
+        this.directory = null;
+        this.maxDiskBytes = 0;
+        this.diskFiles = new LinkedHashMap<>(256, 0.75f, true);
+        this.settleTime = DEFAULT_SETTLE_TIME;
+        this.freshTime = DEFAULT_FRESH_TIME;
+    }
+
+    /**
+     * Create a new cache that keeps settled responses on disk too, picking up the ones a previous run left there.
+     *
+     * @param maxMemoryBytes the bytes of responses kept in memory.
+     * @param directory      the folder to keep responses in, created if need be.
+     * @param maxDiskBytes   the bytes of files kept in the folder.
+     * @throws IOException thrown if the folder can't be created or read.
+     */
+    public ResponseCache(long maxMemoryBytes, Path directory, long maxDiskBytes) throws IOException {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.memory = new LinkedHashMap<>(256, 0.75f, true);
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.diskFiles = new LinkedHashMap<>(256, 0.75f, true);
+        this.settleTime = DEFAULT_SETTLE_TIME;
+        this.freshTime = DEFAULT_FRESH_TIME;
+        Files.createDirectories(directory);
+        loadDiskFiles();
+        evictDisk();
+    }
+
+    // Getters and setters
+
+    /**
+     * Sets how long after a window ends its pages are kept on disk.
+     *
+     * @param settleTime the time in milliseconds.
+     */
+    public void setSettleTime(long settleTime) {
+        this.settleTime = settleTime;
+    }
+
+    /**
+     * Sets how long a response that may still change is kept in memory. It should be well under the time between
+     * polls, or a poll can miss new tracks.
+     *
+     * @param freshTime the time in milliseconds, or 0 to not keep them at all.
+     */
+    public void setFreshTime(long freshTime) {
+        this.freshTime = freshTime;
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHitCount.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    // Lookups
+
+    /**
+     * Gets the body of a response kept for a request.
+     *
+     * @param url the request.
+     * @return the body, or null if no response is kept for it.
+     */
+    public byte[] get(URL url) {
+        String key = keyOf(url);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                memoryHitCount.incrementAndGet();
+                return entry.body;
+            }
+        }
+        if (directory != null && isSettled(url, now)) {
+            byte[] body = readDisk(key);
+            if (body != null) {
+                diskHitCount.incrementAndGet();
+                putMemory(key, body, Long.MAX_VALUE);
+                return body;
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Keeps the body of a response, on disk too if its page is settled.
+     *
+     * @param url  the request.
+     * @param body the body of the response.
+     */
+    public void put(URL url, byte[] body) {
+        String key = keyOf(url);
+        long now = System.currentTimeMillis();
+        if (isSettled(url, now)) {
+            putMemory(key, body, Long.MAX_VALUE);
+            if (directory != null) writeDisk(key, body);
+        } else if (freshTime > 0) {
+            putMemory(key, body, now + freshTime);
+        }
+    }
+
+    /**
+     * Tells whether the response to a request would be kept, so its body is worth copying as it streams in.
+     *
+     * @param url the request.
+     * @return whether the response would be kept.
+     */
+    public boolean isCacheable(URL url) {
+        return freshTime > 0 || isSettled(url, System.currentTimeMillis());
+    }
+
+    /**
+     * Builds the key of a request from its host, path and parameters, with the parameters sorted and the API key left
+     * out.
+     *
+     * @param url the request.
+     * @return the key.
+     */
+    static String keyOf(URL url) {
+        String parameters = parametersKey(url.getQuery());
+        String key = url.getHost() + ':' + url.getPort() + url.getPath();
+        return parameters.isEmpty() ? key : key + '?' + parameters;
+    }
+
+    /**
+     * Normalizes the parameters of a request: decoded, sorted by name and without the API key.
+     *
+     * @param query the query string of the request, encoded, or null if it has none.
+     * @return the parameters joined as a query string, or an empty string if there are none.
+     */
+    static String parametersKey(String query) {
+        Map<String, String> parameters = parseQuery(query);
+        parameters.remove(IGNORED_PARAMETER);
+        StringBuilder key = new StringBuilder(128);
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (key.length() > 0) key.append('&');
+            key.append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Tells whether a request is for a window that ended more than {@link #settleTime} ago.
+     */
+    private boolean isSettled(URL url, long now) {
+        String to = parseQuery(url.getQuery()).get("to");
+        if (to == null) return false;
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(to)) < now - settleTime;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new TreeMap<>();
+        if (query == null) return parameters;
+        try {
+            for (String pair : query.split("&")) {
+                if (pair.isEmpty()) continue;
+                int equals = pair.indexOf('=');
+                String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+                String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+                parameters.put(name, value);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+
+    // Memory
+
+    private synchronized void putMemory(String key, byte[] body, long expiresAt) {
+        if (body.length > maxMemoryBytes) return;
+        Entry previous = memory.put(key, new Entry(body, expiresAt));
+        if (previous != null) memoryBytes -= previous.body.length;
+        memoryBytes += body.length;
+        Iterator<Entry> entries = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && entries.hasNext()) {
+            memoryBytes -= entries.next().body.length;
+            entries.remove();
+        }
+    }
+
+    // Disk
+
+    /**
+     * Indexes the files left by previous runs, least recently used first.
+     */
+    private void loadDiskFiles() throws IOException {
+        Map<Path, FileTime> files = new LinkedHashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                // A temporary file is what's left of a write that never finished.
+                if (name.endsWith(".tmp")) Files.deleteIfExists(file);
+                else if (name.endsWith(".gz")) files.put(file, Files.getLastModifiedTime(file));
+            }
+        }
+        List<Path> leastRecentFirst = new ArrayList<>(files.keySet());
+        leastRecentFirst.sort(Comparator.comparing(files::get));
+        for (Path file : leastRecentFirst) {
+            long size = Files.size(file);
+            diskFiles.put(file.getFileName().toString(), size);
+            diskBytes += size;
+        }
+    }
+
+    /**
+     * Reads a response from disk, marking it as used. A file that can't be read, or that holds the response of another
+     * key, is treated as missing.
+     */
+    private byte[] readDisk(String key) {
+        String name = fileName(key);
+        synchronized (this) {
+            if (!diskFiles.containsKey(name)) return null;
+        }
+        Path file = directory.resolve(name);
+        try (InputStream stream = new GZIPInputStream(Files.newInputStream(file), 8192)) {
+            byte[] content = readAll(stream);
+            byte[] keyBytes = (key + '\n').getBytes(StandardCharsets.UTF_8);
+            if (content.length < keyBytes.length || !startsWith(content, keyBytes)) return null;
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            byte[] body = new byte[content.length - keyBytes.length];
+            System.arraycopy(content, keyBytes.length, body, 0, body.length);
+            return body;
+        } catch (IOException e) {
+            removeDiskFile(name);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a response to disk, through a temporary file so a crash never leaves half a response behind, then evicts
+     * the least recently used files over the bound.
+     */
+    private void writeDisk(String key, byte[] body) {
+        String name = fileName(key);
+        Path file = directory.resolve(name);
+        try {
+            Path temporary = Files.createTempFile(directory, name, ".tmp");
+            try (OutputStream stream = new GZIPOutputStream(Files.newOutputStream(temporary), 8192)) {
+                stream.write((key + '\n').getBytes(StandardCharsets.UTF_8));
+                stream.write(body);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(file);
+            synchronized (this) {
+                Long previous = diskFiles.put(name, size);
+                if (previous != null) diskBytes -= previous;
+                diskBytes += size;
+            }
+            evictDisk();
+        } catch (IOException e) {
+            // The response is only missing from the cache, so the next run fetches it again.
+            System.err.printf("Unable to cache %s: %s\n", name, e.getMessage());
+        }
+    }
+
+    private void evictDisk() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> files = diskFiles.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && files.hasNext()) {
+                Map.Entry<String, Long> file = files.next();
+                diskBytes -= file.getValue();
+                evicted.add(file.getKey());
+                files.remove();
+            }
+        }
+        for (String name : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(name));
+            } catch (IOException e) {
+                System.err.printf("Unable to evict %s: %s\n", name, e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void removeDiskFile(String name) {
+        Long size = diskFiles.remove(name);
+        if (size != null) diskBytes -= size;
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (NoSuchFileException ignored) {
+            // Already gone.
+        } catch (IOException e) {
+            System.err.printf("Unable to remove %s: %s\n", name, e.getMessage());
+        }
+    }
+
+    // Helpers
+
+    private static String fileName(String key) {
+        return hashOf(key) + ".gz";
+    }
+
+    /**
+     * Hashes a key, to name the file holding its response.
+     *
+     * @param key the key.
+     * @return the SHA-256 of the key in hexadecimal.
+     */
+    static String hashOf(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hash = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16384);
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = stream.read(buffer)) != -1)
+            output.write(buffer, 0, count);
+        return output.toByteArray();
+    }
+
+    private static boolean startsWith(byte[] content, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++)
+            if (content[i] != prefix[i]) return false;
+        return true;
+    }
+
+    /**
+     * A response kept in memory, and when it stops being valid.
+     */
+    private static class Entry {
+        private final byte[] body;
+        private final long expiresAt;
+
+        Entry(byte[] body, long expiresAt) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A folder of API responses recorded from last.fm, to be served back by {@link MockLastFmServer} so that a fetch can
+ * be repeated offline, as often as need be, against real data. Unlike {@link ResponseCache} every response is kept,
+ * however recent, and nothing is ever evicted.
+ * <p>
+ * Responses are keyed by their request parameters, normalized as the cache does, so a recording made against
+ * last.fm replays on any host and with any API key. Each body is kept as it was received in {@code <hash>.json}, and
+ * {@code index.tsv} lists the parameters of every file, so a recording can be read and edited by hand.
+ */
+public class ResponseRecording {
+    /**
+     * The file listing the hash and parameters of every response, one per line.
+     */
+    private static final String INDEX_FILE = "index.tsv";
+
+    private final Path directory;
+
+    /**
+     * Open a recording, creating its folder if need be.
+     *
+     * @param directory the folder holding the responses.
+     * @throws IOException thrown if the folder can't be created.
+     */
+    public ResponseRecording(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Records the body of a response, replacing any recorded for the same request.
+     *
+     * @param url  the request.
+     * @param body the body of the response.
+     * @throws IOException thrown if the response can't be written.
+     */
+    public void record(URL url, byte[] body) throws IOException {
+        String key = ResponseCache.parametersKey(url.getQuery());
+        String hash = ResponseCache.hashOf(key);
+        Path file = directory.resolve(hash + ".json");
+        boolean existed = Files.exists(file);
+        Path temporary = Files.createTempFile(directory, hash, ".tmp");
+        Files.write(temporary, body);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (existed) return;
+        synchronized (this) {
+            try (BufferedWriter index = Files.newBufferedWriter(directory.resolve(INDEX_FILE), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                index.write(hash + '\t' + key + '\n');
+            }
+        }
+    }
+
+    /**
+     * Gets the body recorded for a request.
+     *
+     * @param query the query string of the request, encoded, or null if it has none.
+     * @return the body, or null if none was recorded.
+     */
+    public byte[] replay(String query) {
+        Path file = directory.resolve(ResponseCache.hashOf(ResponseCache.parametersKey(query)) + ".json");
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + file, e);
+        }
+    }
+}
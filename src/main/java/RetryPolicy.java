@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries requests to the last.fm API with exponential backoff and full jitter. Errors that can't succeed on a
+ * second try, such as an unknown user, fail straight away. When last.fm throttles us the shared {@link RateLimiter}
+ * is slowed down and paused, honoring the server's Retry-After, so every fetch thread backs off together.
+ */
+public class RetryPolicy {
+    /**
+     * A request that may be retried.
+     *
+     * @param <T> the type of the response.
+     */
+    public interface Attempt<T> {
+        T call() throws IOException;
+    }
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * The number of retries made so far.
+     */
+    private final AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * Create a new retry policy.
+     *
+     * @param maxAttempts     the most times a request is tried, including the first.
+     * @param baseDelayMillis the longest wait before the first retry.
+     * @param maxDelayMillis  the longest wait before any retry, unless the server asks for longer.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Create a retry policy with the defaults: 6 attempts, waiting up to 1s, 2s, 4s, 8s and 16s between them.
+     *
+     * @return a new retry policy.
+     */
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(6, 1000, 30000);
+    }
+
+    /**
+     * Gets the number of retries made so far.
+     *
+     * @return the number of retries made so far.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Makes a request, retrying it until it succeeds, fails in a way retrying can't fix, or runs out of attempts.
+     *
+     * @param attempt     the request.
+     * @param rateLimiter the limiter every attempt waits on.
+     * @param <T>         the type of the response.
+     * @return the response.
+     * @throws IOException thrown with the last error if the request never succeeded.
+     */
+    public <T> T call(Attempt<T> attempt, RateLimiter rateLimiter) throws IOException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                rateLimiter.acquire();
+                T response = attempt.call();
+                rateLimiter.succeeded();
+                return response;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to make a request");
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted() || attemptNumber >= maxAttempts || !isRetryable(e))
+                    throw e;
+                long delay = delayMillis(attemptNumber, e);
+                if (e instanceof LastFmException && ((LastFmException) e).isRateLimited()) {
+                    rateLimiter.throttled();
+                    rateLimiter.pause(delay);
+                }
+                retryCount.incrementAndGet();
+                System.err.printf("Retry %d in %d ms after: %s\n", attemptNumber, delay, e.getMessage());
+                sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Works out how long to wait before the next attempt: a random time up to an exponentially growing cap, but no
+     * less than the server asked for.
+     *
+     * @param attemptNumber the attempt that just failed, starting at 1.
+     * @param error         the error it failed with.
+     * @return how long to wait in milliseconds.
+     */
+    long delayMillis(int attemptNumber, IOException error) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attemptNumber - 1, 30));
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        if (error instanceof LastFmException)
+            delay = Math.max(delay, ((LastFmException) error).getRetryAfterMillis());
+        return delay;
+    }
+
+    private static boolean isRetryable(IOException error) {
+        // Network errors such as timeouts and resets are worth retrying; errors last.fm reported depend on the code.
+        return !(error instanceof LastFmException) || ((LastFmException) error).isRetryable();
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
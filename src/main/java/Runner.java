@@ -1,25 +1,58 @@
 import io.github.cdimascio.dotenv.Dotenv;
 import org.apache.commons.cli.*;
 
-import java.io.File;
+import javax.management.JMException;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.System.exit;
 
 public class Runner {
+    /**
+     * The size of the buffer in front of the output file, in characters.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
     private Options options;
     private CommandLineParser parser;
     private HelpFormatter formatter;
     private PostgresConnection postgresConnection;
     private CommandLine commandLine;
     private TrackFetcher trackFetcher;
+
+    /**
+     * Whether tracks are written to the loading schema, to be swapped in once complete, rather than to the tracks table.
+     */
+    private boolean loading;
+
+    /**
+     * Whether the output file has been opened already, so opening it again, after a daemon's sink failed, appends.
+     */
+    private boolean outputOpened;
     private Dotenv dotenv;
 
     public static void main(String... args) {
-        new Runner(args).run();
+        Runner runner = new Runner(args);
+        // The JDK keeps 5 idle connections per host unless told otherwise. It reads the property when it makes its
+        // first request, so it is set once, here, before any request is made.
+        int connections = runner.fetchConcurrency();
+        if (connections > 5 && System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections", String.valueOf(connections));
+        runner.run();
     }
 
     private Runner(String... args) {
@@ -29,21 +62,497 @@ public class Runner {
         initializeCommandLine(args);
         startPostgresConnection();
         initializeFetcher();
+        initializeMetrics();
     }
 
     private void run() {
-        if (options.hasOption("--reset")) {
-            trackFetcher.deleteTracks();
-            trackFetcher.fetchNewTracks();
-        } else if (options.hasOption("--delete")) {
+        if (hasUsers() && (commandLine.hasOption("reset") || commandLine.hasOption("delete")
+                || commandLine.hasOption("rebuild-rollups"))) {
+            System.err.println("--reset, --delete and --rebuild-rollups can't be used with --users or --users-table");
+            exit(1);
+        }
+        if (commandLine.hasOption("append") && (postgresConnection != null || commandLine.hasOption("archive")
+                || commandLine.hasOption("import") || !commandLine.hasOption("output-file"))) {
+            System.err.println("--append needs a JSON --output-file and can't be used with --sql, --archive or --import");
+            exit(1);
+        }
+        if (commandLine.hasOption("analytics") && (postgresConnection != null || commandLine.hasOption("daemon")
+                || hasUsers() || commandLine.hasOption("append") || commandLine.hasOption("archive"))) {
+            System.err.println("--analytics can't be used with --sql, --daemon, --users, --append or --archive");
+            exit(1);
+        }
+        if (commandLine.hasOption("rebuild-rollups")) {
+            rebuildRollups();
+        } else if (commandLine.hasOption("reset")) {
+            resetCheckpoint();
+            // Everything is fetched again, not just what is newer than the tracks being replaced.
+            if (!commandLine.hasOption("last-time")) trackFetcher.setLastTime(new Date(0));
+            if (commandLine.hasOption("daemon")) {
+                trackFetcher.deleteTracks();
+                loadToSink();
+            } else {
+                backfill();
+            }
+        } else if (commandLine.hasOption("delete")) {
             trackFetcher.deleteTracks();
+        } else if (commandLine.hasOption("analytics")) {
+            analyze();
         } else {
-            trackFetcher.fetchNewTracks();
-            if (postgresConnection == null)
-                trackFetcher.dumpTracks(initializeWriter());
+            loadToSink();
+        }
+    }
+
+    /**
+     * Fetches the tracks, or reads them from an archive, into a {@link TrackStore}, and writes a report of the
+     * listening history to the output file instead of the tracks.
+     */
+    private void analyze() {
+        TrackStore store = new TrackStore();
+        DeduplicatingSink deduplicatingSink = new DeduplicatingSink(store);
+        try {
+            if (commandLine.hasOption("import")) {
+                try (TrackArchiveReader reader = new TrackArchiveReader(Paths.get(commandLine.getOptionValue("import")))) {
+                    reader.readAll(deduplicatingSink);
+                }
+            } else {
+                trackFetcher.fetchNewTracks(deduplicatingSink);
+                System.err.println(trackFetcher.getMetrics().summary());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(3);
+        }
+        if (!trackFetcher.getFailedPages().isEmpty())
+            System.err.printf("Unable to fetch pages %s; the report leaves their tracks out\n",
+                    trackFetcher.getFailedPages());
+
+        ListeningAnalytics analytics = ListeningAnalytics.of(store);
+        ZoneId zone = ZoneId.systemDefault();
+        TimeWindow all = new TimeWindow(0, 0);
+        try (PrintWriter writer = initializeWriter()) {
+            writer.printf("%d scrobbles%n", analytics.size());
+            writeRanking(writer, "Top artists", analytics.topArtists(all, 10));
+            writeRanking(writer, "Top albums", analytics.topAlbums(all, 10));
+            writeRanking(writer, "Top tracks", analytics.topTracks(all, 10, false));
+            writer.printf("%nPlays by hour of day (%s)%n", zone);
+            int[] hours = analytics.playsByHourOfDay(all, zone);
+            for (int hour = 0; hour < hours.length; hour++)
+                writer.printf("  %02d:00  %d%n", hour, hours[hour]);
+            ListeningAnalytics.Streak longest = analytics.longestStreak(zone);
+            if (longest != null)
+                writer.printf("%nLongest streak: %d days, %s to %s%n", longest.getDays(), longest.getFirstDay(),
+                        longest.getLastDay());
+            ListeningAnalytics.Streak current = analytics.currentStreak(zone, LocalDate.now(zone));
+            writer.printf("Current streak: %d days%n", current == null ? 0 : current.getDays());
+        }
+    }
+
+    private static void writeRanking(PrintWriter writer, String title, List<PlayCount> ranking) {
+        writer.printf("%n%s%n", title);
+        for (int i = 0; i < ranking.size(); i++)
+            writer.printf("%4d. %s%n", i + 1, ranking.get(i));
+    }
+
+    /**
+     * Loads every track into a new table, then swaps it in for the old one. Readers keep seeing the old tracks until
+     * the load has finished; a load that fails or misses pages exits before the swap, leaving them in place.
+     * Rollup tables that exist are replaced too, so without {@code --rollups} they are counted from the loaded tracks
+     * before the swap rather than left counting the old ones.
+     */
+    private void backfill() {
+        Connection connection = postgresConnection.getConnection();
+        boolean rollups = commandLine.hasOption("rollups");
+        boolean recountRollups = false;
+        try {
+            recountRollups = !rollups && TrackRollups.tablesExist(connection);
+            TrackSchema.prepareLoading(connection, rollups);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            exit(5);
+        }
+        loading = true;
+        loadToSink();
+        try {
+            if (recountRollups) {
+                long started = System.nanoTime();
+                long rows = TrackSchema.rebuildLoadingRollups(connection);
+                System.err.printf("%d rollup rows counted in %d ms\n", rows, (System.nanoTime() - started) / 1000000);
+            }
+            long started = System.nanoTime();
+            int tables = TrackSchema.swapIn(connection);
+            System.err.printf("Swapped in %d tables in %d ms\n", tables, (System.nanoTime() - started) / 1000000);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            System.err.println("The loaded tracks are left in the " + TrackSchema.LOADING_SCHEMA + " schema");
+            exit(5);
+        }
+    }
+
+    /**
+     * Recounts the rollup tables from the tracks already loaded.
+     */
+    private void rebuildRollups() {
+        try {
+            long started = System.nanoTime();
+            long rows = TrackRollups.rebuild(postgresConnection.getConnection());
+            System.err.printf("%d rollup rows rebuilt in %d ms\n", rows, (System.nanoTime() - started) / 1000000);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            exit(5);
+        }
+    }
+
+    private void loadToSink() {
+        if (commandLine.hasOption("import"))
+            importToSink();
+        else if (hasUsers())
+            fetchUsers();
+        else if (commandLine.hasOption("daemon"))
+            syncToSink();
+        else
+            fetchToSink();
+    }
+
+    /**
+     * Streams the tracks of an archive to the database, or to the output file when not using SQL.
+     */
+    private void importToSink() {
+        int queueCapacity = Integer.parseInt(commandLine.getOptionValue("queue-size", "1000"));
+        DeduplicatingSink deduplicatingSink = new DeduplicatingSink(initializeSink());
+        try (TrackArchiveReader reader = new TrackArchiveReader(Paths.get(commandLine.getOptionValue("import")));
+             TrackPipeline pipeline = new TrackPipeline(deduplicatingSink, queueCapacity)) {
+            trackFetcher.getMetrics().watchQueue(pipeline::getQueueDepth);
+            System.err.printf("%d tracks imported\n", reader.readAll(pipeline));
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(3);
+        }
+    }
+
+    /**
+     * Streams newly fetched tracks to the database, or to the output file when not using SQL.
+     */
+    private void fetchToSink() {
+        int queueCapacity = Integer.parseInt(commandLine.getOptionValue("queue-size", "1000"));
+        DeduplicatingSink deduplicatingSink = new DeduplicatingSink(initializeSink());
+        try (TrackPipeline pipeline = new TrackPipeline(deduplicatingSink, queueCapacity)) {
+            trackFetcher.getMetrics().watchQueue(pipeline::getQueueDepth);
+            trackFetcher.fetchNewTracks(pipeline);
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(3);
+        }
+        System.err.println(trackFetcher.getMetrics().summary());
+        if (deduplicatingSink.getDuplicateCount() > 0)
+            System.err.printf("%d repeated tracks dropped\n", deduplicatingSink.getDuplicateCount());
+        List<Integer> failedPages = trackFetcher.getFailedPages();
+        if (!failedPages.isEmpty()) {
+            Collections.sort(failedPages);
+            System.err.printf("Unable to fetch pages %s; their tracks are missing\n", failedPages);
+            exit(4);
+        }
+    }
+
+    /**
+     * Keeps polling for new tracks and streaming them to the database, or to the output file when not using SQL,
+     * until the process is stopped.
+     */
+    private void syncToSink() {
+        // A JSON array or an archive is only complete once closed, unless each poll is appended to the file.
+        if (postgresConnection == null && !commandLine.hasOption("ndjson") && !commandLine.hasOption("append")) {
+            System.err.println("--daemon can only be used with --sql, --ndjson or --append");
+            exit(1);
+        }
+        int queueCapacity = Integer.parseInt(commandLine.getOptionValue("queue-size", "1000"));
+        long interval = Long.parseLong(commandLine.getOptionValue("interval", "60"));
+        CountDownLatch stopped = new CountDownLatch(1);
+        IOException failure = null;
+        // The first pipeline is opened here, so a bad setup stops the process; after a write fails, each poll opens a
+        // new one until the sink is back.
+        TrackPipeline first = new TrackPipeline(initializeSink(), queueCapacity);
+        SyncDaemon.PipelineOpener pipelines = new SyncDaemon.PipelineOpener() {
+            private TrackPipeline opened = first;
+
+            @Override
+            public TrackPipeline open() throws IOException {
+                TrackPipeline pipeline = opened != null ? opened : new TrackPipeline(reopenSink(), queueCapacity);
+                opened = null;
+                trackFetcher.getMetrics().watchQueue(pipeline::getQueueDepth);
+                return pipeline;
+            }
+        };
+        System.err.printf("Syncing every %d seconds from %s\n", interval, trackFetcher.getLastTime());
+        try (SyncDaemon daemon = new SyncDaemon(trackFetcher, pipelines, interval * 1000L)) {
+            runDaemon(daemon, stopped);
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            stopped.countDown();
+        }
+        if (failure != null) {
+            failure.printStackTrace();
+            exit(3);
+        }
+    }
+
+    /**
+     * Fetches every user listed by {@code --users} or {@code --users-table} into a schema of their own, once, or on
+     * schedule in daemon mode.
+     */
+    private void fetchUsers() {
+        if (postgresConnection == null) {
+            System.err.println("--users and --users-table can only be used with --sql");
+            exit(1);
+        }
+        List<String> usernames = null;
+        PostgresUserStore store = null;
+        try {
+            if (commandLine.hasOption("users"))
+                usernames = MultiUserFetcher.readUsernames(Paths.get(commandLine.getOptionValue("users")));
             else
-                trackFetcher.insertTracks();
+                usernames = MultiUserFetcher.selectUsernames(postgresConnection.getConnection(),
+                        commandLine.getOptionValue("users-table"));
+            store = new PostgresUserStore(postgresConnection.getPool(), writerFactory(),
+                    postgresConnection.getConnection());
+            store.setRollups(commandLine.hasOption("rollups"));
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
+            exit(2);
         }
+        CountDownLatch stopped = new CountDownLatch(1);
+        IOException failure = null;
+        int failedUsers = 0;
+        try (MultiUserFetcher fetcher = new MultiUserFetcher(trackFetcher, usernames, store, userConcurrency())) {
+            System.err.printf("Fetching %d users, %d at a time\n", usernames.size(), userConcurrency());
+            if (commandLine.hasOption("daemon"))
+                runDaemon(new SyncDaemon(fetcher::poll, Long.parseLong(commandLine.getOptionValue("interval", "60"))
+                        * 1000L), stopped);
+            else
+                fetcher.poll();
+            for (MultiUserFetcher.User user : fetcher.getUsers()) {
+                System.err.printf("%s: %d tracks, newest at %s%s\n", user.getUsername(), user.getSyncedCount(),
+                        user.getLastTime(), user.getLastError() == null ? "" : ", failed: " + user.getLastError());
+                if (user.getLastError() != null) failedUsers++;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            stopped.countDown();
+        }
+        if (failure != null) {
+            failure.printStackTrace();
+            exit(3);
+        }
+        if (failedUsers > 0 && !commandLine.hasOption("daemon")) exit(4);
+    }
+
+    /**
+     * Runs a daemon until the process is stopped, letting the poll in progress finish and the sinks close before
+     * the JVM goes away.
+     *
+     * @param daemon  the daemon to run.
+     * @param stopped counted down once the sinks are closed.
+     */
+    private void runDaemon(SyncDaemon daemon, CountDownLatch stopped) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.stop();
+            try {
+                stopped.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "sync-daemon-shutdown"));
+        daemon.run();
+        System.err.printf("%d polls, %d failed, %d tracks synced\n", daemon.getPollCount(),
+                daemon.getFailedPollCount(), daemon.getSyncedCount());
+    }
+
+    /**
+     * Forgets a half finished fetch, since the tracks it wrote have just been deleted.
+     */
+    private void resetCheckpoint() {
+        if (!commandLine.hasOption("checkpoint")) return;
+        try {
+            FetchCheckpoint checkpoint = FetchCheckpoint.load(Paths.get(commandLine.getOptionValue("checkpoint")));
+            checkpoint.delete();
+            trackFetcher.setCheckpoint(checkpoint);
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(2);
+        }
+    }
+
+    private TrackSink initializeSink() {
+        if (commandLine.hasOption("append"))
+            return initializeAppender();
+        if (postgresConnection == null && commandLine.hasOption("archive"))
+            return initializeArchiveWriter();
+        if (postgresConnection == null)
+            return new JsonTrackSink(initializeWriter(), commandLine.hasOption("ndjson"));
+        TrackSink sink = null;
+        try {
+            sink = openDatabaseSink();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            exit(5);
+        }
+        return sink;
+    }
+
+    /**
+     * Opens the sink again for a daemon whose sink failed. The database may still be down, which fails the poll
+     * rather than the process.
+     */
+    private TrackSink reopenSink() throws IOException {
+        if (postgresConnection == null) return initializeSink();
+        try {
+            return openDatabaseSink();
+        } catch (SQLException e) {
+            throw new IOException("Unable to open the database writers", e);
+        }
+    }
+
+    private TrackSink openDatabaseSink() throws SQLException {
+        int batchSize = Integer.parseInt(commandLine.getOptionValue("batch-size", "500"));
+        int transactionSize = Integer.parseInt(commandLine.getOptionValue("transaction-size", "10000"));
+        int queueCapacity = Integer.parseInt(commandLine.getOptionValue("queue-size", "1000"));
+        ParallelTrackWriter.WriterFactory factory = writerFactory();
+        ParallelTrackWriter.WriterFactory writers = !loading ? factory
+                : connection -> openLoadingWriter(connection, factory);
+        TrackSink sink = new ParallelTrackWriter(postgresConnection.getPool(), writers, writerCount(), batchSize,
+                transactionSize, queueCapacity);
+        Connection connection = postgresConnection.getConnection();
+        String schema = loading ? TrackSchema.LOADING_SCHEMA : connection.getSchema();
+        if (TrackSchema.isPartitioned(connection, schema))
+            sink = new PartitioningSink(sink, connection, schema);
+        return sink;
+    }
+
+    /**
+     * Opens a writer on the backfill's loading schema. The connection is set back to its own schema when the writer
+     * is closed, so the pool doesn't hand out a connection pointing at a schema the swap drops.
+     */
+    private static TrackSink openLoadingWriter(Connection connection, ParallelTrackWriter.WriterFactory factory)
+            throws SQLException {
+        String schema = connection.getSchema();
+        connection.setSchema(TrackSchema.LOADING_SCHEMA);
+        TrackSink writer;
+        try {
+            writer = factory.open(connection);
+        } catch (SQLException e) {
+            connection.setSchema(schema);
+            throw e;
+        }
+        return new TrackSink() {
+            @Override
+            public void accept(Track track) throws IOException {
+                writer.accept(track);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+
+            @Override
+            public void whenDurable(Runnable action) throws IOException {
+                writer.whenDurable(action);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    writer.close();
+                } finally {
+                    try {
+                        connection.setSchema(schema);
+                    } catch (SQLException e) {
+                        throw new IOException("Unable to reset the schema of a writer's connection", e);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates the writer used on each database connection.
+     */
+    private ParallelTrackWriter.WriterFactory writerFactory() {
+        int batchSize = Integer.parseInt(commandLine.getOptionValue("batch-size", "500"));
+        int transactionSize = Integer.parseInt(commandLine.getOptionValue("transaction-size", "10000"));
+        FetchMetrics metrics = trackFetcher.getMetrics();
+        boolean rollups = commandLine.hasOption("rollups");
+        if (commandLine.hasOption("copy"))
+            return connection -> {
+                TrackCopyWriter writer = new TrackCopyWriter(connection, transactionSize);
+                writer.setMetrics(metrics);
+                writer.setRollups(rollups);
+                return writer;
+            };
+        return connection -> {
+            TrackBatchWriter writer = new TrackBatchWriter(connection, batchSize, transactionSize);
+            writer.setMetrics(metrics);
+            if (rollups) writer.setRollups(new TrackRollups());
+            return writer;
+        };
+    }
+
+    private boolean hasUsers() {
+        return commandLine.hasOption("users") || commandLine.hasOption("users-table");
+    }
+
+    private int userConcurrency() {
+        return Integer.parseInt(commandLine.getOptionValue("user-concurrency", "4"));
+    }
+
+    /**
+     * Gets the most pages fetched at the same time. Every user fetched at the same time shares the HTTP client, so
+     * this is also the number of connections worth keeping alive.
+     */
+    private int fetchConcurrency() {
+        int concurrency = Integer.parseInt(commandLine.getOptionValue("concurrency", "1"));
+        return concurrency * (hasUsers() ? userConcurrency() : 1);
+    }
+
+    private int writerCount() {
+        return Integer.parseInt(commandLine.getOptionValue("writers", "1"));
+    }
+
+    private TrackSink initializeArchiveWriter() {
+        String outputFile = commandLine.getOptionValue("output-file");
+        if (outputFile == null) {
+            System.err.println("--archive needs an --output-file");
+            exit(1);
+        }
+        TrackSink sink = null;
+        try {
+            sink = new TrackArchiveWriter(Paths.get(outputFile), commandLine.hasOption("compress"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(2);
+        }
+        return sink;
+    }
+
+    /**
+     * Opens the output file to append to, and starts the fetch after its newest track unless told where to start.
+     */
+    private TrackSink initializeAppender() {
+        JsonTrackAppender appender = null;
+        try {
+            long started = System.nanoTime();
+            appender = new JsonTrackAppender(Paths.get(commandLine.getOptionValue("output-file")),
+                    commandLine.hasOption("ndjson"));
+            if (appender.getNewest() != null) {
+                System.err.printf("Newest track in the output file is from %s, found in %d ms\n", appender.getNewest(),
+                        (System.nanoTime() - started) / 1000000);
+                if (!commandLine.hasOption("last-time")) trackFetcher.setLastTime(appender.getNewest());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(2);
+        }
+        return appender;
     }
 
     public void initializeCommandLine(String... args) {
@@ -65,6 +574,36 @@ public class Runner {
         addOption(new Option("s", "sql", false, "Insert to SQL instead of printing to file"), false);
         addOption(new Option("r", "reset", false, "Clear the table"), false);
         addOption(new Option("d", "delete", false, "Delete all tracks from table"), false);
+        addOption(new Option(null, "delete-duplicates", false, "Delete repeated scrobbles if they stop the unique index being created"), false);
+        addOption(new Option("c", "concurrency", true, "Number of pages to fetch at the same time"), false);
+        addOption(new Option(null, "window-size", true, "Split the fetch into time windows of about this many scrobbles"), false);
+        addOption(new Option(null, "page-size", true, "Number of tracks asked for on each page, at most 200 (the default)"), false);
+        addOption(new Option(null, "requests-per-second", true, "Maximum number of requests per second made to last.fm"), false);
+        addOption(new Option(null, "max-attempts", true, "Number of times a page is tried before giving up on it"), false);
+        addOption(new Option(null, "queue-size", true, "Number of fetched tracks that may wait to be written"), false);
+        addOption(new Option(null, "batch-size", true, "Number of rows sent to the database at once"), false);
+        addOption(new Option(null, "transaction-size", true, "Number of rows committed at once"), false);
+        addOption(new Option(null, "writers", true, "Number of database connections to write on at the same time"), false);
+        addOption(new Option(null, "copy", false, "Load tracks with COPY FROM STDIN instead of batched inserts"), false);
+        addOption(new Option(null, "ndjson", false, "Write one JSON object per line instead of a JSON array"), false);
+        addOption(new Option(null, "append", false, "Append tracks newer than the newest in the JSON output file to it"), false);
+        addOption(new Option(null, "archive", false, "Write the output file as a binary columnar archive instead of JSON"), false);
+        addOption(new Option(null, "compress", false, "Deflate the chunks of the archive"), false);
+        addOption(new Option(null, "import", true, "Load the tracks of an archive instead of fetching them"), false);
+        addOption(new Option(null, "analytics", false, "Write top artists, albums and tracks, plays by hour and listening streaks instead of the tracks"), false);
+        addOption(new Option(null, "daemon", false, "Keep running and poll for new tracks instead of fetching once"), false);
+        addOption(new Option(null, "interval", true, "Number of seconds between polls in daemon mode"), false);
+        addOption(new Option(null, "users", true, "File listing users to fetch, one per line, each into a schema of their own"), false);
+        addOption(new Option(null, "users-table", true, "Table whose username column lists the users to fetch"), false);
+        addOption(new Option(null, "user-concurrency", true, "Number of users fetched at the same time"), false);
+        addOption(new Option(null, "metrics-interval", true, "Seconds between metrics summaries on STDERR, or 0 for none"), false);
+        addOption(new Option(null, "metrics-port", true, "Serve metrics in the Prometheus format on this port"), false);
+        addOption(new Option(null, "cache", true, "Folder to keep responses for settled pages in, so they aren't fetched again"), false);
+        addOption(new Option(null, "cache-size", true, "Megabytes of responses kept in the cache folder"), false);
+        addOption(new Option(null, "record", true, "Folder to record every response in, to be replayed by MockLastFmServer"), false);
+        addOption(new Option(null, "rollups", false, "Keep daily play counts per artist, album and track as tracks are inserted"), false);
+        addOption(new Option(null, "rebuild-rollups", false, "Recount the daily play counts from the tracks table and exit"), false);
+        addOption(new Option(null, "checkpoint", true, "File recording the pages written, to resume an interrupted fetch"), false);
     }
 
     private void addOption(Option option, boolean required) {
@@ -77,10 +616,14 @@ public class Runner {
         String outputFile = commandLine.getOptionValue("output-file");
 
         if (outputFile == null)
-            printerWriter = new PrintWriter(System.out);
+            printerWriter = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE));
         else {
             try {
-                printerWriter = new PrintWriter(new File(outputFile));
+                printerWriter = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(outputFile, outputOpened), StandardCharsets.UTF_8),
+                        OUTPUT_BUFFER_SIZE));
+                outputOpened = true;
             } catch (IOException e) {
                 e.printStackTrace();
                 exit(2);
@@ -91,11 +634,14 @@ public class Runner {
 
     private void initializeFetcher() {
         Date lastTime = null;
-        String lastTimeStr = dotenv.get("last-time");
+        String lastTimeStr = commandLine.getOptionValue("last-time");
         if (lastTimeStr != null)
             lastTime = new Date(Long.parseLong(lastTimeStr) * 1000L);
 
-        if (postgresConnection != null && lastTime != null)
+        // With many users the fetcher is only a template, and each user's last time comes from their own schema.
+        if (postgresConnection != null && hasUsers())
+            trackFetcher = new TrackFetcher(lastTime == null ? new Date(0) : lastTime);
+        else if (postgresConnection != null && lastTime != null)
             trackFetcher = new TrackFetcher(postgresConnection, lastTime);
         else if (postgresConnection != null)
             trackFetcher = new TrackFetcher(postgresConnection);
@@ -103,19 +649,125 @@ public class Runner {
             trackFetcher = new TrackFetcher(lastTime);
         else
             trackFetcher = new TrackFetcher();
+
+        if (commandLine.hasOption("concurrency"))
+            trackFetcher.setConcurrency(Integer.parseInt(commandLine.getOptionValue("concurrency")));
+        if (commandLine.hasOption("window-size"))
+            trackFetcher.setWindowSize(Integer.parseInt(commandLine.getOptionValue("window-size")));
+        if (commandLine.hasOption("page-size"))
+            trackFetcher.setPageSize(Integer.parseInt(commandLine.getOptionValue("page-size")));
+        if (commandLine.hasOption("max-attempts"))
+            trackFetcher.setRetryPolicy(new RetryPolicy(Integer.parseInt(commandLine.getOptionValue("max-attempts")),
+                    1000, 30000));
+        if (commandLine.hasOption("requests-per-second"))
+            trackFetcher.setRequestsPerSecond(Double.parseDouble(commandLine.getOptionValue("requests-per-second")));
+        initializeCache();
+        if (commandLine.hasOption("checkpoint"))
+            initializeCheckpoint();
+    }
+
+    /**
+     * Keeps responses in memory so a page asked for twice is only fetched once, and settled pages on disk too with
+     * {@code --cache}, so later runs don't fetch them again.
+     */
+    private void initializeCache() {
+        ResponseCache cache;
+        if (commandLine.hasOption("cache")) {
+            long maxDiskBytes = Long.parseLong(commandLine.getOptionValue("cache-size", "256")) << 20;
+            try {
+                cache = new ResponseCache(ResponseCache.DEFAULT_MEMORY_SIZE,
+                        Paths.get(commandLine.getOptionValue("cache")), maxDiskBytes);
+            } catch (IOException e) {
+                e.printStackTrace();
+                exit(2);
+                return;
+            }
+        } else {
+            cache = new ResponseCache(ResponseCache.DEFAULT_MEMORY_SIZE);
+        }
+        // A poll must never be answered by the response to the previous one.
+        if (commandLine.hasOption("daemon"))
+            cache.setFreshTime(Math.min(ResponseCache.DEFAULT_FRESH_TIME,
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(commandLine.getOptionValue("interval", "60"))) / 2));
+        trackFetcher.getHttpClient().setCache(cache);
+
+        if (commandLine.hasOption("record")) {
+            // Pages read from the cache folder never reach the recording.
+            if (commandLine.hasOption("cache")) {
+                System.err.println("--record can't be used with --cache");
+                exit(1);
+            }
+            try {
+                trackFetcher.getHttpClient().setRecording(new ResponseRecording(
+                        Paths.get(commandLine.getOptionValue("record"))));
+            } catch (IOException e) {
+                e.printStackTrace();
+                exit(2);
+            }
+        }
+    }
+
+    /**
+     * Publishes the metrics of the fetch over JMX, and as a Prometheus endpoint and a periodic summary if asked to.
+     */
+    private void initializeMetrics() {
+        FetchMetrics metrics = trackFetcher.getMetrics();
+        metrics.watch(trackFetcher.getHttpClient(), trackFetcher.getRetryPolicy());
+        MetricsReporter reporter = new MetricsReporter(metrics);
+        try {
+            reporter.registerJmx();
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        long interval = Long.parseLong(commandLine.getOptionValue("metrics-interval", "10"));
+        if (interval > 0) reporter.startLogging(interval);
+        if (commandLine.hasOption("metrics-port")) {
+            try {
+                int port = reporter.startHttpServer(Integer.parseInt(commandLine.getOptionValue("metrics-port")));
+                System.err.printf("Serving metrics at http://localhost:%d/metrics\n", port);
+            } catch (IOException e) {
+                e.printStackTrace();
+                exit(2);
+            }
+        }
+    }
+
+    private void initializeCheckpoint() {
+        // A JSON dump is rewritten from scratch on every run, so there is nothing to resume into.
+        if (postgresConnection == null) {
+            System.err.println("--checkpoint can only be used with --sql");
+            exit(1);
+        }
+        try {
+            trackFetcher.setCheckpoint(FetchCheckpoint.load(Paths.get(commandLine.getOptionValue("checkpoint"))));
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(2);
+        }
     }
 
     private void startPostgresConnection() {
         dotenv = Dotenv.load();
-        if (!(commandLine.hasOption("sql") || commandLine.hasOption("reset"))) return;
+        if (!(commandLine.hasOption("sql") || commandLine.hasOption("reset") || commandLine.hasOption("delete")
+                || commandLine.hasOption("rebuild-rollups"))) return;
         String host = dotenv.get("DB_HOST") == null ? "localhost" : dotenv.get("DB_HOST");
         int port = dotenv.get("DB_PORT") == null ? 5432 : Integer.parseInt(dotenv.get("DB_PORT"));
         postgresConnection = new PostgresConnection(dotenv.get("DB_NAME"));
         postgresConnection.setupCredentials(dotenv.get("DB_USER"), dotenv.get("DB_PASSWORD"));
+        // One connection for the writers or users fetched at the same time each, and one for queries.
+        postgresConnection.setPoolSize((hasUsers() ? userConcurrency() : writerCount()) + 1);
         try {
             postgresConnection.connectToHost(host, port);
+            TrackSchema.create(postgresConnection.getConnection(), commandLine.hasOption("delete-duplicates"));
+            if (commandLine.hasOption("rollups") && !hasUsers()
+                    && TrackRollups.createTables(postgresConnection.getConnection())) {
+                System.err.println("Counting the tracks already loaded into the new rollup tables");
+                TrackRollups.rebuild(postgresConnection.getConnection());
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            // Duplicate scrobbles are the user's to decide about, and the message says how.
+            if (Track.UNIQUE_VIOLATION.equals(e.getSQLState())) System.err.println(e.getMessage());
+            else e.printStackTrace();
             exit(5);
         }
     }
@@ -0,0 +1,66 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one shared instance for each distinct string. A listening history repeats the same artists, albums,
+ * track names and album art URLs thousands of times, so storing each value once instead of once per track shrinks
+ * buffered tracks several-fold.
+ * <p>
+ * Unlike {@link String#intern()}, the strings live only as long as the dictionary, and the dictionary stops growing
+ * at a fixed size so a history with few repeats can't fill the heap with it.
+ */
+public class StringDictionary {
+    /**
+     * The number of distinct strings kept when no size is given.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+    private final ConcurrentHashMap<String, String> values;
+
+    /**
+     * The number of distinct strings kept. Strings seen after the dictionary is full are handed back as they are.
+     */
+    private final int maxSize;
+
+    /**
+     * Create a new dictionary holding up to {@link #DEFAULT_MAX_SIZE} strings.
+     */
+    public StringDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a new dictionary.
+     *
+     * @param maxSize the number of distinct strings kept, or 0 to keep none.
+     */
+    public StringDictionary(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize can't be negative");
+        this.values = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the number of distinct strings kept.
+     *
+     * @return the number of distinct strings kept.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Gets the shared instance of a string. Safe to call from several threads at once.
+     *
+     * @param value the string, or null.
+     * @return the instance equal to the string that was seen first, or the string itself if it is new or the
+     * dictionary is full.
+     */
+    public String intern(String value) {
+        if (value == null) return null;
+        String canonical = values.get(value);
+        if (canonical != null || values.size() >= maxSize) return canonical == null ? value : canonical;
+        canonical = values.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+}
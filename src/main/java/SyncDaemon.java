@@ -0,0 +1,233 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Keeps a sink up to date with the scrobbles of a user, or of many, by polling last.fm on a fixed schedule. The
+ * fetcher, its HTTP connections and the sink stay open between polls, so a poll with nothing new costs a single small
+ * request.
+ * <p>
+ * A poll that fails, for example because last.fm is down, is logged and tried again at the next one; since polls
+ * start from the newest track written, nothing is missed in between. A sink that fails is closed and opened again
+ * for the next poll.
+ */
+public class SyncDaemon implements Runnable, Closeable {
+    /**
+     * Fetches and writes whatever is new.
+     */
+    public interface Poll extends Closeable {
+        /**
+         * Polls once.
+         *
+         * @return the number of new tracks written.
+         * @throws IOException thrown if the poll failed.
+         */
+        long run() throws IOException;
+
+        /**
+         * Releases whatever the poll holds on to between runs, once the daemon has stopped.
+         *
+         * @throws IOException thrown if the remaining tracks can't be written.
+         */
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    /**
+     * Opens the pipeline a single user's tracks are written through.
+     */
+    public interface PipelineOpener {
+        /**
+         * Opens a pipeline, the first time and again after one has failed.
+         *
+         * @return the pipeline.
+         * @throws IOException thrown if the sink behind it can't be opened.
+         */
+        TrackPipeline open() throws IOException;
+    }
+
+    private final Poll poll;
+
+    /**
+     * The time between the starts of two polls, in milliseconds.
+     */
+    private final long intervalMillis;
+
+    private volatile boolean running;
+
+    private long pollCount;
+    private long failedPollCount;
+    private long syncedCount;
+
+    /**
+     * Create a new daemon polling a single user.
+     *
+     * @param fetcher        the fetcher to poll with.
+     * @param pipelines      opens the pipeline to write new tracks through. It is flushed after every poll, and
+     *                       closed when the daemon is.
+     * @param intervalMillis the time between the starts of two polls, in milliseconds.
+     */
+    public SyncDaemon(TrackFetcher fetcher, PipelineOpener pipelines, long intervalMillis) {
+        this(new FetcherPoll(fetcher, pipelines), intervalMillis);
+    }
+
+    /**
+     * Create a new daemon.
+     *
+     * @param poll           the poll to run on schedule.
+     * @param intervalMillis the time between the starts of two polls, in milliseconds.
+     */
+    public SyncDaemon(Poll poll, long intervalMillis) {
+        if (intervalMillis < 1)
+            throw new IllegalArgumentException("intervalMillis must be positive");
+        this.poll = poll;
+        this.intervalMillis = intervalMillis;
+        this.running = true;
+    }
+
+    // Getters
+
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    public synchronized long getFailedPollCount() {
+        return failedPollCount;
+    }
+
+    /**
+     * Gets the number of new tracks written so far.
+     *
+     * @return the number of tracks written.
+     */
+    public synchronized long getSyncedCount() {
+        return syncedCount;
+    }
+
+    /**
+     * Polls until {@link #stop()} is called. A poll in progress is finished first.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            long started = System.currentTimeMillis();
+            poll();
+            waitUntil(started + intervalMillis);
+        }
+    }
+
+    /**
+     * Polls once. The new tracks are durable by the time the poll returns.
+     *
+     * @return true if the poll succeeded.
+     */
+    public boolean poll() {
+        try {
+            long count = poll.run();
+            synchronized (this) {
+                pollCount++;
+                syncedCount += count;
+            }
+            if (count > 0)
+                System.err.printf("%d new tracks synced\n", count);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                pollCount++;
+                failedPollCount++;
+            }
+            System.err.printf("Unable to sync, trying again in %d seconds: %s\n", intervalMillis / 1000,
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Closes what the polls hold on to, such as the sink. Call it once {@link #run()} has returned.
+     *
+     * @throws IOException thrown if the remaining tracks can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        poll.close();
+    }
+
+    /**
+     * Stops polling once the poll in progress, if any, has finished.
+     */
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+    }
+
+    private synchronized void waitUntil(long time) {
+        long remaining;
+        while (running && (remaining = time - System.currentTimeMillis()) > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Polls a single user into a pipeline, dropping repeated scrobbles in front of it.
+     * <p>
+     * The fetcher moves its last time up as soon as the tracks are handed over, before they are durable, so a poll
+     * whose pipeline then fails sets it back, and the next poll asks for the same tracks again on a new pipeline.
+     * Repeats are only looked for among the scrobbles newer than the last time, since polls never return older ones,
+     * so a daemon running for months doesn't remember every scrobble it has synced.
+     */
+    private static class FetcherPoll implements Poll {
+        private final TrackFetcher fetcher;
+        private final PipelineOpener pipelines;
+        private TrackPipeline pipeline;
+        private DeduplicatingSink sink;
+
+        FetcherPoll(TrackFetcher fetcher, PipelineOpener pipelines) {
+            this.fetcher = fetcher;
+            this.pipelines = pipelines;
+        }
+
+        @Override
+        public long run() throws IOException {
+            Date previousTime = fetcher.getLastTime();
+            try {
+                if (sink == null) {
+                    pipeline = pipelines.open();
+                    sink = new DeduplicatingSink(pipeline);
+                }
+                long count = fetcher.pollNewTracks(sink);
+                sink.flush();
+                sink.forgetUntil(fetcher.getLastTime());
+                return count;
+            } catch (IOException | RuntimeException e) {
+                // The tracks may not have been written, so the next poll starts from where this one did.
+                fetcher.setLastTime(previousTime);
+                if (pipeline != null && pipeline.hasFailed()) closeFailed();
+                throw e;
+            }
+        }
+
+        /**
+         * Closes a failed pipeline so the next poll opens a new one. Closing rethrows the error already reported.
+         */
+        private void closeFailed() {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                // The poll failing is what gets logged.
+            }
+            sink = null;
+            pipeline = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (sink != null) sink.close();
+        }
+    }
+}
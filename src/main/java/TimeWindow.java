@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A range of scrobble times, from inclusive to exclusive, in seconds since epoch. A bound of 0 leaves that side of the
+ * window open. Pages inside a window with a fixed end don't move as new scrobbles arrive, so windows can be fetched
+ * independently and in any order.
+ */
+public class TimeWindow {
+    private final long from;
+    private final long to;
+
+    /**
+     * The number of scrobbles last.fm reported for the window, or -1 if it hasn't been counted.
+     */
+    private final long trackCount;
+
+    /**
+     * Create a new window that hasn't been counted.
+     *
+     * @param from the start of the window, inclusive, or 0 for no start.
+     * @param to   the end of the window, exclusive, or 0 for no end.
+     */
+    public TimeWindow(long from, long to) {
+        this(from, to, -1);
+    }
+
+    /**
+     * Create a new window.
+     *
+     * @param from       the start of the window, inclusive, or 0 for no start.
+     * @param to         the end of the window, exclusive, or 0 for no end.
+     * @param trackCount the number of scrobbles in the window, or -1 if it hasn't been counted.
+     */
+    public TimeWindow(long from, long to, long trackCount) {
+        this.from = from;
+        this.to = to;
+        this.trackCount = trackCount;
+    }
+
+    // Getters
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public long getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Gets the number of pages needed to fetch the window.
+     *
+     * @param perPage the number of tracks per page.
+     * @return the number of pages.
+     */
+    public int getPageCount(int perPage) {
+        return (int) ((Math.max(0, trackCount) + perPage - 1) / perPage);
+    }
+
+    /**
+     * Copies the window with a track count.
+     *
+     * @param trackCount the number of scrobbles in the window.
+     * @return the counted window.
+     */
+    public TimeWindow withTrackCount(long trackCount) {
+        return new TimeWindow(from, to, trackCount);
+    }
+
+    /**
+     * Copies the window with a new start.
+     *
+     * @param from the start of the window, inclusive.
+     * @return the narrowed window, which hasn't been counted.
+     */
+    public TimeWindow withFrom(long from) {
+        return new TimeWindow(from, to);
+    }
+
+    /**
+     * Checks whether a scrobble time falls inside the window.
+     *
+     * @param listenedAt the time of the scrobble.
+     * @return true if it is inside the window.
+     */
+    public boolean contains(Date listenedAt) {
+        long uts = listenedAt.getTime() / 1000L;
+        return (from == 0 || uts >= from) && (to == 0 || uts < to);
+    }
+
+    /**
+     * Splits a bounded window into windows of equal length, newest first, that don't overlap and together cover it.
+     * Windows too short to split into that many parts are split into one-second windows.
+     *
+     * @param parts the number of windows to split into.
+     * @return the windows, newest first, none of them counted.
+     */
+    public List<TimeWindow> split(int parts) {
+        if (from == 0 || to == 0)
+            throw new IllegalStateException("Only a bounded window can be split");
+        long length = to - from;
+        int count = (int) Math.max(1, Math.min(parts, length));
+        List<TimeWindow> windows = new ArrayList<>(count);
+        long end = to;
+        for (int i = count - 1; i >= 0; i--) {
+            long start = from + length * i / count;
+            windows.add(new TimeWindow(start, end));
+            end = start;
+        }
+        return windows;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TimeWindow window = (TimeWindow) o;
+        return from == window.from && to == window.to && trackCount == window.trackCount;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Long.hashCode(from) + Long.hashCode(to)) + Long.hashCode(trackCount);
+    }
+
+    /**
+     * Formats the window as {@code from-to:trackCount}, the form it is saved in by {@link FetchCheckpoint}.
+     *
+     * @return the window formatted.
+     */
+    @Override
+    public String toString() {
+        return from + "-" + to + ":" + trackCount;
+    }
+
+    /**
+     * Parses a window formatted by {@link #toString()}.
+     *
+     * @param window the formatted window.
+     * @return the window.
+     * @throws NumberFormatException thrown if the window isn't in that form.
+     */
+    public static TimeWindow parse(String window) {
+        int dash = window.indexOf('-');
+        int colon = window.indexOf(':', dash);
+        if (dash < 0 || colon < 0) throw new NumberFormatException("Not a time window: " + window);
+        return new TimeWindow(Long.parseLong(window.substring(0, dash).trim()),
+                Long.parseLong(window.substring(dash + 1, colon).trim()),
+                Long.parseLong(window.substring(colon + 1).trim()));
+    }
+}
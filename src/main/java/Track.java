@@ -2,8 +2,51 @@ import org.json.JSONObject;
 
 import java.sql.*;
 import java.util.Date;
+import java.util.Objects;
 
 public class Track {
+    /**
+     * The statement used to insert a track into the tracks table.
+     */
+    public static final String INSERT_SQL =
+            "INSERT INTO tracks (artist, album, name, listened_at, created_at, updated_at, url, image_url)"
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * The statement used to insert a track unless the same scrobble is already in the tracks table, so loading the
+     * same tracks twice leaves one copy. It relies on {@link #UNIQUE_INDEX_SQL}.
+     */
+    public static final String UPSERT_SQL = INSERT_SQL + " ON CONFLICT (artist, name, listened_at) DO NOTHING";
+
+    /**
+     * The name of the unique index identifying a scrobble by its artist, name and time.
+     */
+    static final String UNIQUE_INDEX = "tracks_artist_name_listened_at_index";
+
+    /**
+     * The unique index identifying a scrobble by its artist, name and time, which {@link #UPSERT_SQL} conflicts on.
+     */
+    public static final String UNIQUE_INDEX_SQL =
+            "CREATE UNIQUE INDEX IF NOT EXISTS " + UNIQUE_INDEX + " ON tracks (artist, name, listened_at)";
+
+    /**
+     * Builds {@link #UNIQUE_INDEX_SQL} without locking writers out of the table. It can't run in a transaction, nor
+     * on a partitioned table.
+     */
+    static final String UNIQUE_INDEX_CONCURRENTLY_SQL = UNIQUE_INDEX_SQL.replace("INDEX IF", "INDEX CONCURRENTLY IF");
+
+    /**
+     * Deletes all but one copy of each scrobble, so that {@link #UNIQUE_INDEX_SQL} can be created.
+     */
+    private static final String DELETE_DUPLICATES_SQL =
+            "DELETE FROM tracks a USING tracks b WHERE a.ctid > b.ctid"
+                    + " AND a.artist = b.artist AND a.name = b.name AND a.listened_at = b.listened_at";
+
+    /**
+     * The SQL state Postgres reports when a unique index can't be created because of duplicate rows.
+     */
+    static final String UNIQUE_VIOLATION = "23505";
+
     // Variable declarations
     /**
      * The name of the artist who performs the track (for example: Parquet Courts)
@@ -112,6 +155,50 @@ public class Track {
         return imageUrl;
     }
 
+    // Database setup
+
+    /**
+     * Creates the unique index that {@link #UPSERT_SQL} relies on, if it doesn't exist yet. Duplicate scrobbles
+     * loaded before the index existed stop it being created; they are only deleted, keeping one copy each, when asked
+     * to, and otherwise the index fails with a message saying how to go on.
+     *
+     * @param connection       the database connection, in autocommit mode.
+     * @param concurrently     whether to build the index without locking writers out, for a table that may already
+     *                         be large. Partitioned tables can't be indexed this way.
+     * @param deleteDuplicates whether to delete duplicate scrobbles if they stop the index being created.
+     * @throws SQLException throws if the index can't be created, with the SQL state of a unique violation if that is
+     *                      because of duplicates.
+     */
+    public static void createUniqueIndex(Connection connection, boolean concurrently, boolean deleteDuplicates)
+            throws SQLException {
+        String sql = concurrently ? UNIQUE_INDEX_CONCURRENTLY_SQL : UNIQUE_INDEX_SQL;
+        try (Statement statement = connection.createStatement()) {
+            // A concurrent build that failed leaves an invalid index behind, which IF NOT EXISTS would keep.
+            if (concurrently && isInvalid(statement, UNIQUE_INDEX))
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + UNIQUE_INDEX);
+            try {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                if (concurrently) statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + UNIQUE_INDEX);
+                if (!UNIQUE_VIOLATION.equals(e.getSQLState())) throw e;
+                if (!deleteDuplicates)
+                    throw new SQLException("The tracks table holds the same scrobble more than once, so the unique"
+                            + " index on artist, name and listened_at can't be created. Run again with"
+                            + " --delete-duplicates to keep one copy of each, or remove them yourself",
+                            UNIQUE_VIOLATION, e);
+                System.err.printf("%d duplicate tracks deleted\n", statement.executeUpdate(DELETE_DUPLICATES_SQL));
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private static boolean isInvalid(Statement statement, String index) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(
+                "SELECT NOT indisvalid FROM pg_index WHERE indexrelid = to_regclass('" + index + "')")) {
+            return resultSet.next() && resultSet.getBoolean(1);
+        }
+    }
+
     // Equality Methods
 
     /**
@@ -132,6 +219,17 @@ public class Track {
         return super.equals(o);
     }
 
+    /**
+     * Hashes the artist, name and time the track was listened at, which identify a scrobble. Tracks that are equal
+     * always agree on these, so the hash is consistent with {@link #equals(Object)}.
+     *
+     * @return the hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(artist, name, listenedAt);
+    }
+
     /**
      * A looser equality method. This checks only if the artist, album, and name are the same
      *
@@ -218,10 +316,20 @@ public class Track {
      * @throws SQLException throws if there's an issue preparing the insert statement.
      */
     public PreparedStatement prepareInsertStatement(Connection connection) throws SQLException {
-        String query = "INSERT INTO tracks (artist, album, name, listened_at, created_at, updated_at, url, image_url)"
-                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        PreparedStatement statement = connection.prepareStatement(query);
-        java.sql.Timestamp current = new java.sql.Timestamp((new Date()).getTime());
+        PreparedStatement statement = connection.prepareStatement(INSERT_SQL);
+        bindInsertStatement(statement, new java.sql.Timestamp((new Date()).getTime()));
+        return statement;
+    }
+
+    /**
+     * Sets the parameters of a statement prepared from {@link #INSERT_SQL} or {@link #UPSERT_SQL} to the attributes of
+     * the current track, so the same statement can be reused for many tracks.
+     *
+     * @param statement the statement prepared from {@link #INSERT_SQL} or {@link #UPSERT_SQL}.
+     * @param current   the time to record as when the row was created and updated.
+     * @throws SQLException throws if there's an issue setting the parameters.
+     */
+    public void bindInsertStatement(PreparedStatement statement, java.sql.Timestamp current) throws SQLException {
         java.sql.Timestamp sqlListenedAt = new java.sql.Timestamp(listenedAt.getTime());
         statement.setString(1, artist);
         statement.setString(2, album);
@@ -231,6 +339,5 @@ public class Track {
         statement.setTimestamp(6, current);
         statement.setString(7, url);
         statement.setString(8, imageUrl);
-        return statement;
     }
 }
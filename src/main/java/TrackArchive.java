@@ -0,0 +1,83 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The layout shared by {@link TrackArchiveWriter} and {@link TrackArchiveReader}, a compact columnar file of tracks.
+ * <p>
+ * The file starts with a header: the magic bytes {@code LFMA}, a version byte and a flags byte. Tracks follow in
+ * chunks of up to {@link TrackArchiveWriter#DEFAULT_CHUNK_SIZE}, newest first like everything else. Each chunk has a
+ * fixed size header, {@link #CHUNK_HEADER_SIZE} bytes holding the row count, the newest and oldest times in the chunk,
+ * and the raw and stored lengths of its body, so a reader after recent tracks can stop at the first chunk that is too
+ * old without decoding it. The body, deflated if {@link #FLAG_DEFLATE} is set, holds for each {@link Column} the
+ * strings first seen in the chunk, then for each column one dictionary id per row, then the times as zigzag encoded
+ * deltas in seconds. Ids count up from 1 across the whole file in the order strings are first seen; 0 stands for
+ * null.
+ */
+public final class TrackArchive {
+    /**
+     * The bytes every archive starts with.
+     */
+    static final byte[] MAGIC = {'L', 'F', 'M', 'A'};
+
+    static final byte VERSION = 1;
+
+    /**
+     * Set in the flags byte when chunk bodies are deflated.
+     */
+    static final byte FLAG_DEFLATE = 1;
+
+    static final int FILE_HEADER_SIZE = MAGIC.length + 2;
+
+    /**
+     * The row count, newest and oldest times, and the raw and stored body lengths.
+     */
+    static final int CHUNK_HEADER_SIZE = 4 + 8 + 8 + 4 + 4;
+
+    /**
+     * The dictionary encoded string columns, in the order they are stored.
+     */
+    public enum Column {
+        ARTIST, ALBUM, NAME, URL, IMAGE_URL;
+
+        String of(Track track) {
+            switch (this) {
+                case ARTIST:
+                    return track.getArtist();
+                case ALBUM:
+                    return track.getAlbum();
+                case NAME:
+                    return track.getName();
+                case URL:
+                    return track.getUrl();
+                default:
+                    return track.getImageUrl();
+            }
+        }
+    }
+
+    private TrackArchive() {
+    }
+
+    /**
+     * Reads a variable length integer written by {@link TrackArchiveWriter}: seven bits per byte, low bits first,
+     * with the high bit set on every byte but the last.
+     *
+     * @param buffer the buffer to read from.
+     * @return the value read.
+     */
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
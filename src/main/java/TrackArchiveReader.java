@@ -0,0 +1,259 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads an archive written by {@link TrackArchiveWriter}. The file is memory mapped and decoded a chunk at a time
+ * into plain arrays, one per column, so a scan over the times or the dictionary ids touches no {@link Track} objects
+ * at all. Archives are limited to 2 GB, the most a single mapping can hold.
+ */
+public class TrackArchiveReader implements Closeable {
+    private final FileChannel channel;
+    private final MappedByteBuffer file;
+
+    /**
+     * Inflates chunk bodies, or null if they are stored as they are.
+     */
+    private final Inflater inflater;
+
+    /**
+     * The strings seen so far, one list per column, where id {@code n} is at index {@code n - 1}.
+     */
+    private final List<List<String>> dictionaries;
+
+    private int rowCount;
+    private long newest;
+    private long oldest;
+    private int[][] ids;
+    private long[] listenedAt;
+    private byte[] inflated;
+
+    /**
+     * Open an archive.
+     *
+     * @param path the archive to read.
+     * @throws IOException thrown if the file can't be read or isn't an archive.
+     */
+    public TrackArchiveReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Archive is too large to map: " + path);
+            this.file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] magic = new byte[TrackArchive.MAGIC.length];
+            if (size < TrackArchive.FILE_HEADER_SIZE || !Arrays.equals(magic(magic), TrackArchive.MAGIC))
+                throw new IOException("Not a track archive: " + path);
+            if (file.get() != TrackArchive.VERSION)
+                throw new IOException("Unsupported track archive version: " + path);
+            this.inflater = (file.get() & TrackArchive.FLAG_DEFLATE) != 0 ? new Inflater() : null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        int columns = TrackArchive.Column.values().length;
+        this.dictionaries = new ArrayList<>(columns);
+        for (int i = 0; i < columns; i++)
+            dictionaries.add(new ArrayList<>());
+        this.ids = new int[columns][0];
+        this.listenedAt = new long[0];
+        this.inflated = new byte[0];
+    }
+
+    private byte[] magic(byte[] magic) {
+        file.get(magic);
+        return magic;
+    }
+
+    // Chunks
+
+    /**
+     * Decodes the next chunk.
+     *
+     * @return false if there are no more chunks.
+     * @throws IOException thrown if the chunk is corrupt.
+     */
+    public boolean nextChunk() throws IOException {
+        if (file.remaining() < TrackArchive.CHUNK_HEADER_SIZE) {
+            rowCount = 0;
+            return false;
+        }
+        rowCount = file.getInt();
+        newest = file.getLong();
+        oldest = file.getLong();
+        int rawLength = file.getInt();
+        int storedLength = file.getInt();
+        if (rowCount < 0 || storedLength < 0 || storedLength > file.remaining())
+            throw new IOException("Corrupt track archive chunk");
+
+        ByteBuffer body = file.slice();
+        body.limit(storedLength);
+        file.position(file.position() + storedLength);
+        if (inflater != null) body = inflate(body, rawLength);
+
+        try {
+            decode(body);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt track archive chunk", e);
+        }
+        return true;
+    }
+
+    private void decode(ByteBuffer body) {
+        for (List<String> dictionary : dictionaries) {
+            long count = TrackArchive.getVarLong(body);
+            for (long i = 0; i < count; i++) {
+                byte[] bytes = new byte[(int) TrackArchive.getVarLong(body)];
+                body.get(bytes);
+                dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        if (listenedAt.length < rowCount) {
+            listenedAt = new long[rowCount];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = new int[rowCount];
+        }
+        for (int[] column : ids)
+            for (int row = 0; row < rowCount; row++)
+                column[row] = (int) TrackArchive.getVarLong(body);
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+            previous += TrackArchive.unzigzag(TrackArchive.getVarLong(body));
+            listenedAt[row] = previous;
+        }
+    }
+
+    private ByteBuffer inflate(ByteBuffer stored, int rawLength) throws IOException {
+        if (inflated.length < rawLength) inflated = new byte[rawLength];
+        byte[] input = new byte[stored.remaining()];
+        stored.get(input);
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished())
+                length += inflater.inflate(inflated, length, rawLength - length);
+            if (length != rawLength)
+                throw new IOException("Corrupt track archive chunk");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt track archive chunk", e);
+        }
+        return ByteBuffer.wrap(inflated, 0, rawLength);
+    }
+
+    // Getters for the current chunk
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the time of the newest track in the current chunk.
+     *
+     * @return the time in seconds since epoch.
+     */
+    public long getNewest() {
+        return newest;
+    }
+
+    /**
+     * Gets the time of the oldest track in the current chunk.
+     *
+     * @return the time in seconds since epoch.
+     */
+    public long getOldest() {
+        return oldest;
+    }
+
+    /**
+     * Gets the times of the tracks in the current chunk. Only the first {@link #getRowCount()} are valid, and the
+     * array is reused by the next chunk.
+     *
+     * @return the times in seconds since epoch.
+     */
+    public long[] getListenedAt() {
+        return listenedAt;
+    }
+
+    /**
+     * Gets the dictionary ids of a column in the current chunk. Only the first {@link #getRowCount()} are valid, and
+     * the array is reused by the next chunk. Ids are the same across the whole archive, 0 standing for null.
+     *
+     * @param column the column.
+     * @return the ids.
+     */
+    public int[] getIds(TrackArchive.Column column) {
+        return ids[column.ordinal()];
+    }
+
+    /**
+     * Gets the number of distinct strings seen so far in a column.
+     *
+     * @param column the column.
+     * @return the highest id handed out so far.
+     */
+    public int getDictionarySize(TrackArchive.Column column) {
+        return dictionaries.get(column.ordinal()).size();
+    }
+
+    /**
+     * Looks up a string by its dictionary id.
+     *
+     * @param column the column.
+     * @param id     the id, from {@link #getIds(TrackArchive.Column)}.
+     * @return the string, or null for id 0.
+     */
+    public String getString(TrackArchive.Column column, int id) {
+        return id == 0 ? null : dictionaries.get(column.ordinal()).get(id - 1);
+    }
+
+    /**
+     * Builds a track from a row of the current chunk.
+     *
+     * @param row the row, below {@link #getRowCount()}.
+     * @return the track.
+     */
+    public Track getTrack(int row) {
+        return new Track(string(TrackArchive.Column.ARTIST, row), string(TrackArchive.Column.ALBUM, row),
+                string(TrackArchive.Column.NAME, row), new Date(listenedAt[row] * 1000L),
+                string(TrackArchive.Column.IMAGE_URL, row), string(TrackArchive.Column.URL, row));
+    }
+
+    private String string(TrackArchive.Column column, int row) {
+        return getString(column, ids[column.ordinal()][row]);
+    }
+
+    /**
+     * Reads every remaining track into a sink, newest first. The sink is not closed.
+     *
+     * @param sink the sink to write the tracks to.
+     * @return the number of tracks read.
+     * @throws IOException thrown if the archive is corrupt or the sink can't write a track.
+     */
+    public long readAll(TrackSink sink) throws IOException {
+        long count = 0;
+        while (nextChunk()) {
+            for (int row = 0; row < rowCount; row++)
+                sink.accept(getTrack(row));
+            count += rowCount;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) inflater.end();
+        channel.close();
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes tracks to a compact columnar archive, laid out as described in {@link TrackArchive}. Tracks are collected
+ * into chunks and each chunk is written through a file channel as soon as it is full, so the archive can be written
+ * while tracks are still being fetched.
+ */
+public class TrackArchiveWriter implements TrackSink {
+    /**
+     * The number of tracks in a chunk when no size is given.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final int chunkSize;
+
+    /**
+     * Compresses chunk bodies, or null if they are stored as they are.
+     */
+    private final Deflater deflater;
+
+    /**
+     * The ids handed out so far, one map per column.
+     */
+    private final List<Map<String, Integer>> dictionaries;
+
+    /**
+     * The strings first seen in the current chunk, one list per column.
+     */
+    private final List<List<byte[]>> newEntries;
+
+    /**
+     * The ids of the tracks in the current chunk, one array per column.
+     */
+    private final int[][] ids;
+
+    /**
+     * The times of the tracks in the current chunk, in seconds since epoch.
+     */
+    private final long[] listenedAt;
+
+    private int rowCount;
+
+    /**
+     * The body of the chunk being encoded.
+     */
+    private byte[] body;
+    private int bodyLength;
+
+    private long writtenTracks;
+
+    /**
+     * Create a new archive writer, replacing the file if it exists.
+     *
+     * @param path     the file to write.
+     * @param compress whether to deflate chunk bodies.
+     * @throws IOException thrown if the file can't be created.
+     */
+    public TrackArchiveWriter(Path path, boolean compress) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE), compress, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a new archive writer.
+     *
+     * @param channel   the channel to write the archive to, at its current position. It is closed with the writer.
+     * @param compress  whether to deflate chunk bodies.
+     * @param chunkSize the number of tracks in a chunk.
+     * @throws IOException thrown if the header can't be written.
+     */
+    public TrackArchiveWriter(FileChannel channel, boolean compress, int chunkSize) throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        int columns = TrackArchive.Column.values().length;
+        this.dictionaries = new ArrayList<>(columns);
+        this.newEntries = new ArrayList<>(columns);
+        for (int i = 0; i < columns; i++) {
+            dictionaries.add(new HashMap<>());
+            newEntries.add(new ArrayList<>());
+        }
+        this.ids = new int[columns][chunkSize];
+        this.listenedAt = new long[chunkSize];
+        this.body = new byte[1 << 16];
+
+        ByteBuffer header = ByteBuffer.allocate(TrackArchive.FILE_HEADER_SIZE);
+        header.put(TrackArchive.MAGIC).put(TrackArchive.VERSION).put(compress ? TrackArchive.FLAG_DEFLATE : 0);
+        header.flip();
+        writeFully(header);
+    }
+
+    /**
+     * Gets the number of tracks written to the file so far, not counting those waiting in the current chunk.
+     *
+     * @return the number of tracks written.
+     */
+    public long getWrittenTracks() {
+        return writtenTracks;
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        for (TrackArchive.Column column : TrackArchive.Column.values())
+            ids[column.ordinal()][rowCount] = idOf(column, column.of(track));
+        listenedAt[rowCount] = track.getListenedAt().getTime() / 1000L;
+        if (++rowCount == chunkSize) writeChunk();
+    }
+
+    /**
+     * Writes out the tracks collected so far as a chunk, then forces them to disk.
+     *
+     * @throws IOException thrown if the chunk can't be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeChunk();
+        } finally {
+            if (deflater != null) deflater.end();
+            channel.close();
+        }
+    }
+
+    private int idOf(TrackArchive.Column column, String value) {
+        if (value == null) return 0;
+        Map<String, Integer> dictionary = dictionaries.get(column.ordinal());
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = dictionary.size() + 1;
+            dictionary.put(value, id);
+            newEntries.get(column.ordinal()).add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    private void writeChunk() throws IOException {
+        if (rowCount == 0) return;
+        bodyLength = 0;
+        for (List<byte[]> entries : newEntries) {
+            putVarLong(entries.size());
+            for (byte[] entry : entries) {
+                putVarLong(entry.length);
+                put(entry, entry.length);
+            }
+            entries.clear();
+        }
+        for (int[] column : ids)
+            for (int row = 0; row < rowCount; row++)
+                putVarLong(column[row]);
+        long previous = 0;
+        long newest = Long.MIN_VALUE, oldest = Long.MAX_VALUE;
+        for (int row = 0; row < rowCount; row++) {
+            putVarLong(TrackArchive.zigzag(listenedAt[row] - previous));
+            previous = listenedAt[row];
+            newest = Math.max(newest, previous);
+            oldest = Math.min(oldest, previous);
+        }
+
+        byte[] stored = body;
+        int storedLength = bodyLength;
+        if (deflater != null) {
+            stored = deflate();
+            storedLength = stored.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(TrackArchive.CHUNK_HEADER_SIZE);
+        header.putInt(rowCount).putLong(newest).putLong(oldest).putInt(bodyLength).putInt(storedLength);
+        header.flip();
+        writeFully(header);
+        writeFully(ByteBuffer.wrap(stored, 0, storedLength));
+        writtenTracks += rowCount;
+        rowCount = 0;
+    }
+
+    private byte[] deflate() {
+        deflater.reset();
+        deflater.setInput(body, 0, bodyLength);
+        deflater.finish();
+        byte[] compressed = new byte[Math.max(64, bodyLength / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        return Arrays.copyOf(compressed, length);
+    }
+
+    private void putVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            body[bodyLength++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        body[bodyLength++] = (byte) value;
+    }
+
+    private void put(byte[] bytes, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, 0, body, bodyLength, length);
+        bodyLength += length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (bodyLength + extra > body.length)
+            body = Arrays.copyOf(body, Math.max(body.length * 2, bodyLength + extra));
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
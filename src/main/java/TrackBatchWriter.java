@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts tracks with JDBC batching. One statement is prepared up front and reused for every track; rows are sent to
+ * the server {@code batchSize} at a time and committed every {@code transactionSize} rows. Scrobbles already in the
+ * table are skipped, so loading the same tracks again is harmless.
+ * <p>
+ * With {@link #setRollups(TrackRollups)}, the rows each batch actually inserted are counted and the counts are added to
+ * the rollup tables just before each commit, in the same transaction.
+ */
+public class TrackBatchWriter implements TrackSink {
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final int batchSize;
+    private final int transactionSize;
+
+    /**
+     * Whether the connection was in autocommit mode before the writer took it over.
+     */
+    private final boolean previousAutoCommit;
+
+    /**
+     * The time recorded as when the rows were created and updated.
+     */
+    private final Timestamp current;
+
+    /**
+     * The number of rows added to the current batch.
+     */
+    private int batchedRows;
+
+    /**
+     * The number of rows sent since the last commit.
+     */
+    private int uncommittedRows;
+
+    /**
+     * The number of rows inserted so far, not counting scrobbles that were already in the table.
+     */
+    private long insertedRows;
+
+    /**
+     * Measures the batches sent to the database.
+     */
+    private FetchMetrics metrics;
+
+    /**
+     * Counts the inserted rows for the rollup tables, or null if they aren't kept.
+     */
+    private TrackRollups rollups;
+
+    /**
+     * The tracks in the current batch, kept only for the rollups, to tell which of them were inserted.
+     */
+    private final List<Track> batchedTracks = new ArrayList<>();
+
+    /**
+     * Create a new batch writer.
+     *
+     * @param connection      the database connection to insert on.
+     * @param batchSize       the number of rows sent to the server at once.
+     * @param transactionSize the number of rows committed at once.
+     * @throws SQLException throws if the insert statement can't be prepared.
+     */
+    public TrackBatchWriter(Connection connection, int batchSize, int transactionSize) throws SQLException {
+        if (batchSize < 1 || transactionSize < 1)
+            throw new IllegalArgumentException("batchSize and transactionSize must be positive");
+        this.connection = connection;
+        this.batchSize = batchSize;
+        this.transactionSize = transactionSize;
+        this.previousAutoCommit = connection.getAutoCommit();
+        this.current = new Timestamp(System.currentTimeMillis());
+        connection.setAutoCommit(false);
+        this.statement = connection.prepareStatement(Track.UPSERT_SQL);
+        this.metrics = new FetchMetrics();
+    }
+
+    /**
+     * Sets where the time taken by each batch is recorded.
+     *
+     * @param metrics the metrics to record in.
+     */
+    public void setMetrics(FetchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets where the inserted rows are counted for the rollup tables, which must exist.
+     *
+     * @param rollups the counts to collect in, or null to leave the rollups alone.
+     */
+    public void setRollups(TrackRollups rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * Gets the number of rows inserted so far.
+     *
+     * @return the number of rows inserted so far.
+     */
+    public long getInsertedRows() {
+        return insertedRows;
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        try {
+            track.bindInsertStatement(statement, current);
+            statement.addBatch();
+            if (rollups != null) batchedTracks.add(track);
+            if (++batchedRows >= batchSize) executeBatch();
+            if (uncommittedRows >= transactionSize) commit();
+        } catch (SQLException e) {
+            throw new IOException("Unable to insert tracks", e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            executeBatch();
+            commit();
+        } catch (SQLException e) {
+            rollbackQuietly();
+            throw new IOException("Unable to insert tracks", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            executeBatch();
+            commit();
+        } catch (SQLException e) {
+            rollbackQuietly();
+            throw new IOException("Unable to insert tracks", e);
+        } finally {
+            try {
+                statement.close();
+                connection.setAutoCommit(previousAutoCommit);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void executeBatch() throws SQLException {
+        if (batchedRows == 0) return;
+        long started = System.nanoTime();
+        int[] counts = statement.executeBatch();
+        for (int i = 0; i < counts.length; i++) {
+            insertedRows += Math.max(counts[i], 0);
+            // A count of 0 is a scrobble that was already in the table, and already counted.
+            if (rollups != null && counts[i] > 0) rollups.add(batchedTracks.get(i));
+        }
+        batchedTracks.clear();
+        metrics.recordBatch(System.nanoTime() - started, batchedRows);
+        uncommittedRows += batchedRows;
+        batchedRows = 0;
+    }
+
+    private void commit() throws SQLException {
+        if (uncommittedRows == 0) return;
+        if (rollups != null) rollups.write(connection);
+        connection.commit();
+        uncommittedRows = 0;
+    }
+
+    private void rollbackQuietly() {
+        batchedTracks.clear();
+        if (rollups != null) rollups.clear();
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * Loads tracks with PostgreSQL's {@code COPY FROM STDIN}, the fastest way to get a large backfill into the tracks
+ * table. Rows are streamed to the server as CSV and committed every {@code transactionSize} rows.
+ * <p>
+ * {@code COPY} can't skip rows that are already loaded, so rows are copied into a temporary staging table and moved
+ * into the tracks table with {@link Track#UPSERT_SQL}'s conflict rule just before each commit. With rollups, the same
+ * statement adds the rows it moved to the rollup tables.
+ */
+public class TrackCopyWriter implements TrackSink {
+    /**
+     * The columns loaded, in the order of the CSV rows.
+     */
+    private static final String COLUMNS = "artist, album, name, listened_at, created_at, updated_at, url, image_url";
+
+    /**
+     * Creates the staging table for this session, with the column types of the tracks table but none of its
+     * constraints. It is emptied by every commit.
+     */
+    private static final String CREATE_STAGING_SQL = "CREATE TEMPORARY TABLE IF NOT EXISTS tracks_staging"
+            + " ON COMMIT DELETE ROWS AS SELECT " + COLUMNS + " FROM tracks WITH NO DATA";
+
+    /**
+     * The statement that starts streaming rows into the staging table.
+     */
+    static final String COPY_SQL = "COPY tracks_staging (" + COLUMNS + ") FROM STDIN WITH (FORMAT csv)";
+
+    /**
+     * Moves the staged rows into the tracks table, skipping scrobbles that are already there.
+     */
+    private static final String MERGE_SQL = "INSERT INTO tracks (" + COLUMNS + ") SELECT " + COLUMNS
+            + " FROM tracks_staging ON CONFLICT (artist, name, listened_at) DO NOTHING";
+
+    /**
+     * Moves the staged rows like {@link #MERGE_SQL} and adds those it inserted to the rollup tables, returning how
+     * many it inserted.
+     */
+    static final String MERGE_WITH_ROLLUPS_SQL =
+            TrackRollups.countingSql(MERGE_SQL + " RETURNING artist, album, name, listened_at");
+
+    /**
+     * The number of bytes collected before they are sent to the server.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Connection connection;
+    private final CopyManager copyManager;
+    private final int transactionSize;
+    private final boolean previousAutoCommit;
+    private final String current;
+    private final StringBuilder row;
+    private final byte[] buffer;
+    private int bufferedBytes;
+
+    /**
+     * The copy in progress, or null between transactions.
+     */
+    private CopyIn copyIn;
+
+    /**
+     * The number of rows sent since the last commit.
+     */
+    private int uncommittedRows;
+
+    /**
+     * The number of rows loaded so far.
+     */
+    private long insertedRows;
+
+    /**
+     * The number of rows copied so far, including those skipped because they were already loaded.
+     */
+    private long copiedRows;
+
+    /**
+     * Measures the transactions copied into the database.
+     */
+    private FetchMetrics metrics;
+
+    /**
+     * Whether the rollup tables are kept up to date.
+     */
+    private boolean rollups;
+
+    /**
+     * Create a new copy writer.
+     *
+     * @param connection      the database connection to load on. It must be a PostgreSQL connection.
+     * @param transactionSize the number of rows committed at once.
+     * @throws SQLException throws if the connection doesn't support {@code COPY}.
+     */
+    public TrackCopyWriter(Connection connection, int transactionSize) throws SQLException {
+        if (transactionSize < 1)
+            throw new IllegalArgumentException("transactionSize must be positive");
+        this.connection = connection;
+        this.copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        this.transactionSize = transactionSize;
+        this.previousAutoCommit = connection.getAutoCommit();
+        this.current = new Timestamp(System.currentTimeMillis()).toString();
+        this.row = new StringBuilder(512);
+        this.buffer = new byte[BUFFER_SIZE];
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING_SQL);
+        }
+        connection.setAutoCommit(false);
+        this.metrics = new FetchMetrics();
+    }
+
+    /**
+     * Sets where the time taken by each transaction, from the end of the copy to the commit, is recorded.
+     *
+     * @param metrics the metrics to record in.
+     */
+    public void setMetrics(FetchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets whether the rows loaded are added to the rollup tables, which must exist, in the same transaction.
+     *
+     * @param rollups whether to keep the rollup tables up to date.
+     */
+    public void setRollups(boolean rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * Gets the number of rows loaded so far.
+     *
+     * @return the number of rows loaded so far.
+     */
+    public long getInsertedRows() {
+        return insertedRows;
+    }
+
+    /**
+     * Gets the number of rows copied so far, including those skipped because they were already loaded.
+     *
+     * @return the number of rows copied so far.
+     */
+    public long getCopiedRows() {
+        return copiedRows;
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        try {
+            if (copyIn == null) copyIn = copyManager.copyIn(COPY_SQL);
+            row.setLength(0);
+            appendCsvRow(row, track, current);
+            write(row.toString().getBytes(StandardCharsets.UTF_8));
+            if (++uncommittedRows >= transactionSize) commit();
+        } catch (SQLException e) {
+            throw new IOException("Unable to copy tracks", e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            commit();
+        } catch (SQLException e) {
+            cancelQuietly();
+            throw new IOException("Unable to copy tracks", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+        } catch (SQLException e) {
+            cancelQuietly();
+            throw new IOException("Unable to copy tracks", e);
+        } finally {
+            try {
+                connection.setAutoCommit(previousAutoCommit);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Appends a track as a CSV row in the column order of {@link #COPY_SQL}.
+     *
+     * @param row     the builder to append the row to.
+     * @param track   the track to append.
+     * @param current the time to record as when the row was created and updated.
+     */
+    static void appendCsvRow(StringBuilder row, Track track, String current) {
+        appendCsvField(row, track.getArtist()).append(',');
+        appendCsvField(row, track.getAlbum()).append(',');
+        appendCsvField(row, track.getName()).append(',');
+        appendCsvField(row, new Timestamp(track.getListenedAt().getTime()).toString()).append(',');
+        appendCsvField(row, current).append(',');
+        appendCsvField(row, current).append(',');
+        appendCsvField(row, track.getUrl()).append(',');
+        appendCsvField(row, track.getImageUrl()).append('\n');
+    }
+
+    /**
+     * Appends a quoted CSV field. A null value is left unquoted, which {@code COPY} reads as NULL.
+     */
+    private static StringBuilder appendCsvField(StringBuilder row, String value) {
+        if (value == null) return row;
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char chr = value.charAt(i);
+            if (chr == '"') row.append('"');
+            row.append(chr);
+        }
+        return row.append('"');
+    }
+
+    private void write(byte[] bytes) throws SQLException {
+        if (bufferedBytes + bytes.length > buffer.length) flushBuffer();
+        if (bytes.length > buffer.length) {
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, bufferedBytes, bytes.length);
+        bufferedBytes += bytes.length;
+    }
+
+    private void flushBuffer() throws SQLException {
+        if (bufferedBytes == 0) return;
+        copyIn.writeToCopy(buffer, 0, bufferedBytes);
+        bufferedBytes = 0;
+    }
+
+    private void commit() throws SQLException {
+        if (copyIn == null) return;
+        long started = System.nanoTime();
+        flushBuffer();
+        copiedRows += copyIn.endCopy();
+        copyIn = null;
+        try (Statement statement = connection.createStatement()) {
+            if (rollups) {
+                try (ResultSet resultSet = statement.executeQuery(MERGE_WITH_ROLLUPS_SQL)) {
+                    resultSet.next();
+                    insertedRows += resultSet.getLong(1);
+                }
+            } else {
+                insertedRows += statement.executeUpdate(MERGE_SQL);
+            }
+        }
+        connection.commit();
+        metrics.recordBatch(System.nanoTime() - started, uncommittedRows);
+        uncommittedRows = 0;
+    }
+
+    private void cancelQuietly() {
+        try {
+            if (copyIn != null && copyIn.isActive()) copyIn.cancelCopy();
+            connection.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,22 +1,43 @@
 import io.github.cdimascio.dotenv.Dotenv;
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import javax.swing.plaf.nimbus.State;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.net.URLEncoder;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.System.exit;
 
 public class TrackFetcher {
+    /**
+     * The root of the last.fm API used when none is configured.
+     */
+    public static final String DEFAULT_API_ROOT = "http://ws.audioscrobbler.com/2.0/";
+
+    /**
+     * The most tracks last.fm puts on a page, which is also the page size used unless another is set. Pages of 200
+     * take a quarter of the requests of last.fm's default of 50.
+     */
+    public static final int MAX_PAGE_SIZE = 200;
+
+    /**
+     * The root URL of the last.fm API (or a stand-in for it).
+     */
+    private final String apiRoot;
+
     /**
      * The API Key used to fetch data from the last.fm API.
      */
@@ -43,6 +64,73 @@ public class TrackFetcher {
      */
     private boolean keepProcessing;
 
+    /**
+     * The time of the newest track written by the current fetch, or null if none has been.
+     */
+    private Date newestWritten;
+
+    /**
+     * The number of tracks written to a sink so far.
+     */
+    private long writtenCount;
+
+    /**
+     * The maximum number of pages fetched at the same time.
+     */
+    private int concurrency;
+
+    /**
+     * Limits the rate of requests made to the API. It is shared by every fetch thread and slows them all down
+     * when last.fm throttles us.
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * Decides how failed requests are retried.
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * The pages that couldn't be fetched even after retrying.
+     */
+    private final List<Integer> failedPages;
+
+    /**
+     * Parses pages of recent tracks. It is thread safe, so it is shared by every fetch thread, and so is the
+     * dictionary through which the fetched tracks share their strings.
+     */
+    private final RecentTracksParser parser;
+
+    /**
+     * Makes the requests to the API. It may be shared with other fetchers.
+     */
+    private LastFmHttpClient httpClient;
+
+    /**
+     * Records the pages written so far, or null if the fetch isn't checkpointed.
+     */
+    private FetchCheckpoint checkpoint;
+
+    /**
+     * The number of scrobbles aimed for in each time window, or 0 to fetch the whole range as one window.
+     */
+    private int windowSize;
+
+    /**
+     * The number of tracks asked for on each page.
+     */
+    private int pageSize;
+
+    /**
+     * Measures the pages fetched.
+     */
+    private FetchMetrics metrics;
+
+    /**
+     * The request URL up to the window and page, built once since only those change between requests.
+     */
+    private final String urlPrefix;
+
     private final PostgresConnection postgresConnection;
 
     // Constructors
@@ -50,19 +138,53 @@ public class TrackFetcher {
     /**
      * Create a new track fetcher.
      *
+     * @param apiRoot            the root URL of the last.fm API.
+     * @param apiKey             the API key used to fetch data.
+     * @param username           the user whose scrobbles are fetched.
      * @param postgresConnection postgres database connection
      * @param lastTime           only fetch songs scrobbled after this time.
      */
-    public TrackFetcher(PostgresConnection postgresConnection, Date lastTime) {
-        Dotenv dotenv = Dotenv.load();
+    public TrackFetcher(String apiRoot, String apiKey, String username, PostgresConnection postgresConnection, Date lastTime) {
+        this.apiRoot = apiRoot;
         this.lastTime = lastTime;
-        this.apiKey = dotenv.get("API_KEY");
-        this.username = dotenv.get("USERNAME");
+        this.apiKey = apiKey;
+        this.username = username;
         this.tracks = new ArrayList<>();
         this.keepProcessing = true;
+        this.concurrency = 1;
+        this.pageSize = MAX_PAGE_SIZE;
+        this.rateLimiter = RateLimiter.unlimited();
+        this.retryPolicy = RetryPolicy.defaults();
+        this.failedPages = Collections.synchronizedList(new ArrayList<>());
+        this.parser = new RecentTracksParser();
+        this.httpClient = new LastFmHttpClient();
+        this.urlPrefix = buildUrlPrefix();
+        this.metrics = new FetchMetrics();
         this.postgresConnection = postgresConnection;
     }
 
+    /**
+     * Create a new track fetcher.
+     *
+     * @param dotenv             the environment holding the API key and username.
+     * @param postgresConnection postgres database connection
+     * @param lastTime           only fetch songs scrobbled after this time.
+     */
+    private TrackFetcher(Dotenv dotenv, PostgresConnection postgresConnection, Date lastTime) {
+        this(dotenv.get("API_ROOT") == null ? DEFAULT_API_ROOT : dotenv.get("API_ROOT"),
+                dotenv.get("API_KEY"), dotenv.get("USERNAME"), postgresConnection, lastTime);
+    }
+
+    /**
+     * Create a new track fetcher.
+     *
+     * @param postgresConnection postgres database connection
+     * @param lastTime           only fetch songs scrobbled after this time.
+     */
+    public TrackFetcher(PostgresConnection postgresConnection, Date lastTime) {
+        this(Dotenv.load(), postgresConnection, lastTime);
+    }
+
     /**
      * Create a new track fetcher
      *
@@ -85,129 +207,515 @@ public class TrackFetcher {
     }
 
     /**
-     * Fetch new tracks from the last.fm API.
+     * Creates a fetcher for another user that fetches the same way as this one and shares its HTTP client, rate
+     * limit and retry policy, so that many users can be fetched side by side within one API budget. The checkpoint
+     * is not shared.
+     *
+     * @param username the user whose scrobbles are fetched.
+     * @param lastTime only fetch songs scrobbled after this time.
+     * @return the new fetcher.
+     */
+    public TrackFetcher forUser(String username, Date lastTime) {
+        TrackFetcher fetcher = new TrackFetcher(apiRoot, apiKey, username, null, lastTime);
+        fetcher.concurrency = concurrency;
+        fetcher.rateLimiter = rateLimiter;
+        fetcher.retryPolicy = retryPolicy;
+        fetcher.httpClient = httpClient;
+        fetcher.windowSize = windowSize;
+        fetcher.pageSize = pageSize;
+        fetcher.metrics = metrics;
+        return fetcher;
+    }
+
+    // Getters and setters
+
+    /**
+     * Gets the tracks fetched so far, newest first.
+     *
+     * @return the tracks fetched so far.
      */
-    public void fetchNewTracks() {
-        int totalPages = fetchTotalPages();
+    public ArrayList<Track> getTracks() {
+        return tracks;
+    }
 
-        System.out.printf("Total pages fetched: %d\n", totalPages);
-        for (int pageNumber = 1; keepProcessing && pageNumber <= totalPages; pageNumber++) {
-            JSONArray trackArray = fetchTracks(pageNumber);
-            processTracks(trackArray);
-        }
+    /**
+     * Gets the time after which tracks are fetched, which polling moves up as new tracks are written.
+     *
+     * @return the time after which tracks are fetched, or null for since epoch.
+     */
+    public Date getLastTime() {
+        return lastTime;
     }
 
-    // Fetchers
+    /**
+     * Sets the time after which tracks are fetched, for example to poll again from where a failed write started.
+     *
+     * @param lastTime only fetch songs scrobbled after this time.
+     */
+    public void setLastTime(Date lastTime) {
+        this.lastTime = lastTime;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Sets the maximum number of pages fetched at the same time. A concurrency of 1 fetches one page at a time.
+     *
+     * @param concurrency the maximum number of pages fetched at the same time.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Gets the client making requests to the API.
+     *
+     * @return the client making requests to the API.
+     */
+    public LastFmHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Sets the client making requests to the API, for example to share one configured with other timeouts.
+     *
+     * @param httpClient the client making requests to the API.
+     */
+    public void setHttpClient(LastFmHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Sets a ceiling on the number of requests made to the API per second.
+     *
+     * @param requestsPerSecond the maximum number of requests per second, or 0 for no limit.
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.rateLimiter = requestsPerSecond > 0 ? new RateLimiter(requestsPerSecond) : RateLimiter.unlimited();
+    }
+
+    /**
+     * Sets how failed requests are retried.
+     *
+     * @param retryPolicy the retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets how failed requests are retried, including how many retries were made.
+     *
+     * @return the retry policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Splits the fetch into time windows of about the given number of scrobbles. Each window is paged through on
+     * its own, so a deep history becomes many short cursors that are fetched side by side and don't drift as new
+     * scrobbles arrive.
+     *
+     * @param windowSize the number of scrobbles aimed for in each window, or 0 to fetch the range as one window.
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 0)
+            throw new IllegalArgumentException("windowSize can't be negative");
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Sets the number of tracks asked for on each page. A fetch checkpointed with another page size is started over.
+     *
+     * @param pageSize the number of tracks, from 1 to {@link #MAX_PAGE_SIZE}.
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("pageSize must be between 1 and " + MAX_PAGE_SIZE);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Checkpoints the fetch, so that a fetch that stopped part way resumes where it left off. A page is recorded as
+     * done once the sink has made its tracks durable.
+     *
+     * @param checkpoint the checkpoint to resume from and record progress in.
+     */
+    public void setCheckpoint(FetchCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
 
     /**
-     * Fetches the total number of pages.
+     * Gets where the time taken by each page is recorded.
      *
-     * @param retryCount which retry attempt this fetch attempt is on.
-     * @return the total number of pages of a user's last.fm scrobbles.
+     * @return the metrics.
      */
-    private int fetchTotalPages(int retryCount) {
-        System.out.println("fetching total pages...");
-        int totalPages = 0;
+    public FetchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets where the time taken by each page is recorded, for example to share them between fetchers.
+     *
+     * @param metrics the metrics to record in.
+     */
+    public void setMetrics(FetchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the pages that couldn't be fetched even after retrying. Their tracks are missing from the output.
+     *
+     * @return the page numbers that failed, in no particular order.
+     */
+    public List<Integer> getFailedPages() {
+        synchronized (failedPages) {
+            return new ArrayList<>(failedPages);
+        }
+    }
+
+    /**
+     * Fetch new tracks from the last.fm API and append them onto {@link #tracks}.
+     */
+    public void fetchNewTracks() {
         try {
-            JSONObject obj = readJsonFromUrl(generateUrl(1));
-            totalPages = obj.getJSONObject("recenttracks")
-                    .getJSONObject("@attr")
-                    .getInt("totalPages");
+            fetchNewTracks(tracks::add);
         } catch (IOException e) {
-            if (retryCount < 5) {
-                System.out.printf("Fetch retry number %d\n", ++retryCount);
-                return fetchTotalPages(retryCount);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Fetch new tracks from the last.fm API and hand them to a sink as each page arrives, newest first. The sink is
+     * not closed.
+     *
+     * @param sink the sink to write the tracks to.
+     * @throws IOException thrown if the sink can't write a track, or if the number of pages can't be fetched.
+     */
+    public void fetchNewTracks(TrackSink sink) throws IOException {
+        fetchNewTracks(sink, null);
+    }
+
+    /**
+     * Fetches new tracks, starting from the first page of the range when it has already been fetched.
+     *
+     * @param sink  the sink to write the tracks to.
+     * @param first the first page of everything scrobbled after {@link #lastTime}, or null to fetch it.
+     * @throws IOException thrown if the sink can't write a track, or if the number of pages can't be fetched.
+     */
+    private void fetchNewTracks(TrackSink sink, RecentTracksPage first) throws IOException {
+        keepProcessing = true;
+        failedPages.clear();
+        TimeWindow range = checkpoint != null
+                ? beginCheckpoint()
+                : new TimeWindow(lastTimeSeconds(), windowSize > 0 ? System.currentTimeMillis() / 1000L : 0);
+        ExecutorService executor = concurrency > 1 ? newExecutor() : null;
+        try {
+            List<PageRequest> requests = pendingRequests(planRequests(range, first, executor));
+            if (executor != null) {
+                fetchPagesConcurrently(requests, sink, executor);
             } else {
-                e.printStackTrace();
-                System.err.println("Unable to fetch total pages");
-                exit(2);
+                for (int i = 0; keepProcessing && i < requests.size(); i++) {
+                    PageRequest request = requests.get(i);
+                    processTracks(request, fetchTracks(request), sink);
+                    completePage(request, sink);
+                }
             }
+        } finally {
+            if (executor != null) executor.shutdownNow();
+        }
+        // Once everything has been written the next run starts afresh; failed pages are left for it to retry.
+        if (checkpoint != null && failedPages.isEmpty())
+            sink.whenDurable(() -> updateCheckpoint(checkpoint::delete));
+    }
+
+    /**
+     * Fetches the tracks scrobbled since the last poll and hands them to a sink, newest first, for keeping the
+     * database up to date. Usually that is a single request for the first page after {@link #lastTime}, which holds
+     * every new track; only when more than a page has piled up, say after a pause, are the rest fetched the usual
+     * way, carrying on from the page already fetched. Once the tracks are handed to the sink {@link #lastTime} moves up
+     * to the newest of them, so the next poll starts there. The sink is not closed or flushed, so a caller whose sink
+     * then fails to make the tracks durable should set the last time back, as {@link SyncDaemon} does.
+     *
+     * @param sink the sink to write the tracks to.
+     * @return the number of tracks written.
+     * @throws IOException thrown if the first page can't be fetched, or if the sink can't write a track.
+     */
+    public long pollNewTracks(TrackSink sink) throws IOException {
+        long previousCount = writtenCount;
+        newestWritten = null;
+        TimeWindow range = new TimeWindow(lastTimeSeconds(), 0);
+        RecentTracksPage first = fetchFirstPage(range);
+        if (first.getTotalPages() > 1) {
+            // A windowed or checkpointed fetch pages through other ranges, so the page only helps a plain one.
+            fetchNewTracks(sink, windowSize == 0 && checkpoint == null ? first : null);
+        } else {
+            keepProcessing = true;
+            failedPages.clear();
+            processTracks(new PageRequest(1, range, 1), first.getTracks(), sink);
         }
-        return totalPages;
+        // A failed page leaves a gap, so the next poll starts from the same time to fill it in.
+        if (newestWritten != null && failedPages.isEmpty()) lastTime = newestWritten;
+        return writtenCount - previousCount;
     }
 
     /**
-     * Fetches the total number of pages.
+     * Resumes the fetch recorded in {@link #checkpoint}, or starts recording a new one. A resumed fetch keeps its
+     * window, since the tracks written so far may already have moved the latest scrobble in the database past it.
      *
-     * @return the total number of pages of a user's last.fm scrobbles.
+     * @return the range of scrobble times to fetch.
+     * @throws IOException thrown if the checkpoint can't be saved.
      */
-    private int fetchTotalPages() {
-        return fetchTotalPages(0);
+    private TimeWindow beginCheckpoint() throws IOException {
+        if (checkpoint.isResumableFor(username)) {
+            lastTime = new Date(checkpoint.getFrom() * 1000L);
+            System.err.printf("Resuming from checkpoint, %d pages already written\n", checkpoint.getCompletedCount());
+        } else {
+            checkpoint.begin(username, lastTimeSeconds(), System.currentTimeMillis() / 1000L);
+        }
+        return new TimeWindow(checkpoint.getFrom(), checkpoint.getTo());
     }
 
     /**
-     * Fetch a page of tracks from the last.fm API.
+     * Works out every page to fetch, newest first. Without a {@link #windowSize} the range is paged through as one
+     * window, planned from its first page, which is then handed over rather than fetched again; otherwise it is split
+     * into windows by scrobble density, or into the windows a resumed fetch was split into.
      *
-     * @param pageNumber the page number to fetch.
-     * @param retryCount which retry attempt this fetch attempt is on.
-     * @return an array of JSON track objects
+     * @param range    the range of scrobble times to fetch.
+     * @param first    the first page of the range if it has already been fetched, or null.
+     * @param executor runs the requests counting windows, or null to make them one after another.
+     * @return the pages to fetch, numbered from 1 in order.
+     * @throws IOException thrown if the range can't be counted.
+     */
+    private List<PageRequest> planRequests(TimeWindow range, RecentTracksPage first, ExecutorService executor)
+            throws IOException {
+        List<PageRequest> requests = new ArrayList<>();
+        if (windowSize == 0) {
+            if (first == null) first = fetchFirstPage(range);
+            addRequests(requests, range, first.getTotalPages());
+            if (!requests.isEmpty()) requests.set(0, requests.get(0).withTracks(first.getTracks()));
+            System.err.printf("Total pages fetched: %d\n", requests.size());
+            return requests;
+        }
+
+        List<TimeWindow> windows = checkpoint == null ? Collections.<TimeWindow>emptyList() : checkpoint.getWindows();
+        if (windows.isEmpty()) {
+            FetchPlanner planner = new FetchPlanner(this::fetchWindowPage, windowSize, executor);
+            windows = planner.plan(range);
+            if (checkpoint != null) checkpoint.setWindows(windows);
+            System.err.printf("Split into %d windows with %d requests\n", windows.size(), planner.getProbeCount());
+        }
+        for (TimeWindow window : windows)
+            addRequests(requests, window, window.getPageCount(pageSize));
+        System.err.printf("Total pages fetched: %d\n", requests.size());
+        return requests;
+    }
+
+    private static void addRequests(List<PageRequest> requests, TimeWindow window, int pages) {
+        for (int page = 1; page <= pages; page++)
+            requests.add(new PageRequest(requests.size() + 1, window, page));
+    }
+
+    /**
+     * Lists the pages still to be fetched, skipping the ones the checkpoint records as written.
+     *
+     * @param requests every page of the fetch.
+     * @return the pages to fetch, in order.
+     * @throws IOException thrown if the checkpoint can't be saved.
+     */
+    private List<PageRequest> pendingRequests(List<PageRequest> requests) throws IOException {
+        if (checkpoint == null) return requests;
+        if (!checkpoint.setTotalPages(requests.size()))
+            System.err.println("The number of pages changed since the checkpoint was saved, fetching every page again");
+        List<PageRequest> pending = new ArrayList<>(requests.size());
+        for (PageRequest request : requests)
+            if (!checkpoint.isCompleted(request.number))
+                pending.add(request);
+        return pending;
+    }
+
+    /**
+     * Records a page in the checkpoint once the sink has made its tracks durable. Failed pages are not recorded, so
+     * the next run fetches them again.
+     *
+     * @param request the page.
+     * @param sink    the sink the page's tracks were written to.
+     * @throws IOException thrown if the sink can't make the tracks durable.
+     */
+    private void completePage(PageRequest request, TrackSink sink) throws IOException {
+        if (checkpoint == null || failedPages.contains(request.number)) return;
+        sink.whenDurable(() -> updateCheckpoint(() -> checkpoint.complete(request.number)));
+    }
+
+    /**
+     * A change to the checkpoint, which saves it.
      */
-    private JSONArray fetchTracks(int pageNumber, int retryCount) {
-        JSONArray tracks = null;
-        System.out.printf("Fetching page %d\n", pageNumber);
+    private interface CheckpointUpdate {
+        void apply() throws IOException;
+    }
+
+    /**
+     * Updates the checkpoint from a callback that can't throw checked exceptions.
+     */
+    private static void updateCheckpoint(CheckpointUpdate update) {
         try {
-            JSONObject obj = readJsonFromUrl(generateUrl(pageNumber));
-            tracks = obj.getJSONObject("recenttracks").getJSONArray("track");
+            update.apply();
         } catch (IOException e) {
-            if (retryCount < 5) {
-                System.out.printf("Fetch retry number %d\n", ++retryCount);
-                return fetchTracks(pageNumber, retryCount);
-            } else {
-                e.printStackTrace();
-                System.err.printf("Unable to fetch page %d\n", pageNumber);
-                exit(2);
+            throw new UncheckedIOException("Unable to save the checkpoint", e);
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "track-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fetches up to {@link #concurrency} pages at once while processing them strictly in order, so that the sink
+     * receives tracks exactly as the sequential loop would hand them over. Once a track older than {@link #lastTime}
+     * is seen no further pages are requested and the pages still in flight are dropped.
+     *
+     * @param requests the pages to fetch, in order.
+     * @param sink     the sink to write the tracks to.
+     * @param executor the threads to fetch on.
+     * @throws IOException thrown if the sink can't write a track.
+     */
+    private void fetchPagesConcurrently(List<PageRequest> requests, TrackSink sink, ExecutorService executor)
+            throws IOException {
+        Deque<Future<List<Track>>> inFlight = new ArrayDeque<>();
+        int nextIndex = 0;
+        int processedIndex = 0;
+        try {
+            while (keepProcessing && processedIndex < requests.size()) {
+                for (; nextIndex < requests.size() && inFlight.size() < concurrency; nextIndex++) {
+                    PageRequest request = requests.get(nextIndex);
+                    inFlight.addLast(executor.submit(() -> fetchTracks(request)));
+                }
+                PageRequest request = requests.get(processedIndex++);
+                processTracks(request, awaitPage(inFlight.removeFirst()), sink);
+                completePage(request, sink);
             }
+        } finally {
+            inFlight.forEach(page -> page.cancel(true));
         }
-        return tracks;
     }
 
     /**
-     * Fetch a page of tracks from the last.fm API.
+     * Waits for a page fetched in the background.
      *
-     * @param pageNumber the page number to fetch.
-     * @return an array of JSON track objects
+     * @param page the pending page.
+     * @return the tracks on the page.
      */
-    private JSONArray fetchTracks(int pageNumber) {
-        return fetchTracks(pageNumber, 0);
+    private List<Track> awaitPage(Future<List<Track>> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching tracks", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to fetch tracks", e.getCause());
+        }
     }
 
-    // Processors
+    // Fetchers
 
     /**
-     * Processes a JSON array of tracks by appending the tracks fetched onto {@link #tracks}.
+     * Fetches a page of a window, retrying it if need be. A page kept in the response cache is read without waiting
+     * on the rate limiter, since it makes no request.
      *
-     * @param trackArray an array of JSON track objects to parse.
+     * @param window the window.
+     * @param page   the page number, starting at 1.
+     * @param limit  the number of tracks per page, or 0 for last.fm's default.
+     * @return the page.
+     * @throws IOException thrown if the page can't be fetched even after retrying.
      */
-    private void processTracks(JSONArray trackArray) {
-        int length = trackArray.length();
+    private RecentTracksPage fetchWindowPage(TimeWindow window, int page, int limit) throws IOException {
+        URL url = generateUrl(window, page, limit);
+        RecentTracksPage cached = httpClient.getCached(url, this::parsePage);
+        if (cached != null) return cached;
+        return retryPolicy.call(() -> httpClient.request(url, this::parsePage), rateLimiter);
+    }
 
-        for (int i = 0; keepProcessing && i < length; i++)
-            processAndAppendTrack(trackArray.getJSONObject(i));
+    /**
+     * Fetches the first page of a range, whose attributes tell how many pages follow.
+     *
+     * @param range the range.
+     * @return the page.
+     * @throws IOException thrown if the page can't be fetched even after retrying.
+     */
+    private RecentTracksPage fetchFirstPage(TimeWindow range) throws IOException {
+        long started = System.nanoTime();
+        RecentTracksPage first = fetchWindowPage(range, 1, pageSize);
+        metrics.recordPage(System.nanoTime() - started, first.getTracks().size());
+        return first;
+    }
+
+    /**
+     * Fetch a page of tracks from the last.fm API, unless it was fetched while planning. A page that can't be fetched
+     * even after retrying is recorded in {@link #failedPages} and treated as empty, so one bad page doesn't stop the
+     * rest from being fetched.
+     *
+     * @param request the page to fetch.
+     * @return the tracks on the page, newest first.
+     */
+    private List<Track> fetchTracks(PageRequest request) {
+        if (request.tracks != null) return request.tracks;
+        long started = System.nanoTime();
+        try {
+            List<Track> pageTracks = fetchWindowPage(request.window, request.page, pageSize).getTracks();
+            metrics.recordPage(System.nanoTime() - started, pageTracks.size());
+            return pageTracks;
+        } catch (IOException e) {
+            // A page cancelled after the fetch stopped early is no longer wanted, so it hasn't failed.
+            if (Thread.currentThread().isInterrupted()) return Collections.emptyList();
+            System.err.printf("Unable to fetch page %d: %s\n", request.number, e.getMessage());
+            metrics.recordFailedPage();
+            failedPages.add(request.number);
+            return Collections.emptyList();
+        }
     }
 
+    // Processors
+
     /**
-     * Processes a JSON track object and append it to {@link #tracks}.
+     * Processes a page of tracks by writing the tracks scrobbled after {@link #lastTime} to a sink. Tracks just
+     * outside the page's window, which are requested to be safe at the edges, are left for the neighbouring window.
      *
-     * @param trackObject the JSON track object to parse.
+     * @param request    the page the tracks are on.
+     * @param pageTracks the tracks on the page, newest first.
+     * @param sink       the sink to write the tracks to.
+     * @throws IOException thrown if the sink can't write a track.
      */
-    private void processAndAppendTrack(JSONObject trackObject) {
-        Track track = constructTrack(trackObject);
-        if (keepProcessing && track != null)
-            tracks.add(track);
+    private void processTracks(PageRequest request, List<Track> pageTracks, TrackSink sink) throws IOException {
+        int length = pageTracks.size();
+
+        for (int i = 0; keepProcessing && i < length; i++)
+            if (request.window.contains(pageTracks.get(i).getListenedAt()))
+                processAndAppendTrack(pageTracks.get(i), sink);
     }
 
-    private Track constructTrack(JSONObject trackObject) {
-        if (!trackObject.has("date")) return null;
-        String artist = trackObject.getJSONObject("artist").getString("#text");
-        String album = trackObject.getJSONObject("album").getString("#text");
-        String imageUrl = trackObject.getJSONArray("image").getJSONObject(3).getString("#text");
-        long uts = trackObject.getJSONObject("date").getLong("uts");
-        Date listenedAt = new Date(uts * 1000L);
+    /**
+     * Writes a track to a sink if it was scrobbled after {@link #lastTime}, and stops processing otherwise.
+     *
+     * @param track the track to write.
+     * @param sink  the sink to write the track to.
+     * @throws IOException thrown if the sink can't write the track.
+     */
+    private void processAndAppendTrack(Track track, TrackSink sink) throws IOException {
         if (lastTime == null) lastTime = new Date(0);
-        keepProcessing = listenedAt.after(lastTime);
-        String name = trackObject.getString("name");
-        String url = trackObject.getString("url");
-        return new Track(artist, album, name, listenedAt, imageUrl, url);
+        keepProcessing = track.getListenedAt().after(lastTime);
+        if (!keepProcessing) return;
+        sink.accept(track);
+        writtenCount++;
+        if (newestWritten == null || track.getListenedAt().after(newestWritten)) newestWritten = track.getListenedAt();
     }
 
     // IO/SQL operations
@@ -218,33 +726,56 @@ public class TrackFetcher {
      * @param writer the writer to write the tracks to in JSON.
      */
     public void dumpTracks(PrintWriter writer) {
-        JSONArray tracks = new JSONArray(this.tracks.stream().map(Track::toJsonObject).toArray());
-        writer.println(tracks);
-        writer.close();
+        writeTracks(new JsonTrackSink(writer));
+    }
+
+    /**
+     * Writes all of the tracks stored in {@link #tracks} to a binary columnar archive.
+     *
+     * @param path     the file to write the archive to.
+     * @param compress whether to deflate the archive.
+     */
+    public void archiveTracks(Path path, boolean compress) {
+        try {
+            writeTracks(new TrackArchiveWriter(path, compress));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void insertTracks() {
-        tracks.forEach(track -> {
-            try {
-                track.insertToDatabase(postgresConnection);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        });
+        try {
+            writeTracks(new TrackBatchWriter(postgresConnection.getConnection(), 500, 10000));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
     }
 
+    /**
+     * Writes all of the tracks stored in {@link #tracks} to a sink, then closes it.
+     *
+     * @param sink the sink to write the tracks to.
+     */
+    private void writeTracks(TrackSink sink) {
+        try (TrackSink closingSink = sink) {
+            for (Track track : tracks)
+                closingSink.accept(track);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deletes every track, and the rollups counting them, with {@code TRUNCATE} rather than a {@code DELETE} that
+     * would take long and leave a bloated table behind.
+     */
     public void deleteTracks() {
-        String sql = "DELETE FROM tracks";
-        Connection connection = postgresConnection.getConnection();
-        int rows = 0;
         try {
-            Statement statement = connection.createStatement();
-            rows = statement.executeUpdate(sql);
+            TrackSchema.truncate(postgresConnection.getConnection());
         } catch (SQLException e) {
             e.printStackTrace();
             exit(1);
         }
-        System.out.println(rows);
     }
 
     public void selectMaxLastTime() {
@@ -265,40 +796,79 @@ public class TrackFetcher {
     // Helpers
 
     /**
-     * Constructs a string from a reader.
+     * Parses a page of recent tracks as the response streams in.
      *
-     * @param reader the reader from which to read the string.
-     * @return the string version of the reader after being read until {@code EOF}.
-     * @throws IOException thrown if the reader can't read properly.
+     * @param stream the response body.
+     * @return the page parsed from the response.
+     * @throws IOException thrown if the response can't be read or parsed.
      */
-    private String buildString(Reader reader) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        int chr;
-        while ((chr = reader.read()) != -1) builder.append((char) chr);
-        return builder.toString();
+    private RecentTracksPage parsePage(InputStream stream) throws IOException {
+        long started = System.nanoTime();
+        try {
+            return parser.parse(stream);
+        } finally {
+            metrics.recordParse(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Builds the URL of a page of a window. The window is widened by a second at the start, so its edges are
+     * included whether last.fm treats {@code from} and {@code to} as inclusive or not; the extra tracks are dropped
+     * by {@link #processTracks(PageRequest, List, TrackSink)}.
+     */
+    private URL generateUrl(TimeWindow window, int page, int limit) throws MalformedURLException {
+        StringBuilder url = new StringBuilder(urlPrefix);
+        if (window.getFrom() > 0) url.append("&from=").append(window.getFrom() - 1);
+        if (window.getTo() > 0) url.append("&to=").append(window.getTo());
+        if (limit > 0) url.append("&limit=").append(limit);
+        return new URL(url.append("&page=").append(page).toString());
+    }
+
+    private long lastTimeSeconds() {
+        return lastTime == null ? 0 : lastTime.getTime() / 1000L;
     }
 
     /**
-     * Gets a JSON object from a URL.
+     * Builds the part of the request URL shared by every page, with the parameters encoded.
      *
-     * @param url the url from which to fetch and read the JSON object.
-     * @return A JSON Object parsed from the provided endpoint.
-     * @throws IOException thrown if the url can't open a stream or if the reader can't read properly.
+     * @return the request URL up to the window and page parameters.
      */
-    private JSONObject readJsonFromUrl(URL url) throws IOException {
-        // Largely adapted from:
-        // https://stackoverflow.com/questions/4308554/simplest-way-to-read-json-from-a-url-in-java
-        InputStream stream = url.openStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
-        return new JSONObject(buildString(reader));
+    private String buildUrlPrefix() {
+        try {
+            return apiRoot + "?method=user.getrecenttracks&format=json"
+                    + "&user=" + URLEncoder.encode(username == null ? "" : username, "UTF-8")
+                    + "&api_key=" + URLEncoder.encode(apiKey == null ? "" : apiKey, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
+    /**
+     * A page of a window, numbered by its place in the whole fetch.
+     */
+    private static class PageRequest {
+        private final int number;
+        private final TimeWindow window;
+        private final int page;
+
+        /**
+         * The tracks on the page if it was fetched while planning, or null.
+         */
+        private final List<Track> tracks;
+
+        PageRequest(int number, TimeWindow window, int page) {
+            this(number, window, page, null);
+        }
+
+        private PageRequest(int number, TimeWindow window, int page, List<Track> tracks) {
+            this.number = number;
+            this.window = window;
+            this.page = page;
+            this.tracks = tracks;
+        }
 
-    private URL generateUrl(int pageNumber) throws MalformedURLException {
-        String str = String.format(
-                "http://ws.audioscrobbler.com/2.0/?method=user.getrecenttracks&user=%s&api_key=%s&format=json&page=%d",
-                this.username, this.apiKey, pageNumber
-        );
-        return new URL(str);
+        PageRequest withTracks(List<Track> tracks) {
+            return new PageRequest(number, window, page, tracks);
+        }
     }
 }
@@ -0,0 +1,232 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Serializes tracks as JSON without reflection. Each track is written straight into a character buffer that is handed
+ * to the underlying writer in large blocks, so nothing but the output itself is built per track.
+ * <p>
+ * The output is the same, character for character, as {@code new JSONObject(track).toString()}: the same key order,
+ * null fields left out, {@code listenedAt} as {@link java.util.Date#toString()} and strings escaped the way
+ * {@link org.json.JSONObject#quote(String)} escapes them. Written tracks, in an array or NDJSON, then also carry the
+ * time as {@code uts}, in seconds since epoch, since {@code listenedAt} names its time zone ambiguously and can't be
+ * read back exactly.
+ */
+public class TrackJsonWriter implements Closeable, Flushable {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private final char[] buffer;
+    private int length;
+
+    /**
+     * Create a new JSON writer.
+     *
+     * @param writer the writer to write to. It is closed when this writer is closed.
+     */
+    public TrackJsonWriter(Writer writer) {
+        this(writer, 1 << 13);
+    }
+
+    private TrackJsonWriter(Writer writer, int bufferSize) {
+        this.writer = writer;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Serializes a track to a string, the reflection free equivalent of {@code new JSONObject(track).toString()}.
+     *
+     * @param track the track to serialize.
+     * @return the JSON object.
+     */
+    public static String toJson(Track track) {
+        StringBuilder json = new StringBuilder(512);
+        appendTrack(json, track, false);
+        return json.toString();
+    }
+
+    /**
+     * Writes a track as a JSON object, with its time as {@code uts}.
+     *
+     * @param track the track to write.
+     * @throws IOException thrown if the track can't be written.
+     */
+    public void writeTrack(Track track) throws IOException {
+        writeTrack(track, true);
+    }
+
+    /**
+     * Writes a track as a JSON object, with its time as {@code uts}, followed by a line break, one line of an NDJSON
+     * file.
+     *
+     * @param track the track to write.
+     * @throws IOException thrown if the track can't be written.
+     */
+    public void writeLine(Track track) throws IOException {
+        writeTrack(track, true);
+        write('\n');
+    }
+
+    /**
+     * Writes a single character, such as the brackets and commas around an array of tracks.
+     *
+     * @param chr the character to write.
+     * @throws IOException thrown if the character can't be written.
+     */
+    public void write(char chr) throws IOException {
+        if (length == buffer.length) flushBuffer();
+        buffer[length++] = chr;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeTrack(Track track, boolean withUts) throws IOException {
+        // The keys come in the order org.json's HashMap iterates them, which the dump format has always used.
+        boolean first = true;
+        first = writeField("artist", track.getArtist(), first);
+        first = writeField("album", track.getAlbum(), first);
+        first = writeField("listenedAt", track.getListenedAt() == null ? null : track.getListenedAt().toString(), first);
+        first = writeField("imageUrl", track.getImageUrl(), first);
+        first = writeField("name", track.getName(), first);
+        first = writeField("url", track.getUrl(), first);
+        if (withUts && track.getListenedAt() != null) {
+            writeRaw(first ? "{\"uts\":" : ",\"uts\":");
+            writeRaw(Long.toString(track.getListenedAt().getTime() / 1000L));
+            first = false;
+        }
+        if (first) write('{');
+        write('}');
+    }
+
+    private boolean writeField(String key, String value, boolean first) throws IOException {
+        if (value == null) return first;
+        write(first ? '{' : ',');
+        write('"');
+        writeRaw(key);
+        writeRaw("\":");
+        writeQuoted(value);
+        return false;
+    }
+
+    private void writeRaw(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++)
+            write(value.charAt(i));
+    }
+
+    private void writeQuoted(String value) throws IOException {
+        write('"');
+        char previous = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char chr = value.charAt(i);
+            String escape = escape(chr, previous);
+            if (escape == null) {
+                write(chr);
+            } else if (escape.isEmpty()) {
+                writeUnicodeEscape(chr);
+            } else {
+                writeRaw(escape);
+            }
+            previous = chr;
+        }
+        write('"');
+    }
+
+    private void writeUnicodeEscape(char chr) throws IOException {
+        write('\\');
+        write('u');
+        write(HEX[(chr >> 12) & 0xf]);
+        write(HEX[(chr >> 8) & 0xf]);
+        write(HEX[(chr >> 4) & 0xf]);
+        write(HEX[chr & 0xf]);
+    }
+
+    private void flushBuffer() throws IOException {
+        if (length == 0) return;
+        writer.write(buffer, 0, length);
+        length = 0;
+    }
+
+    // Building strings
+
+    private static void appendTrack(StringBuilder json, Track track, boolean withUts) {
+        TrackJsonWriter writer = new TrackJsonWriter(new StringBuilderWriter(json), 256);
+        try {
+            writer.writeTrack(track, withUts);
+            writer.flushBuffer();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Works out how org.json escapes a character.
+     *
+     * @param chr      the character.
+     * @param previous the character before it, which decides whether a slash is escaped.
+     * @return null to write the character as it is, an empty string for a {@code \}{@code uXXXX} escape, or the
+     * escape sequence.
+     */
+    private static String escape(char chr, char previous) {
+        switch (chr) {
+            case '\\':
+                return "\\\\";
+            case '"':
+                return "\\\"";
+            case '/':
+                // Keeps "</script>" out of JSON embedded in HTML.
+                return previous == '<' ? "\\/" : null;
+            case '\b':
+                return "\\b";
+            case '\t':
+                return "\\t";
+            case '\n':
+                return "\\n";
+            case '\f':
+                return "\\f";
+            case '\r':
+                return "\\r";
+            default:
+                if (chr < 0x20 || (chr >= 0x80 && chr < 0xa0) || (chr >= 0x2000 && chr < 0x2100))
+                    return "";
+                return null;
+        }
+    }
+
+    /**
+     * Writes into a string builder, for serializing a single track to a string.
+     */
+    private static class StringBuilderWriter extends Writer {
+        private final StringBuilder builder;
+
+        StringBuilderWriter(StringBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            builder.append(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouples fetching from writing. Tracks accepted by the pipeline are put on a bounded queue and written to the
+ * downstream sink by a dedicated thread, so fetching carries on while the sink is busy. When the queue is full
+ * {@link #accept(Track)} blocks, which slows fetching down to the pace of the sink and keeps memory flat.
+ */
+public class TrackPipeline implements TrackSink {
+    /**
+     * Marks the end of the stream on the queue.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * An action queued behind the tracks accepted before it, run once they are durable.
+     */
+    private static class DurableAction {
+        private final Runnable action;
+
+        DurableAction(Runnable action) {
+            this.action = action;
+        }
+    }
+
+    private final TrackSink downstream;
+
+    /**
+     * The tracks waiting to be written, interleaved with {@link DurableAction}s and ended by {@link #END}.
+     */
+    private final BlockingQueue<Object> queue;
+    private final Thread consumer;
+
+    /**
+     * The error that stopped the consumer, if any.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Create and start a new pipeline.
+     *
+     * @param downstream the sink tracks are written to. It is closed when the pipeline is closed.
+     * @param capacity   the maximum number of tracks waiting to be written.
+     */
+    public TrackPipeline(TrackSink downstream, int capacity) {
+        this.downstream = downstream;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.consumer = new Thread(this::drain, "track-pipeline");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Gets the number of tracks waiting to be written.
+     *
+     * @return the number of tracks waiting to be written.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Checks whether writing has stopped on an error. A failed pipeline rejects every track from then on, and its
+     * downstream sink has been closed.
+     *
+     * @return true if the pipeline has failed.
+     */
+    public boolean hasFailed() {
+        return failure != null;
+    }
+
+    @Override
+    public void accept(Track track) throws IOException {
+        enqueue(track);
+    }
+
+    /**
+     * Waits for every track accepted so far to be written and made durable by the downstream sink.
+     *
+     * @throws IOException thrown if a track could not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        CountDownLatch durable = new CountDownLatch(1);
+        enqueue(new DurableAction(durable::countDown));
+        try {
+            while (!durable.await(100, TimeUnit.MILLISECONDS))
+                checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tracks to be written");
+        }
+    }
+
+    /**
+     * Queues the action behind the tracks accepted so far. Once the writer thread reaches it, it hands the action to
+     * the downstream sink to run once the tracks are durable, without holding up the caller.
+     *
+     * @param action the action to run.
+     * @throws IOException thrown if a track could not be written.
+     */
+    @Override
+    public void whenDurable(Runnable action) throws IOException {
+        enqueue(new DurableAction(action));
+    }
+
+    /**
+     * Waits for every queued track to be written, then closes the downstream sink.
+     *
+     * @throws IOException thrown if a track could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (consumer.isAlive()) enqueue(END);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tracks to be written");
+        }
+        checkFailure();
+    }
+
+    private void enqueue(Object item) throws IOException {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS))
+                checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing track");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable failure = this.failure;
+        if (failure != null) throw new IOException(failure.getMessage(), failure);
+    }
+
+    private void drain() {
+        try (TrackSink sink = downstream) {
+            Object item;
+            while ((item = queue.take()) != END) {
+                if (item instanceof DurableAction) {
+                    sink.whenDurable(((DurableAction) item).action);
+                } else {
+                    sink.accept((Track) item);
+                }
+            }
+        } catch (Throwable e) {
+            failure = e;
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Keeps daily play counts per artist, album and track next to the tracks table, so that dashboards read a few small
+ * tables instead of grouping every scrobble. The counts are kept up to date by the writers, in the same transaction
+ * as the rows they count, so they never disagree with the tracks table; {@link #rebuild(Connection)} recounts them
+ * from scratch, for tracks loaded before the rollups existed.
+ * <p>
+ * A day is {@code listened_at::date}, the date of the scrobble in the time zone its time was written in. Albums are
+ * counted per artist, with an empty album for scrobbles without one, and tracks by artist and name, the way the
+ * unique index tells scrobbles apart.
+ * <p>
+ * An instance collects the counts of the rows a {@link TrackBatchWriter} inserted until they are written with
+ * {@link #write(Connection)}. Counts are written in key order, so that writers adding to the same rows at the same
+ * time lock them in the same order and can't deadlock. Not thread safe.
+ */
+public class TrackRollups {
+    /**
+     * The rollup tables.
+     */
+    public enum Table {
+        ARTIST("artist_daily_plays", null),
+        ALBUM("album_daily_plays", "album"),
+        TRACK("track_daily_plays", "name");
+
+        private final String tableName;
+
+        /**
+         * The column of the tracks table counted by besides the day and artist, or null for none.
+         */
+        private final String detail;
+
+        /**
+         * The columns counted by, besides the day.
+         */
+        private final String columns;
+
+        Table(String tableName, String detail) {
+            this.tableName = tableName;
+            this.detail = detail;
+            this.columns = detail == null ? "artist" : "artist, " + detail;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        String createSql() {
+            return "CREATE TABLE IF NOT EXISTS " + tableName + " (day date NOT NULL, artist text NOT NULL, "
+                    + (detail == null ? "" : detail + " text NOT NULL, ")
+                    + "plays integer NOT NULL, PRIMARY KEY (day, " + columns + "))";
+        }
+
+        /**
+         * Adds counts to the table, creating rows that don't exist yet.
+         */
+        String upsertSql(String select) {
+            return "INSERT INTO " + tableName + " (day, " + columns + ", plays) " + select + " ON CONFLICT (day, "
+                    + columns + ") DO UPDATE SET plays = " + tableName + ".plays + EXCLUDED.plays";
+        }
+
+        /**
+         * Counts the scrobbles of a table or common table expression by day.
+         */
+        String countSql(String from) {
+            String selected = this == ALBUM ? "artist, coalesce(album, '')" : columns;
+            String groups = detail == null ? "1, 2" : "1, 2, 3";
+            return "SELECT listened_at::date, " + selected + ", count(*) FROM " + from + " GROUP BY " + groups
+                    + " ORDER BY " + groups;
+        }
+    }
+
+    private static final Table[] TABLES = Table.values();
+
+    /**
+     * The counts collected for each table and not yet written.
+     */
+    private final Map<Table, Map<Key, Integer>> counts = new EnumMap<>(Table.class);
+
+    public TrackRollups() {
+        for (Table table : TABLES)
+            counts.put(table, new TreeMap<>());
+    }
+
+    /**
+     * Creates the rollup tables that don't exist yet.
+     *
+     * @param connection the database connection, in autocommit mode.
+     * @return true if any table had to be created, in which case the rollups should be rebuilt.
+     * @throws SQLException thrown if a table can't be created.
+     */
+    public static boolean createTables(Connection connection) throws SQLException {
+        boolean created = false;
+        try (Statement statement = connection.createStatement()) {
+            for (Table table : TABLES) {
+                if (!exists(statement, table)) created = true;
+                statement.execute(table.createSql());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Checks whether any of the rollup tables exists in the current schema.
+     *
+     * @param connection the database connection.
+     * @return true if a rollup table exists.
+     * @throws SQLException thrown if the catalog can't be read.
+     */
+    public static boolean tablesExist(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (Table table : TABLES)
+                if (exists(statement, table)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Recounts the rollups from the tracks table, in one transaction, so readers see either the old counts or the
+     * new ones.
+     *
+     * @param connection the database connection, in autocommit mode.
+     * @return the number of rows in the rollup tables.
+     * @throws SQLException thrown if the rollups can't be recounted.
+     */
+    public static long rebuild(Connection connection) throws SQLException {
+        createTables(connection);
+        connection.setAutoCommit(false);
+        long rows = 0;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE " + Table.ARTIST.tableName + ", " + Table.ALBUM.tableName + ", "
+                    + Table.TRACK.tableName);
+            for (Table table : TABLES)
+                rows += statement.executeUpdate("INSERT INTO " + table.tableName + " (day, " + table.columns
+                        + ", plays) " + table.countSql("tracks"));
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return rows;
+    }
+
+    /**
+     * Empties the rollup tables that exist, for when the tracks are deleted.
+     *
+     * @param connection the database connection.
+     * @throws SQLException thrown if the tables can't be emptied.
+     */
+    public static void truncate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (Table table : TABLES)
+                if (exists(statement, table)) statement.execute("TRUNCATE " + table.tableName);
+        }
+    }
+
+    /**
+     * Wraps a statement that inserts into the tracks table so that it adds the rows it inserts to the rollups too.
+     * The statement must end in {@code RETURNING artist, album, name, listened_at}; the wrapped statement returns one
+     * row holding the number of tracks inserted.
+     *
+     * @param insertSql the statement inserting tracks.
+     * @return the statement inserting the tracks and counting them.
+     */
+    static String countingSql(String insertSql) {
+        StringBuilder sql = new StringBuilder("WITH inserted AS (").append(insertSql).append(')');
+        for (Table table : TABLES)
+            sql.append(", ").append(table.tableName).append("_added AS (")
+                    .append(table.upsertSql(table.countSql("inserted"))).append(')');
+        return sql.append(" SELECT count(*) FROM inserted").toString();
+    }
+
+    /**
+     * Counts a scrobble that has been inserted.
+     *
+     * @param track the scrobble.
+     */
+    public void add(Track track) {
+        LocalDate day = new Timestamp(track.getListenedAt().getTime()).toLocalDateTime().toLocalDate();
+        String artist = track.getArtist();
+        counts.get(Table.ARTIST).merge(new Key(day, artist, ""), 1, Integer::sum);
+        counts.get(Table.ALBUM).merge(new Key(day, artist, nullToEmpty(track.getAlbum())), 1, Integer::sum);
+        counts.get(Table.TRACK).merge(new Key(day, artist, track.getName()), 1, Integer::sum);
+    }
+
+    /**
+     * Checks whether there are counts waiting to be written.
+     *
+     * @return true if nothing has been counted since the last write.
+     */
+    public boolean isEmpty() {
+        return counts.get(Table.ARTIST).isEmpty();
+    }
+
+    /**
+     * Adds the counts collected so far to the rollup tables and forgets them. Call it in the transaction that
+     * inserted the scrobbles, before it commits.
+     *
+     * @param connection the connection the scrobbles were inserted on.
+     * @throws SQLException thrown if the counts can't be written.
+     */
+    public void write(Connection connection) throws SQLException {
+        for (Table table : TABLES) {
+            Map<Key, Integer> tableCounts = counts.get(table);
+            if (tableCounts.isEmpty()) continue;
+            String values = table.detail == null ? "VALUES (?, ?, ?)" : "VALUES (?, ?, ?, ?)";
+            try (PreparedStatement statement = connection.prepareStatement(table.upsertSql(values))) {
+                for (Map.Entry<Key, Integer> count : tableCounts.entrySet()) {
+                    Key key = count.getKey();
+                    int index = 1;
+                    statement.setDate(index++, java.sql.Date.valueOf(key.day));
+                    statement.setString(index++, key.artist);
+                    if (table.detail != null) statement.setString(index++, key.other);
+                    statement.setInt(index, count.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            tableCounts.clear();
+        }
+    }
+
+    /**
+     * Forgets the counts collected so far, for when the transaction that inserted their scrobbles is rolled back.
+     */
+    public void clear() {
+        for (Map<Key, Integer> tableCounts : counts.values())
+            tableCounts.clear();
+    }
+
+    private static boolean exists(Statement statement, Table table) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT to_regclass('" + table.tableName + "')")) {
+            return resultSet.next() && resultSet.getString(1) != null;
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * A row of a rollup table: a day, an artist and, for albums and tracks, the album or name.
+     */
+    private static final class Key implements Comparable<Key> {
+        private final LocalDate day;
+        private final String artist;
+        private final String other;
+
+        Key(LocalDate day, String artist, String other) {
+            this.day = day;
+            this.artist = artist;
+            this.other = other;
+        }
+
+        @Override
+        public int compareTo(Key key) {
+            int compared = day.compareTo(key.day);
+            if (compared == 0) compared = artist.compareTo(key.artist);
+            return compared == 0 ? other.compareTo(key.other) : compared;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return day.equals(key.day) && artist.equals(key.artist) && other.equals(key.other);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(day, artist, other);
+        }
+    }
+}
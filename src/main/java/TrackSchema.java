@@ -0,0 +1,240 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Manages the tracks table. A new table is range partitioned by month on {@code listened_at}, one partition per month
+ * named like {@code tracks_y2019m07}, created by {@link PartitioningSink} before the first scrobble of the month is
+ * written. Months can then be emptied or dropped without touching the rest of the history, and a scan by time only
+ * reads the months it covers. A table created before the tool managed it is left as it is, indexes aside, until the
+ * next backfill replaces it.
+ * <p>
+ * A backfill is loaded into a table of the same shape in the {@link #LOADING_SCHEMA} schema, then swapped in by
+ * {@link #swapIn(Connection)} in a single transaction, so readers see the old tracks until the new ones are complete.
+ */
+public final class TrackSchema {
+    /**
+     * The schema a backfill is loaded into before it is swapped in. It starts with an underscore, which no last.fm
+     * username does, so it can't be the schema of a user fetched with {@link PostgresUserStore}; that schema would be
+     * dropped by the next backfill.
+     */
+    public static final String LOADING_SCHEMA = "_lastfm_loading";
+
+    private static final String CREATE_SQL = "CREATE TABLE tracks (artist varchar NOT NULL, album varchar,"
+            + " name varchar NOT NULL, listened_at timestamp NOT NULL, created_at timestamp, updated_at timestamp,"
+            + " url varchar, image_url varchar) PARTITION BY RANGE (listened_at)";
+
+    /**
+     * The index that finds the newest scrobble, and the scrobbles of a time range, without a scan.
+     */
+    static final String LISTENED_AT_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS tracks_listened_at_index ON tracks (listened_at)";
+
+    private TrackSchema() {
+    }
+
+    /**
+     * Creates the tracks table in the current schema, partitioned, if it doesn't exist, and the indexes it needs
+     * whether or not it did.
+     *
+     * @param connection the database connection, in autocommit mode.
+     * @throws SQLException thrown if the table or an index can't be created.
+     */
+    public static void create(Connection connection) throws SQLException {
+        create(connection, false);
+    }
+
+    /**
+     * Creates the tracks table in the current schema, partitioned, if it doesn't exist, and the indexes it needs
+     * whether or not it did. The unique index is built without locking writers out of a table created before the tool
+     * managed it, which may already be large.
+     *
+     * @param connection       the database connection, in autocommit mode.
+     * @param deleteDuplicates whether to delete duplicate scrobbles that stop the unique index being created.
+     * @throws SQLException thrown if the table or an index can't be created.
+     */
+    public static void create(Connection connection, boolean deleteDuplicates) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (!exists(statement, "tracks")) statement.execute(CREATE_SQL);
+            boolean partitioned = isPartitioned(connection, connection.getSchema());
+            Track.createUniqueIndex(connection, !partitioned, deleteDuplicates);
+            statement.execute(LISTENED_AT_INDEX_SQL);
+        }
+    }
+
+    /**
+     * Checks whether the tracks table of a schema is partitioned.
+     *
+     * @param connection the database connection.
+     * @param schema     the schema.
+     * @return true if the table is partitioned, false if it is a plain table or doesn't exist.
+     * @throws SQLException thrown if the catalog can't be read.
+     */
+    public static boolean isPartitioned(Connection connection, String schema) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT c.relkind FROM pg_class c"
+                + " JOIN pg_namespace n ON n.oid = c.relnamespace WHERE n.nspname = ? AND c.relname = 'tracks'")) {
+            statement.setString(1, schema);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && "p".equals(resultSet.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Gets the partitions of the tracks table of a schema.
+     *
+     * @param connection the database connection.
+     * @param schema     the schema.
+     * @return the names of the partitions.
+     * @throws SQLException thrown if the catalog can't be read.
+     */
+    public static Set<String> partitions(Connection connection, String schema) throws SQLException {
+        Set<String> partitions = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT c.relname FROM pg_inherits i"
+                + " JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent"
+                + " JOIN pg_namespace n ON n.oid = p.relnamespace WHERE n.nspname = ? AND p.relname = 'tracks'")) {
+            statement.setString(1, schema);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next())
+                    partitions.add(resultSet.getString(1));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Gets the name of the partition holding a month.
+     *
+     * @param month the month.
+     * @return the partition name.
+     */
+    public static String partitionName(YearMonth month) {
+        return String.format("tracks_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+
+    /**
+     * Gets the statement creating the partition of a month. The bounds are local times, as {@code listened_at} is
+     * written.
+     *
+     * @param schema the schema of the tracks table.
+     * @param month  the month.
+     * @return the statement.
+     */
+    static String createPartitionSql(String schema, YearMonth month) {
+        return "CREATE TABLE IF NOT EXISTS " + quote(schema) + "." + partitionName(month) + " PARTITION OF "
+                + quote(schema) + ".tracks FOR VALUES FROM ('" + Timestamp.valueOf(month.atDay(1).atStartOfDay())
+                + "') TO ('" + Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()) + "')";
+    }
+
+    /**
+     * Empties the tracks table and the rollup tables. Unlike {@code DELETE}, this takes no time on a large table and
+     * leaves nothing behind to vacuum.
+     *
+     * @param connection the database connection.
+     * @throws SQLException thrown if the tables can't be emptied.
+     */
+    public static void truncate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE tracks");
+        }
+        TrackRollups.truncate(connection);
+    }
+
+    /**
+     * Creates an empty, partitioned tracks table in {@link #LOADING_SCHEMA} to load a backfill into, throwing away
+     * whatever an earlier backfill that never finished left there.
+     *
+     * @param connection the database connection, in autocommit mode. Its schema is left as it was.
+     * @param rollups    whether to create rollup tables there too.
+     * @throws SQLException thrown if the table can't be created.
+     */
+    public static void prepareLoading(Connection connection, boolean rollups) throws SQLException {
+        String schema = connection.getSchema();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS " + LOADING_SCHEMA + " CASCADE");
+            statement.execute("CREATE SCHEMA " + LOADING_SCHEMA);
+        }
+        connection.setSchema(LOADING_SCHEMA);
+        try {
+            create(connection);
+            if (rollups) TrackRollups.createTables(connection);
+        } finally {
+            connection.setSchema(schema);
+        }
+    }
+
+    /**
+     * Counts the rollups of the tracks loaded into {@link #LOADING_SCHEMA}, creating the rollup tables there, for a
+     * backfill whose writers didn't keep them as they went.
+     *
+     * @param connection the database connection, in autocommit mode. Its schema is left as it was.
+     * @return the number of rows in the rollup tables.
+     * @throws SQLException thrown if the rollups can't be counted.
+     */
+    public static long rebuildLoadingRollups(Connection connection) throws SQLException {
+        String schema = connection.getSchema();
+        connection.setSchema(LOADING_SCHEMA);
+        try {
+            return TrackRollups.rebuild(connection);
+        } finally {
+            connection.setSchema(schema);
+        }
+    }
+
+    /**
+     * Replaces the tracks table of the current schema, and any rollup tables, with those loaded into
+     * {@link #LOADING_SCHEMA}, in one transaction: readers see either the old tables or the new ones, and an error
+     * leaves the old ones in place. Tables depending on the old ones, such as views, stop the swap rather than being
+     * dropped.
+     *
+     * @param connection the database connection, in autocommit mode.
+     * @return the number of tables moved, partitions included.
+     * @throws SQLException thrown if the tables can't be swapped.
+     */
+    public static int swapIn(Connection connection) throws SQLException {
+        String target = quote(connection.getSchema());
+        List<String> tables = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT tablename FROM pg_tables WHERE schemaname = ? ORDER BY tablename <> 'tracks', tablename")) {
+            statement.setString(1, LOADING_SCHEMA);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next())
+                    tables.add(resultSet.getString(1));
+            }
+        }
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            // The old tracks table goes first, taking its partitions with it.
+            for (String table : tables)
+                statement.execute("DROP TABLE IF EXISTS " + target + "." + quote(table));
+            for (String table : tables)
+                statement.execute("ALTER TABLE " + LOADING_SCHEMA + "." + quote(table) + " SET SCHEMA " + target);
+            statement.execute("DROP SCHEMA " + LOADING_SCHEMA);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return tables.size();
+    }
+
+    private static boolean exists(Statement statement, String table) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT to_regclass('" + table + "')")) {
+            return resultSet.next() && resultSet.getString(1) != null;
+        }
+    }
+
+    static String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for fetched tracks, such as a JSON file or the tracks table. Tracks are handed over one at a time as
+ * they are fetched, newest first.
+ */
+public interface TrackSink extends Closeable {
+    /**
+     * Writes a track to the sink.
+     *
+     * @param track the track to write.
+     * @throws IOException thrown if the track can't be written.
+     */
+    void accept(Track track) throws IOException;
+
+    /**
+     * Makes every track accepted so far durable, for example by committing them.
+     *
+     * @throws IOException thrown if the tracks can't be made durable.
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Runs an action once every track accepted so far is durable. Sinks that write synchronously flush and run it
+     * straight away; sinks that write in the background run it later, on their own thread.
+     *
+     * @param action the action to run.
+     * @throws IOException thrown if the tracks can't be made durable.
+     */
+    default void whenDurable(Runnable action) throws IOException {
+        flush();
+        action.run();
+    }
+
+    /**
+     * Finishes writing and releases whatever the sink holds on to.
+     *
+     * @throws IOException thrown if the remaining tracks can't be written.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,498 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Holds tracks in memory as columns instead of as {@link Track} objects: the times in seconds since epoch, kept sorted,
+ * and for each {@link TrackArchive.Column} one dictionary id per track, in the same encoding as the archive. A track
+ * then takes 28 bytes plus its share of the distinct strings, where a {@code Track} in a list takes a {@code Date},
+ * six references and two headers. The columns live on the heap or, optionally, in direct buffers outside it, so a
+ * long history doesn't weigh on the garbage collector.
+ * <p>
+ * Appending is cheap whatever the order: tracks go onto the end of the columns, and the first query afterwards sorts
+ * them into place. Tracks arriving newest first, as the fetcher hands them over, are sorted by reversing them, and
+ * tracks newer than everything stored, as polls hand them over, need no sorting at all. Queries find a window by
+ * binary search and walk it with a {@link Cursor}, which reads the columns without creating a {@code Track}.
+ * <p>
+ * Not thread safe: since queries may sort pending tracks, even concurrent queries need outside locking.
+ */
+public class TrackStore implements TrackSink, Iterable<Track> {
+    /**
+     * The number of tracks room is made for when no capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final TrackArchive.Column[] COLUMNS = TrackArchive.Column.values();
+
+    /**
+     * The bytes each track takes in the columns: a {@code long} time and an {@code int} id per column.
+     */
+    private static final int BYTES_PER_TRACK = Long.BYTES + COLUMNS.length * Integer.BYTES;
+
+    private final boolean offHeap;
+
+    private LongBuffer times;
+    private final IntBuffer[] ids = new IntBuffer[COLUMNS.length];
+    private int capacity;
+    private int size;
+
+    /**
+     * The number of tracks at the start of the columns that are in order. Those after it were appended since the
+     * last query.
+     */
+    private int sortedSize;
+
+    /**
+     * The id of each distinct string of each column. Ids count up from 1; 0 stands for null.
+     */
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+
+    /**
+     * The string of each id of each column, with null at 0.
+     */
+    private final List<List<String>> values = new ArrayList<>();
+
+    /**
+     * Create a new store on the heap.
+     */
+    public TrackStore() {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Create a new store.
+     *
+     * @param capacity the number of tracks to make room for up front. The store grows past it as needed.
+     * @param offHeap  whether to keep the columns in direct buffers, outside the heap.
+     */
+    public TrackStore(int capacity, boolean offHeap) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        this.offHeap = offHeap;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            dictionaries.add(new HashMap<>());
+            List<String> columnValues = new ArrayList<>();
+            columnValues.add(null);
+            values.add(columnValues);
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Create a new store on the heap holding some tracks.
+     *
+     * @param tracks the tracks, in any order.
+     * @return the store.
+     */
+    public static TrackStore of(Iterable<Track> tracks) {
+        TrackStore store = new TrackStore();
+        for (Track track : tracks)
+            store.add(track);
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Gets the bytes taken by the columns, not counting the dictionaries.
+     *
+     * @return the bytes allocated for the columns.
+     */
+    public long getColumnBytes() {
+        return (long) capacity * BYTES_PER_TRACK;
+    }
+
+    /**
+     * Gets the number of distinct strings in a column.
+     *
+     * @param column the column.
+     * @return the number of distinct strings, not counting null.
+     */
+    public int getDictionarySize(TrackArchive.Column column) {
+        return values.get(column.ordinal()).size() - 1;
+    }
+
+    /**
+     * Gets the string a dictionary id stands for.
+     *
+     * @param column the column the id is from.
+     * @param id     the id, from 0 to {@link #getDictionarySize(TrackArchive.Column)}.
+     * @return the string, or null for id 0.
+     */
+    public String getString(TrackArchive.Column column, int id) {
+        return values.get(column.ordinal()).get(id);
+    }
+
+    // Appending
+
+    @Override
+    public void accept(Track track) {
+        add(track);
+    }
+
+    /**
+     * Appends a track. A track that is playing now has no time yet and is skipped.
+     *
+     * @param track the track.
+     * @return this store.
+     */
+    public TrackStore add(Track track) {
+        if (track.getListenedAt() == null) return this;
+        if (size == capacity) allocate(capacity * 2);
+        times.put(size, track.getListenedAt().getTime() / 1000L);
+        for (TrackArchive.Column column : COLUMNS)
+            ids[column.ordinal()].put(size, idOf(column, column.of(track)));
+        size++;
+        return this;
+    }
+
+    private int idOf(TrackArchive.Column column, String value) {
+        if (value == null) return 0;
+        Map<String, Integer> dictionary = dictionaries.get(column.ordinal());
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            List<String> columnValues = values.get(column.ordinal());
+            id = columnValues.size();
+            columnValues.add(value);
+            dictionary.put(value, id);
+        }
+        return id;
+    }
+
+    // Queries
+
+    /**
+     * Counts the tracks in a window.
+     *
+     * @param window the window of scrobble times.
+     * @return the number of tracks in it.
+     */
+    public int count(TimeWindow window) {
+        sort();
+        return end(window) - start(window);
+    }
+
+    /**
+     * Gets the time of the newest track.
+     *
+     * @return the time in seconds since epoch, or 0 if the store is empty.
+     */
+    public long getNewest() {
+        sort();
+        return size == 0 ? 0 : times.get(size - 1);
+    }
+
+    /**
+     * Gets the time of the oldest track.
+     *
+     * @return the time in seconds since epoch, or 0 if the store is empty.
+     */
+    public long getOldest() {
+        sort();
+        return size == 0 ? 0 : times.get(0);
+    }
+
+    /**
+     * Walks the tracks in a window, newest first.
+     *
+     * @param window the window of scrobble times.
+     * @return a cursor before the newest track in the window.
+     */
+    public Cursor cursor(TimeWindow window) {
+        sort();
+        return new Cursor(start(window), end(window));
+    }
+
+    /**
+     * Creates the tracks in a window, newest first, like {@link TrackFetcher#getTracks()}.
+     *
+     * @param window the window of scrobble times.
+     * @return the tracks.
+     */
+    public List<Track> getTracks(TimeWindow window) {
+        Cursor cursor = cursor(window);
+        List<Track> tracks = new ArrayList<>(cursor.end - cursor.start);
+        while (cursor.next())
+            tracks.add(cursor.toTrack());
+        return tracks;
+    }
+
+    /**
+     * Iterates over every track, newest first, creating each one as it is reached.
+     *
+     * @return the iterator.
+     */
+    @Override
+    public Iterator<Track> iterator() {
+        Cursor cursor = cursor(new TimeWindow(0, 0));
+        return new Iterator<Track>() {
+            private boolean ready;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) ready = cursor.next();
+                return ready;
+            }
+
+            @Override
+            public Track next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                ready = false;
+                return cursor.toTrack();
+            }
+        };
+    }
+
+    /**
+     * Finds the position of the first track in a window. The store must be sorted.
+     */
+    int start(TimeWindow window) {
+        return window.getFrom() == 0 ? 0 : lowerBound(window.getFrom());
+    }
+
+    /**
+     * Finds the position after the last track in a window. The store must be sorted.
+     */
+    int end(TimeWindow window) {
+        return window.getTo() == 0 ? size : lowerBound(window.getTo());
+    }
+
+    /**
+     * Finds the position of the first track at or after a time.
+     */
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times.get(middle) < time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    // Reading by position
+
+    /**
+     * Gets the times of the tracks, oldest first, for reading by position. The store must be sorted, and appending to
+     * it invalidates them.
+     *
+     * @return a read only view of the times.
+     */
+    LongBuffer getTimes() {
+        return times.asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the dictionary ids of a column, in the same order as {@link #getTimes()}, with the same caveats.
+     *
+     * @param column the column.
+     * @return a read only view of the ids.
+     */
+    IntBuffer getIds(TrackArchive.Column column) {
+        return ids[column.ordinal()].asReadOnlyBuffer();
+    }
+
+    // Sorting
+
+    /**
+     * Sorts the tracks appended since the last query into place: reversing them if they arrived newest first, sorting
+     * them otherwise, then merging them with the tracks already sorted unless they are all newer.
+     */
+    void sort() {
+        if (sortedSize == size) return;
+        int start = sortedSize;
+        if (isDescending(start, size)) {
+            reverse(start, size);
+        } else {
+            long[] keys = new long[size - start];
+            // Times fit in 32 bits until 2106, leaving 31 bits for the position.
+            for (int i = start; i < size; i++)
+                keys[i - start] = times.get(i) << 31 | (i - start);
+            Arrays.sort(keys);
+            int[] order = new int[keys.length];
+            for (int i = 0; i < keys.length; i++)
+                order[i] = start + (int) (keys[i] & Integer.MAX_VALUE);
+            permute(start, order);
+        }
+        if (start > 0 && times.get(start - 1) > times.get(start)) merge(start);
+        sortedSize = size;
+    }
+
+    private boolean isDescending(int from, int to) {
+        for (int i = from + 1; i < to; i++)
+            if (times.get(i) > times.get(i - 1)) return false;
+        return true;
+    }
+
+    private void reverse(int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            long time = times.get(i);
+            times.put(i, times.get(j));
+            times.put(j, time);
+            for (IntBuffer column : ids) {
+                int id = column.get(i);
+                column.put(i, column.get(j));
+                column.put(j, id);
+            }
+        }
+    }
+
+    /**
+     * Merges two sorted runs, the tracks before a position and those from it on. Ties keep the older append first.
+     */
+    private void merge(int middle) {
+        int[] order = new int[size];
+        int left = 0;
+        int right = middle;
+        for (int i = 0; i < size; i++) {
+            if (right == size || (left < middle && times.get(left) <= times.get(right))) order[i] = left++;
+            else order[i] = right++;
+        }
+        permute(0, order);
+    }
+
+    /**
+     * Rearranges the tracks from a position on, so that the track at {@code from + i} becomes the one that was at
+     * {@code order[i]}.
+     */
+    private void permute(int from, int[] order) {
+        long[] sortedTimes = new long[order.length];
+        for (int i = 0; i < order.length; i++)
+            sortedTimes[i] = times.get(order[i]);
+        for (int i = 0; i < order.length; i++)
+            times.put(from + i, sortedTimes[i]);
+        int[] sortedIds = new int[order.length];
+        for (IntBuffer column : ids) {
+            for (int i = 0; i < order.length; i++)
+                sortedIds[i] = column.get(order[i]);
+            for (int i = 0; i < order.length; i++)
+                column.put(from + i, sortedIds[i]);
+        }
+    }
+
+    /**
+     * Makes room for a number of tracks, copying over those already stored.
+     */
+    private void allocate(int newCapacity) {
+        // On the heap the columns are plain arrays behind the buffers, which scans read faster than a view of bytes.
+        LongBuffer newTimes = offHeap ? direct((long) newCapacity * Long.BYTES).asLongBuffer()
+                : LongBuffer.allocate(newCapacity);
+        if (times != null) {
+            LongBuffer stored = times.duplicate();
+            stored.limit(size);
+            newTimes.put(stored);
+            newTimes.rewind();
+        }
+        times = newTimes;
+        for (int i = 0; i < ids.length; i++) {
+            IntBuffer newIds = offHeap ? direct((long) newCapacity * Integer.BYTES).asIntBuffer()
+                    : IntBuffer.allocate(newCapacity);
+            if (ids[i] != null) {
+                IntBuffer stored = ids[i].duplicate();
+                stored.limit(size);
+                newIds.put(stored);
+                newIds.rewind();
+            }
+            ids[i] = newIds;
+        }
+        capacity = newCapacity;
+    }
+
+    private static ByteBuffer direct(long bytes) {
+        if (bytes > Integer.MAX_VALUE)
+            throw new IllegalStateException("A column can't hold more than " + Integer.MAX_VALUE + " bytes");
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Walks the tracks of a window, newest first, reading them straight from the columns. Appending to the store
+     * invalidates it.
+     */
+    public final class Cursor {
+        private final int start;
+        private final int end;
+        private int position;
+
+        private Cursor(int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.position = end;
+        }
+
+        /**
+         * Moves to the next older track.
+         *
+         * @return true if there is one, false once the window is exhausted.
+         */
+        public boolean next() {
+            if (position <= start) return false;
+            position--;
+            return true;
+        }
+
+        /**
+         * Gets the number of tracks the cursor walks over in all.
+         *
+         * @return the number of tracks in the window.
+         */
+        public int size() {
+            return end - start;
+        }
+
+        /**
+         * Gets the time of the current track.
+         *
+         * @return the time in seconds since epoch.
+         */
+        public long getTime() {
+            return times.get(position);
+        }
+
+        /**
+         * Gets the dictionary id of a string of the current track, for grouping without comparing strings.
+         *
+         * @param column the column.
+         * @return the id, or 0 for null.
+         */
+        public int getId(TrackArchive.Column column) {
+            return ids[column.ordinal()].get(position);
+        }
+
+        /**
+         * Gets a string of the current track.
+         *
+         * @param column the column.
+         * @return the string, or null.
+         */
+        public String getString(TrackArchive.Column column) {
+            return values.get(column.ordinal()).get(getId(column));
+        }
+
+        /**
+         * Creates the current track.
+         *
+         * @return the track.
+         */
+        public Track toTrack() {
+            return new Track(getString(TrackArchive.Column.ARTIST), getString(TrackArchive.Column.ALBUM),
+                    getString(TrackArchive.Column.NAME), new Date(getTime() * 1000L),
+                    getString(TrackArchive.Column.IMAGE_URL), getString(TrackArchive.Column.URL));
+        }
+    }
+}
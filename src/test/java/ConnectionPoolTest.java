@@ -0,0 +1,68 @@
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+    /**
+     * Makes a connection that does nothing, and reports itself dead once {@code alive} is cleared.
+     */
+    static Connection stubConnection(AtomicBoolean alive) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                            return alive.get() && !closed.get();
+                        case "isClosed":
+                            return closed.get();
+                        case "close":
+                            closed.set(true);
+                            return null;
+                        case "getAutoCommit":
+                            return true;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @Test
+    public void whenAConnectionIsReleasedItIsBorrowedAgain() throws SQLException {
+        AtomicInteger opened = new AtomicInteger();
+        ConnectionPool pool = new ConnectionPool(() -> {
+            opened.incrementAndGet();
+            return stubConnection(new AtomicBoolean(true));
+        }, 2, 0);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        assertNotSame(first, second);
+        pool.release(first);
+        assertSame(first, pool.borrow());
+        assertEquals(2, opened.get());
+        assertEquals(2, pool.getOpenCount());
+    }
+
+    @Test
+    public void whenAnIdleConnectionHasDroppedItIsReplaced() throws SQLException {
+        AtomicBoolean alive = new AtomicBoolean(true);
+        ConnectionPool pool = new ConnectionPool(() -> stubConnection(alive), 1, 0);
+        Connection dropped = pool.borrow();
+        pool.release(dropped);
+        alive.set(false);
+        Connection replacement = pool.borrow();
+        assertNotSame(dropped, replacement);
+        assertTrue(dropped.isClosed());
+        assertEquals(1, pool.getDiscardedCount());
+        assertEquals(1, pool.getOpenCount());
+    }
+}
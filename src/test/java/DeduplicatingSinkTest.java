@@ -0,0 +1,44 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeduplicatingSinkTest {
+    @Test
+    public void whenAScrobbleIsSeenTwiceOnlyTheFirstCopyIsWritten() throws Exception {
+        List<Track> written = new ArrayList<>();
+        Track first = new Track("Snail Mail", "Lush", "Pristine", new Date(1563283092000L), "image", "url");
+        Track otherAlbum = new Track("Snail Mail", "Lush (Deluxe)", "Pristine", new Date(1563283092000L), "image", "url");
+        Track later = new Track("Snail Mail", "Lush", "Pristine", new Date(1563283392000L), "image", "url");
+
+        try (DeduplicatingSink sink = new DeduplicatingSink(written::add)) {
+            sink.accept(first);
+            sink.accept(otherAlbum);
+            sink.accept(later);
+            sink.accept(first);
+            assertEquals(2, sink.getDuplicateCount());
+        }
+        assertEquals(2, written.size());
+        assertSame(first, written.get(0));
+        assertSame(later, written.get(1));
+    }
+
+    @Test
+    public void whenScrobblesAreForgottenTheyAreWrittenAgain() throws Exception {
+        List<Track> written = new ArrayList<>();
+        Track older = new Track("Snail Mail", "Lush", "Pristine", new Date(1563283092000L), null, null);
+        Track newer = new Track("Snail Mail", "Lush", "Heat Wave", new Date(1563283392000L), null, null);
+
+        DeduplicatingSink sink = new DeduplicatingSink(written::add);
+        sink.accept(older);
+        sink.accept(newer);
+        sink.forgetUntil(older.getListenedAt());
+        sink.accept(older);
+        sink.accept(newer);
+        assertEquals(3, written.size());
+        assertEquals(1, sink.getDuplicateCount());
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class FetchCheckpointTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void whenFormattingPagesConsecutivePagesAreWrittenAsRanges() {
+        BitSet pages = new BitSet();
+        pages.set(1, 31);
+        pages.set(32);
+        pages.set(35, 41);
+        assertEquals("1-30,32,35-40", FetchCheckpoint.formatRanges(pages));
+
+        BitSet parsed = new BitSet();
+        FetchCheckpoint.parseRanges("1-30,32,35-40", parsed);
+        assertEquals(pages, parsed);
+        assertEquals("", FetchCheckpoint.formatRanges(new BitSet()));
+    }
+
+    @Test
+    public void whenReloadingACheckpointTheWindowAndCompletedPagesAreKept() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("fetch.checkpoint");
+        FetchCheckpoint checkpoint = FetchCheckpoint.load(path);
+        assertFalse(checkpoint.isResumableFor("user"));
+
+        checkpoint.begin("user", 1500000000L, 1563768000L);
+        checkpoint.setTotalPages(40);
+        checkpoint.complete(1);
+        checkpoint.complete(2);
+        checkpoint.complete(5);
+
+        FetchCheckpoint reloaded = FetchCheckpoint.load(path);
+        assertTrue(reloaded.isResumableFor("user"));
+        assertFalse(reloaded.isResumableFor("someone else"));
+        assertEquals(1500000000L, reloaded.getFrom());
+        assertEquals(1563768000L, reloaded.getTo());
+        assertEquals(3, reloaded.getCompletedCount());
+        assertTrue(reloaded.isCompleted(5));
+        assertFalse(reloaded.isCompleted(3));
+
+        assertFalse(reloaded.setTotalPages(39));
+        assertEquals(0, reloaded.getCompletedCount());
+
+        reloaded.delete();
+        assertFalse(Files.exists(path));
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FetchPlannerTest {
+    private final MockLastFmServer server = TrackFetcherTest.newServer(10000, 0);
+    private final RecentTracksParser parser = new RecentTracksParser();
+
+    /**
+     * Renders pages straight from the mock server, with the window widened the way {@link TrackFetcher} does.
+     */
+    private RecentTracksPage fetch(TimeWindow window, int page, int limit) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        params.put("page", String.valueOf(page));
+        params.put("limit", String.valueOf(limit));
+        if (window.getFrom() > 0) params.put("from", String.valueOf(window.getFrom() - 1));
+        if (window.getTo() > 0) params.put("to", String.valueOf(window.getTo()));
+        byte[] body = server.renderPage(params).toString().getBytes(StandardCharsets.UTF_8);
+        return parser.parse(new ByteArrayInputStream(body));
+    }
+
+    @Test
+    public void whenPlanningTheWindowsCoverTheRangeWithoutOverlapping() throws Exception {
+        FetchPlanner planner = new FetchPlanner(this::fetch, 1000, null);
+        long newest = TrackFetcherTest.NEWEST_UTS;
+        List<TimeWindow> windows = planner.plan(new TimeWindow(0, newest + 1));
+
+        assertTrue(windows.size() >= 5);
+        assertEquals(newest + 1, windows.get(0).getTo());
+        assertEquals(TrackFetcherTest.scrobblesBeforeNewest(9999).getTime() / 1000L,
+                windows.get(windows.size() - 1).getFrom());
+        long tracks = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            TimeWindow window = windows.get(i);
+            assertTrue(window.getTrackCount() <= 2000);
+            if (i > 0) assertEquals(windows.get(i - 1).getFrom(), window.getTo());
+            tracks += window.getTrackCount();
+        }
+        // Counts are taken a second wider than each window, so a track on an edge may be counted twice.
+        assertTrue(tracks >= 10000 && tracks <= 10000 + windows.size());
+    }
+
+    @Test
+    public void whenTheOldestScrobbleIsntReturnedTheRangeIsOneWindow() throws Exception {
+        // Every page past the first comes back empty, so the oldest scrobble is never found.
+        FetchPlanner planner = new FetchPlanner((window, page, limit) -> fetch(window, page == 1 ? 1 : page + 1, limit),
+                1000, null);
+        TimeWindow range = new TimeWindow(0, TrackFetcherTest.NEWEST_UTS + 1);
+        List<TimeWindow> windows = planner.plan(range);
+
+        assertEquals(1, windows.size());
+        assertEquals(range.withTrackCount(10000), windows.get(0));
+    }
+
+    @Test
+    public void whenSplittingAWindowThePartsAreNewestFirst() {
+        List<TimeWindow> parts = new TimeWindow(100, 110).split(3);
+        assertEquals(3, parts.size());
+        assertEquals(new TimeWindow(106, 110), parts.get(0));
+        assertEquals(new TimeWindow(103, 106), parts.get(1));
+        assertEquals(new TimeWindow(100, 103), parts.get(2));
+        assertEquals(TimeWindow.parse("100-110:42"), new TimeWindow(100, 110, 42));
+    }
+}
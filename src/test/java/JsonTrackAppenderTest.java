@@ -0,0 +1,97 @@
+import org.json.JSONArray;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JsonTrackAppenderTest {
+    private static final long NOON = 1563278400000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void whenAppendingToAnArrayTheNewTracksGoAfterTheDumpOldestFirst() throws Exception {
+        File file = folder.newFile("tracks.json");
+        try (JsonTrackSink sink = new JsonTrackSink(new PrintWriter(file, "UTF-8"))) {
+            sink.accept(track("Heat Wave", 2));
+            sink.accept(track("Pristine", 1));
+        }
+        assertEquals(new Date(NOON + 2000), JsonTrackAppender.newestListenedAt(file.toPath(), false));
+
+        try (JsonTrackAppender appender = new JsonTrackAppender(file.toPath(), false)) {
+            assertEquals(new Date(NOON + 2000), appender.getNewest());
+            appender.accept(track("Stick", 4));
+            appender.accept(track("Speaking Terms", 3));
+        }
+        assertEquals(Arrays.asList("Heat Wave", "Pristine", "Speaking Terms", "Stick"), names(file));
+        assertEquals(new Date(NOON + 4000), JsonTrackAppender.newestListenedAt(file.toPath(), false));
+
+        // A later run appends after the last batch, and finding nothing new leaves the file as it was.
+        try (JsonTrackAppender appender = new JsonTrackAppender(file.toPath(), false)) {
+            appender.accept(track("Full \"Control\" }", 5));
+        }
+        new JsonTrackAppender(file.toPath(), false).close();
+        assertEquals(Arrays.asList("Heat Wave", "Pristine", "Speaking Terms", "Stick", "Full \"Control\" }"),
+                names(file));
+        assertEquals(new Date(NOON + 5000), JsonTrackAppender.newestListenedAt(file.toPath(), false));
+    }
+
+    @Test
+    public void whenTheFileHasNoTracksTheyAreWrittenAsADumpUntilTheFirstFlush() throws Exception {
+        File file = new File(folder.getRoot(), "tracks.ndjson");
+        try (JsonTrackAppender appender = new JsonTrackAppender(file.toPath(), true)) {
+            assertNull(appender.getNewest());
+            appender.accept(track("Heat Wave", 2));
+            appender.accept(track("Pristine", 1));
+            appender.flush();
+            appender.accept(track("Speaking Terms", 4));
+            appender.accept(track("Stick", 3));
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(3).contains("\"name\":\"Speaking Terms\""));
+        assertEquals(new Date(NOON + 4000), JsonTrackAppender.newestListenedAt(file.toPath(), true));
+
+        File empty = folder.newFile("empty.json");
+        Files.write(empty.toPath(), "[]\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(JsonTrackAppender.newestListenedAt(empty.toPath(), false));
+    }
+
+    @Test
+    public void whenTheNewestTrackHasNoUtsAppendingFailsRatherThanGuessingItsTime() throws Exception {
+        File file = folder.newFile("tracks.json");
+        // Date#toString() names the zone by an abbreviation such as CST, which more than one zone uses.
+        Files.write(file.toPath(), "[{\"name\":\"Pristine\",\"listenedAt\":\"Tue Jul 16 12:00:00 CST 2019\"}]\n"
+                .getBytes(StandardCharsets.UTF_8));
+        try {
+            new JsonTrackAppender(file.toPath(), false);
+            fail("Expected a track without uts to be refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("has no uts"));
+        }
+    }
+
+    private static List<String> names(File file) throws Exception {
+        JSONArray array = new JSONArray(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++)
+            names.add(array.getJSONObject(i).getString("name"));
+        return names;
+    }
+
+    private static Track track(String name, int seconds) {
+        return new Track("Snail Mail", "Lush", name, new Date(NOON + seconds * 1000L), null, null);
+    }
+}
@@ -0,0 +1,39 @@
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void whenEmptyTheQuantilesAndMeanAreZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getQuantileMillis(0.99));
+        assertEquals(0, histogram.getMeanMillis(), 0);
+    }
+
+    @Test
+    public void whenRecordingTheQuantilesAreTheBucketBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++)
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(15));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(150));
+        histogram.record(TimeUnit.SECONDS.toNanos(60));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(20, histogram.getQuantileMillis(0.5));
+        assertEquals(200, histogram.getQuantileMillis(0.99));
+        assertEquals(-1, histogram.getQuantileMillis(1));
+        assertEquals((98 * 15 + 150 + 60000) / 100.0, histogram.getMeanMillis(), 1e-9);
+
+        StringBuilder output = new StringBuilder();
+        histogram.appendPrometheus(output, "page_seconds", "Pages.");
+        String text = output.toString();
+        assertTrue(text.contains("# TYPE page_seconds histogram\n"));
+        assertTrue(text.contains("page_seconds_bucket{le=\"0.020\"} 98\n"));
+        assertTrue(text.contains("page_seconds_bucket{le=\"30.000\"} 99\n"));
+        assertTrue(text.contains("page_seconds_bucket{le=\"+Inf\"} 100\n"));
+        assertTrue(text.contains("page_seconds_count 100\n"));
+    }
+}
@@ -0,0 +1,181 @@
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ListeningAnalyticsTest {
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    @Test
+    public void whenRankingTracksTheyAreGroupedLikeLooseEquals() {
+        List<Track> tracks = new ArrayList<>();
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, 16, 13));
+        tracks.add(track("Snail Mail", "Lush (Deluxe)", "Pristine", 2019, 7, 16, 14));
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, 17, 9));
+        tracks.add(track("Snail Mail", "Lush", "Heat Wave", 2019, 7, 17, 10));
+        tracks.add(track("Waxahatchee", "Out in the Storm", "Never Been Wrong", 2019, 7, 18, 22));
+        tracks.add(track("Waxahatchee", "Out in the Storm", "Never Been Wrong", 2019, 7, 18, 23));
+        tracks.add(track("Parquet Courts", "Wide Awake!", "Tenderness", 2019, 7, 19, 8));
+        ListeningAnalytics analytics = ListeningAnalytics.of(tracks);
+        TimeWindow all = new TimeWindow(0, 0);
+
+        List<PlayCount> artists = analytics.topArtists(all, 2);
+        assertEquals(2, artists.size());
+        assertEquals("Snail Mail", artists.get(0).getArtist());
+        assertEquals(4, artists.get(0).getPlays());
+        assertEquals("Waxahatchee", artists.get(1).getArtist());
+        assertNull(artists.get(0).getName());
+
+        List<PlayCount> looseTracks = analytics.topTracks(all, 10, false);
+        assertEquals("Pristine", looseTracks.get(0).getName());
+        assertEquals(3, looseTracks.get(0).getPlays());
+        assertNull(looseTracks.get(0).getAlbum());
+        assertEquals(4, looseTracks.size());
+
+        List<PlayCount> albumTracks = analytics.topTracks(all, 10, true);
+        assertEquals(5, albumTracks.size());
+        assertEquals("Pristine", albumTracks.get(0).getName());
+        assertEquals("Lush", albumTracks.get(0).getAlbum());
+        assertEquals(2, albumTracks.get(0).getPlays());
+
+        List<PlayCount> albums = analytics.topAlbums(all, 1);
+        assertEquals("Lush", albums.get(0).getAlbum());
+        assertEquals(3, albums.get(0).getPlays());
+    }
+
+    @Test
+    public void whenQueryingAWindowOnlyItsScrobblesAreCounted() {
+        List<Track> tracks = new ArrayList<>();
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, 16, 13));
+        tracks.add(track("Waxahatchee", "Out in the Storm", "Never Been Wrong", 2019, 7, 18, 22));
+        tracks.add(track("Waxahatchee", "Out in the Storm", "Silver", 2019, 7, 18, 23));
+        tracks.add(track("Snail Mail", "Lush", "Heat Wave", 2019, 7, 20, 10));
+        ListeningAnalytics analytics = ListeningAnalytics.of(tracks);
+        long from = seconds(2019, 7, 17, 0);
+        long to = seconds(2019, 7, 20, 10);
+
+        List<PlayCount> artists = analytics.topArtists(new TimeWindow(from, to), 5);
+        assertEquals(1, artists.size());
+        assertEquals("Waxahatchee", artists.get(0).getArtist());
+        assertEquals(2, artists.get(0).getPlays());
+        assertEquals(2, analytics.topArtists(new TimeWindow(from, 0), 5).size());
+        assertTrue(analytics.topArtists(new TimeWindow(to + 1, 0), 5).isEmpty());
+    }
+
+    @Test
+    public void whenScrobblesAreAfter2038TheyStillSortAfterOlderOnes() {
+        List<Track> tracks = new ArrayList<>();
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2039, 7, 16, 13));
+        tracks.add(track("Waxahatchee", "Out in the Storm", "Silver", 2037, 7, 16, 13));
+        ListeningAnalytics analytics = ListeningAnalytics.of(tracks);
+
+        assertEquals(LocalDate.of(2037, 7, 16), analytics.playsByDay(new TimeWindow(0, 0), NEW_YORK).getFirstDay());
+        List<PlayCount> artists = analytics.topArtists(new TimeWindow(seconds(2038, 7, 1, 0), 0), 5);
+        assertEquals(1, artists.size());
+        assertEquals("Snail Mail", artists.get(0).getArtist());
+    }
+
+    @Test
+    public void whenCountingByTimeTheLocalZoneIsUsed() {
+        List<Track> tracks = new ArrayList<>();
+        // Tuesday 13:00 and 14:00, Wednesday 09:00 and Thursday 22:00 in New York, across no transition.
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, 16, 13));
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, 16, 14));
+        tracks.add(track("Snail Mail", "Lush", "Heat Wave", 2019, 7, 17, 9));
+        tracks.add(track("Waxahatchee", "Out in the Storm", "Silver", 2019, 7, 18, 22));
+        ListeningAnalytics analytics = ListeningAnalytics.of(tracks);
+        TimeWindow all = new TimeWindow(0, 0);
+
+        int[] hours = analytics.playsByHourOfDay(all, NEW_YORK);
+        assertEquals(1, hours[13]);
+        assertEquals(1, hours[14]);
+        assertEquals(1, hours[9]);
+        assertEquals(1, hours[22]);
+        // In UTC the Thursday night play falls on Friday.
+        int[] days = analytics.playsByDayOfWeek(all, ZoneOffset.UTC);
+        assertEquals(1, days[4]);
+        assertEquals(0, days[3]);
+        days = analytics.playsByDayOfWeek(all, NEW_YORK);
+        assertArrayEquals(new int[]{0, 2, 1, 1, 0, 0, 0}, days);
+
+        ListeningAnalytics.DailyPlays daily = analytics.playsByDay(all, NEW_YORK);
+        assertEquals(LocalDate.of(2019, 7, 16), daily.getFirstDay());
+        assertArrayEquals(new int[]{2, 1, 1}, daily.getPlays());
+    }
+
+    @Test
+    public void whenDaylightSavingTimeEndsTheHoursFollowTheOffset() {
+        List<Track> tracks = new ArrayList<>();
+        // New York falls back from UTC-4 to UTC-5 at 2019-11-03 06:00 UTC.
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 11, 2, 12));
+        tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 11, 4, 12));
+        ListeningAnalytics analytics = ListeningAnalytics.of(tracks);
+        int[] hours = analytics.playsByHourOfDay(new TimeWindow(0, 0), NEW_YORK);
+        assertEquals(2, hours[12]);
+    }
+
+    @Test
+    public void whenFindingStreaksGapsEndThem() {
+        List<Track> tracks = new ArrayList<>();
+        for (int day = 1; day <= 3; day++)
+            tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, day, 12));
+        for (int day = 10; day <= 14; day++)
+            tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, day, 12));
+        tracks.add(track("Snail Mail", "Lush", "Heat Wave", 2019, 7, 14, 20));
+        for (int day = 20; day <= 21; day++)
+            tracks.add(track("Snail Mail", "Lush", "Pristine", 2019, 7, day, 12));
+        ListeningAnalytics analytics = ListeningAnalytics.of(tracks);
+
+        ListeningAnalytics.Streak longest = analytics.longestStreak(NEW_YORK);
+        assertEquals(LocalDate.of(2019, 7, 10), longest.getFirstDay());
+        assertEquals(LocalDate.of(2019, 7, 14), longest.getLastDay());
+        assertEquals(5, longest.getDays());
+
+        ListeningAnalytics.Streak current = analytics.currentStreak(NEW_YORK, LocalDate.of(2019, 7, 22));
+        assertEquals(LocalDate.of(2019, 7, 20), current.getFirstDay());
+        assertEquals(2, current.getDays());
+        assertNull(analytics.currentStreak(NEW_YORK, LocalDate.of(2019, 7, 23)));
+        assertNull(ListeningAnalytics.of(new ArrayList<>()).longestStreak(NEW_YORK));
+    }
+
+    @Test
+    public void whenCountingManyScrobblesTheCountsMatchCountingOneByOne() {
+        Random random = new Random(1);
+        List<Track> tracks = new ArrayList<>();
+        int[] expected = new int[40];
+        long start = seconds(2015, 1, 1, 0);
+        for (int i = 0; i < 200000; i++) {
+            int artist = (int) Math.abs(random.nextGaussian() * 10) % expected.length;
+            long time = start + random.nextInt(4 * 365 * 86400);
+            tracks.add(new Track("Artist " + artist, "Album " + artist % 3, "Track " + i % 17,
+                    new Date(time * 1000L), null, null));
+            expected[artist]++;
+        }
+        ListeningAnalytics analytics = ListeningAnalytics.of(tracks);
+        assertEquals(tracks.size(), analytics.size());
+        List<PlayCount> artists = analytics.topArtists(new TimeWindow(0, 0), expected.length);
+        assertEquals(expected.length, artists.size());
+        for (int i = 0; i < artists.size(); i++) {
+            PlayCount count = artists.get(i);
+            assertEquals(expected[Integer.parseInt(count.getArtist().substring(7))], count.getPlays());
+            if (i > 0) assertTrue(artists.get(i - 1).getPlays() >= count.getPlays());
+        }
+    }
+
+    private static Track track(String artist, String album, String name, int year, int month, int day, int hour) {
+        long epochSecond = ZonedDateTime.of(year, month, day, hour, 0, 0, 0, NEW_YORK).toEpochSecond();
+        return new Track(artist, album, name, new Date(epochSecond * 1000L), null, null);
+    }
+
+    private static long seconds(int year, int month, int day, int hour) {
+        return ZonedDateTime.of(year, month, day, hour, 0, 0, 0, NEW_YORK).toEpochSecond();
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MultiUserFetcherTest {
+    private MockLastFmServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = TrackFetcherTest.newServer(1234, 5);
+        server.start(0);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * Keeps every user's tracks in a list of their own, starting from a given number of tracks behind the newest.
+     */
+    private static class MemoryUserStore implements MultiUserFetcher.UserStore {
+        private final Map<String, List<Track>> tracks = Collections.synchronizedMap(new HashMap<>());
+        private final Map<String, Integer> behind = new HashMap<>();
+
+        @Override
+        public Date selectLastTime(String username) {
+            return TrackFetcherTest.scrobblesBeforeNewest(behind.get(username));
+        }
+
+        @Override
+        public TrackSink openSink(String username) {
+            List<Track> userTracks = tracks.computeIfAbsent(username, key -> Collections.synchronizedList(new ArrayList<>()));
+            return userTracks::add;
+        }
+    }
+
+    @Test
+    public void whenFetchingManyUsersEachGetsOnlyTheirNewTracks() throws IOException {
+        MemoryUserStore store = new MemoryUserStore();
+        store.behind.put("alice", 10);
+        store.behind.put("bob", 120);
+        store.behind.put("carol", 0);
+        TrackFetcher template = new TrackFetcher(server.getApiRoot(), "key", "template", null, new Date(0));
+
+        try (MultiUserFetcher fetcher = new MultiUserFetcher(template, Arrays.asList("alice", "bob", "carol"), store, 2)) {
+            assertEquals(130, fetcher.poll());
+            assertEquals(10, store.tracks.get("alice").size());
+            assertEquals(120, store.tracks.get("bob").size());
+            assertTrue(store.tracks.get("carol").isEmpty());
+
+            long requests = server.getRequestCount();
+            assertEquals(0, fetcher.poll());
+            assertEquals(requests + 3, server.getRequestCount());
+            for (MultiUserFetcher.User user : fetcher.getUsers()) {
+                assertEquals(TrackFetcherTest.scrobblesBeforeNewest(0), user.getLastTime());
+                assertNull(user.getLastError());
+            }
+        }
+        assertEquals(server.getRequestCount(), template.getHttpClient().getRequestCount());
+    }
+}
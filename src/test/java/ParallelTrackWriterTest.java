@@ -0,0 +1,88 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelTrackWriterTest {
+    /**
+     * Stands in for the tracks table: tracks are only kept once they are committed.
+     */
+    private static class CommittingSink implements TrackSink {
+        private final List<Track> table;
+        private final List<Track> transaction = new ArrayList<>();
+
+        CommittingSink(List<Track> table) {
+            this.table = table;
+        }
+
+        @Override
+        public void accept(Track track) throws IOException {
+            transaction.add(track);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            table.addAll(transaction);
+            transaction.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    @Test
+    public void whenWritingOnSeveralConnectionsEveryTrackIsCommitted() throws Exception {
+        List<Track> table = Collections.synchronizedList(new ArrayList<>());
+        ConnectionPool pool = new ConnectionPool(() -> ConnectionPoolTest.stubConnection(new AtomicBoolean(true)), 4);
+        List<Track> tracks = TrackPipelineTest.sampleTracks(1000);
+        try (ParallelTrackWriter writer = new ParallelTrackWriter(pool, connection -> new CommittingSink(table),
+                4, 25, 100, 50)) {
+            for (Track track : tracks)
+                writer.accept(track);
+        }
+        assertEquals(1000, table.size());
+        assertArrayEquals(tracks.stream().map(Track::getName).sorted().toArray(),
+                new ArrayList<>(table).stream().map(Track::getName).sorted().toArray());
+        assertEquals(4, pool.getIdleCount());
+    }
+
+    @Test
+    public void whenAConnectionDropsTheUncommittedTracksAreWrittenAgain() throws Exception {
+        List<Track> table = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean firstAlive = new AtomicBoolean(true);
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger accepted = new AtomicInteger();
+        ConnectionPool pool = new ConnectionPool(() -> ConnectionPoolTest.stubConnection(
+                opened.getAndIncrement() == 0 ? firstAlive : new AtomicBoolean(true)), 2);
+        ParallelTrackWriter writer = new ParallelTrackWriter(pool, connection -> new CommittingSink(table) {
+            @Override
+            public void accept(Track track) throws IOException {
+                if (!pool.isValid(connection)) throw new IOException("Connection lost");
+                super.accept(track);
+                // Drop the connection halfway through the second transaction.
+                if (accepted.incrementAndGet() == 35) firstAlive.set(false);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (!pool.isValid(connection)) throw new IOException("Connection lost");
+                super.flush();
+            }
+        }, 1, 10, 30, 10);
+        try (ParallelTrackWriter closingWriter = writer) {
+            for (Track track : TrackPipelineTest.sampleTracks(45))
+                closingWriter.accept(track);
+        }
+        assertEquals(1, writer.getReconnectCount());
+        assertEquals(45, table.size());
+        assertEquals(45, new ArrayList<>(table).stream().map(Track::getName).distinct().count());
+    }
+}
@@ -0,0 +1,103 @@
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PartitioningSinkTest {
+    /**
+     * Makes a connection that lists some partitions as existing and records every other statement run on it.
+     */
+    private static Connection stubConnection(List<String> events, String... partitions) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            return proxy(PreparedStatement.class, (name, statementArgs) ->
+                                    name.equals("executeQuery") ? resultSet(partitions) : null);
+                        case "createStatement":
+                            return proxy(Statement.class, (name, statementArgs) -> {
+                                if (name.equals("execute")) events.add((String) statementArgs[0]);
+                                return name.equals("execute") ? false : null;
+                            });
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static ResultSet resultSet(String... rows) {
+        Iterator<String> remaining = Arrays.asList(rows).iterator();
+        String[] current = new String[1];
+        return proxy(ResultSet.class, (name, args) -> {
+            if (name.equals("next")) {
+                if (!remaining.hasNext()) return false;
+                current[0] = remaining.next();
+                return true;
+            }
+            return name.equals("getString") ? current[0] : null;
+        });
+    }
+
+    private interface Handler {
+        Object handle(String name, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.handle(method.getName(), args)));
+    }
+
+    @Test
+    public void whenAMonthHasNoPartitionTheWritersAreFlushedAndItIsCreated() throws Exception {
+        List<String> events = new ArrayList<>();
+        TrackSink downstream = new TrackSink() {
+            @Override
+            public void accept(Track track) {
+                events.add("accept " + track.getName());
+            }
+
+            @Override
+            public void flush() {
+                events.add("flush");
+            }
+        };
+        Connection connection = stubConnection(events, "tracks_y2019m07");
+        try (PartitioningSink sink = new PartitioningSink(downstream, connection, "public")) {
+            sink.accept(track("Pristine", "2019-07-16 12:00:00"));
+            sink.accept(track("Heat Wave", "2019-07-01 00:00:00"));
+            sink.accept(track("Speaking Terms", "2019-06-30 23:59:59"));
+            sink.accept(track("Full Control", "2019-06-02 08:00:00"));
+            sink.accept(track("Stick", "2019-05-31 20:00:00"));
+        }
+
+        assertEquals(Arrays.asList(
+                "accept Pristine",
+                "accept Heat Wave",
+                "flush",
+                TrackSchema.createPartitionSql("public", YearMonth.of(2019, 6)),
+                "accept Speaking Terms",
+                "accept Full Control",
+                "flush",
+                TrackSchema.createPartitionSql("public", YearMonth.of(2019, 5)),
+                "accept Stick"), events);
+        assertEquals("CREATE TABLE IF NOT EXISTS \"public\".tracks_y2019m06 PARTITION OF \"public\".tracks"
+                        + " FOR VALUES FROM ('2019-06-01 00:00:00.0') TO ('2019-07-01 00:00:00.0')",
+                TrackSchema.createPartitionSql("public", YearMonth.of(2019, 6)));
+    }
+
+    private static Track track(String name, String listenedAt) {
+        return new Track("Snail Mail", "Lush", name, new Date(Timestamp.valueOf(listenedAt).getTime()), null, null);
+    }
+}
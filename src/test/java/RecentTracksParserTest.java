@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecentTracksParserTest {
+    @Test
+    public void whenParsingAPageTheTracksAndAttributesAreRead() throws IOException {
+        RecentTracksPage page;
+        try (InputStream stream = getClass().getResourceAsStream("/recenttracks-page.json")) {
+            page = new RecentTracksParser().parse(stream);
+        }
+        assertEquals(1, page.getPage());
+        assertEquals(2, page.getPerPage());
+        assertEquals(20615, page.getTotalPages());
+        assertEquals(41230, page.getTotal());
+
+        List<Track> tracks = page.getTracks();
+        assertEquals(2, tracks.size());
+        Track track = tracks.get(0);
+        assertEquals("Nana Grizol", track.getArtist());
+        assertEquals("Love It Love It", track.getAlbum());
+        assertEquals("Circles 'Round the Moon", track.getName());
+        assertEquals(new Date(1563283092000L), track.getListenedAt());
+        assertEquals("https://www.last.fm/music/Nana+Grizol/_/Circles+%27Round+the+Moon", track.getUrl());
+        assertEquals("https://lastfm-img2.akamaized.net/i/u/300x300/2343f2d43d3f440ea9e5d5d75f032524.png",
+                track.getImageUrl());
+        assertEquals("Tenderness", tracks.get(1).getName());
+    }
+
+    @Test
+    public void whenTheResponseIsAnApiErrorItIsReported() {
+        String body = "{\"error\":6,\"message\":\"User not found\",\"links\":[]}";
+        try {
+            new RecentTracksParser().parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+            fail("Expected the API error to be reported");
+        } catch (IOException e) {
+            assertEquals("last.fm error 6: User not found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void whenParsingTwoPagesTheTracksShareTheirStrings() throws IOException {
+        RecentTracksParser parser = new RecentTracksParser();
+        List<Track> first, second;
+        try (InputStream stream = getClass().getResourceAsStream("/recenttracks-page.json")) {
+            first = parser.parse(stream).getTracks();
+        }
+        try (InputStream stream = getClass().getResourceAsStream("/recenttracks-page.json")) {
+            second = parser.parse(stream).getTracks();
+        }
+        assertEquals(first, second);
+        assertSame(first.get(0).getArtist(), second.get(0).getArtist());
+        assertSame(first.get(0).getImageUrl(), second.get(0).getImageUrl());
+        assertSame(first.get(0).getUrl(), second.get(0).getUrl());
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+    private static final String ROOT = "http://localhost:8080/2.0/?method=user.getrecenttracks&format=json&user=u";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static URL settledPage(int page) throws IOException {
+        return new URL(ROOT + "&api_key=a&from=1000&to=2000&page=" + page);
+    }
+
+    private static byte[] body(int page, int length) {
+        byte[] body = new byte[length];
+        body[0] = (byte) page;
+        return body;
+    }
+
+    @Test
+    public void whenKeyingTheApiKeyAndParameterOrderAreIgnored() throws IOException {
+        URL url = new URL(ROOT + "&api_key=first&page=2&to=2000");
+        URL reordered = new URL("http://localhost:8080/2.0/?page=2&to=2000&user=u&format=json"
+                + "&method=user.getrecenttracks&api_key=second");
+
+        assertEquals(ResponseCache.keyOf(url), ResponseCache.keyOf(reordered));
+        assertNotEquals(ResponseCache.keyOf(url), ResponseCache.keyOf(new URL(ROOT + "&page=3&to=2000")));
+    }
+
+    @Test
+    public void whenMemoryIsFullTheLeastRecentlyUsedResponseIsEvicted() throws IOException {
+        ResponseCache cache = new ResponseCache(250);
+        cache.put(settledPage(1), body(1, 100));
+        cache.put(settledPage(2), body(2, 100));
+        assertNotNull(cache.get(settledPage(1)));
+        cache.put(settledPage(3), body(3, 100));
+
+        assertNotNull(cache.get(settledPage(1)));
+        assertNull(cache.get(settledPage(2)));
+        assertNotNull(cache.get(settledPage(3)));
+        assertEquals(200, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void whenAPageMayStillChangeItIsOnlyKeptBriefly() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ResponseCache cache = new ResponseCache(1 << 20, directory, 1 << 20);
+        cache.setFreshTime(50);
+        URL openEnded = new URL(ROOT + "&from=1000&page=1");
+        URL recent = new URL(ROOT + "&from=1000&to=" + System.currentTimeMillis() / 1000L + "&page=1");
+        cache.put(openEnded, body(1, 10));
+        cache.put(recent, body(1, 10));
+
+        assertNotNull(cache.get(openEnded));
+        assertNotNull(cache.get(recent));
+        assertEquals(0, cache.getDiskBytes());
+        Thread.sleep(100);
+        assertNull(cache.get(openEnded));
+        assertNull(cache.get(recent));
+    }
+
+    @Test
+    public void whenReopenedSettledPagesAreReadFromDiskWithinItsBound() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        ResponseCache cache = new ResponseCache(1 << 20, directory, 1 << 20);
+        byte[] body = "{\"recenttracks\":{}}".getBytes(StandardCharsets.UTF_8);
+        cache.put(settledPage(1), body);
+        for (int page = 2; page <= 5; page++)
+            cache.put(settledPage(page), body(page, 1000));
+
+        ResponseCache reopened = new ResponseCache(1 << 20, directory, 1 << 20);
+        assertArrayEquals(body, reopened.get(settledPage(1)));
+        assertEquals(1, reopened.getDiskHitCount());
+        assertArrayEquals(body, reopened.get(settledPage(1)));
+        assertEquals(1, reopened.getMemoryHitCount());
+
+        long fileSize = Files.size(Files.list(directory).filter(file -> !file.equals(directory)).findFirst().get());
+        ResponseCache bounded = new ResponseCache(1 << 20, directory, 2 * fileSize + fileSize / 2);
+        assertTrue(bounded.getDiskBytes() <= 2 * fileSize + fileSize / 2);
+        assertEquals(2, Files.list(directory).count());
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+    private static LastFmException rateLimited(long retryAfterMillis) {
+        return new LastFmException("HTTP 429", 429, LastFmException.RATE_LIMIT_EXCEEDED, retryAfterMillis);
+    }
+
+    @Test
+    public void whenThrottledItWaitsAsLongAsTheServerAsksAndSlowsTheLimiter() throws IOException {
+        RetryPolicy policy = new RetryPolicy(3, 1, 5);
+        RateLimiter limiter = new RateLimiter(10);
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String response = policy.call(() -> {
+            if (calls.incrementAndGet() == 1) throw rateLimited(200);
+            return "page";
+        }, limiter);
+
+        assertEquals("page", response);
+        assertEquals(2, calls.get());
+        assertEquals(1, policy.getRetryCount());
+        assertTrue(System.nanoTime() - start >= 200000000L);
+        assertTrue(limiter.getPermitsPerSecond() < 10);
+    }
+
+    @Test
+    public void whenTheErrorCantBeFixedByRetryingItFailsStraightAway() {
+        RetryPolicy policy = new RetryPolicy(5, 1, 5);
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            policy.call(() -> {
+                calls.incrementAndGet();
+                throw new LastFmException("last.fm error 6: User not found", 200, 6, -1);
+            }, RateLimiter.unlimited());
+            fail("Expected the error to be rethrown");
+        } catch (IOException e) {
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void whenEveryAttemptFailsTheLastErrorIsRethrown() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 5);
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            policy.call(() -> {
+                throw new IOException("Connection reset " + calls.incrementAndGet());
+            }, RateLimiter.unlimited());
+            fail("Expected the error to be rethrown");
+        } catch (IOException e) {
+            assertEquals("Connection reset 3", e.getMessage());
+        }
+    }
+
+    @Test
+    public void whenTheServerSendsRetryAfterItIsReadAsSecondsOrADate() {
+        assertEquals(120000, LastFmHttpClient.parseRetryAfter("120"));
+        assertEquals(0, LastFmHttpClient.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertEquals(-1, LastFmHttpClient.parseRetryAfter(null));
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackArchiveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Track> tracks(int count) {
+        List<Track> tracks = new ArrayList<>(count);
+        long uts = 1563768000L;
+        for (int i = 0; i < count; i++) {
+            int album = i / 12;
+            uts -= 120 + (i * 37) % 400;
+            tracks.add(new Track("Artist " + album % 7, i % 50 == 0 ? null : "Album " + album, "Track " + i % 12 + " \u2713",
+                    new Date(uts * 1000L), "https://example.com/" + album + ".png", "https://example.com/" + i));
+        }
+        return tracks;
+    }
+
+    private List<Track> roundTrip(List<Track> tracks, boolean compress, int chunkSize) throws Exception {
+        Path path = folder.newFile().toPath();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (TrackArchiveWriter writer = new TrackArchiveWriter(channel, compress, chunkSize)) {
+            for (Track track : tracks)
+                writer.accept(track);
+        }
+        List<Track> read = new ArrayList<>();
+        try (TrackArchiveReader reader = new TrackArchiveReader(path)) {
+            assertEquals(tracks.size(), reader.readAll(read::add));
+        }
+        return read;
+    }
+
+    @Test
+    public void whenReadingAnArchiveTheTracksComeBackUnchanged() throws Exception {
+        List<Track> tracks = tracks(1000);
+        for (boolean compress : new boolean[]{false, true}) {
+            List<Track> read = roundTrip(tracks, compress, 64);
+            assertEquals(tracks.size(), read.size());
+            for (int i = 0; i < tracks.size(); i++) {
+                Track expected = tracks.get(i), actual = read.get(i);
+                assertEquals(expected.getArtist(), actual.getArtist());
+                assertEquals(expected.getAlbum(), actual.getAlbum());
+                assertEquals(expected.getName(), actual.getName());
+                assertEquals(expected.getListenedAt(), actual.getListenedAt());
+                assertEquals(expected.getUrl(), actual.getUrl());
+                assertEquals(expected.getImageUrl(), actual.getImageUrl());
+            }
+        }
+        assertTrue(roundTrip(new ArrayList<>(), true, 64).isEmpty());
+    }
+
+    @Test
+    public void whenScanningChunksTheTimesAndIdsAreReadWithoutTracks() throws Exception {
+        List<Track> tracks = tracks(300);
+        Path path = folder.newFile().toPath();
+        try (TrackArchiveWriter writer = new TrackArchiveWriter(
+                FileChannel.open(path, StandardOpenOption.WRITE), false, 100)) {
+            for (Track track : tracks)
+                writer.accept(track);
+        }
+        try (TrackArchiveReader reader = new TrackArchiveReader(path)) {
+            assertTrue(reader.nextChunk());
+            assertEquals(100, reader.getRowCount());
+            assertEquals(tracks.get(0).getListenedAt().getTime() / 1000L, reader.getNewest());
+            assertEquals(tracks.get(99).getListenedAt().getTime() / 1000L, reader.getOldest());
+            assertEquals(reader.getNewest(), reader.getListenedAt()[0]);
+            int[] artists = reader.getIds(TrackArchive.Column.ARTIST);
+            assertEquals("Artist 0", reader.getString(TrackArchive.Column.ARTIST, artists[0]));
+            assertEquals(7, reader.getDictionarySize(TrackArchive.Column.ARTIST));
+            assertTrue(reader.nextChunk());
+            assertTrue(reader.nextChunk());
+            assertFalse(reader.nextChunk());
+        }
+    }
+}
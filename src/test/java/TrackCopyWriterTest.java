@@ -0,0 +1,21 @@
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.*;
+
+public class TrackCopyWriterTest {
+    @Test
+    public void whenFieldsContainQuotesAndCommasTheyAreEscaped() {
+        Date listenedAt = new GregorianCalendar(2019, Calendar.JULY, 16, 13, 18, 12).getTime();
+        Track track = new Track("Nana Grizol", "Ruth", "Tuesday, \"Thursday\"", listenedAt, null,
+                "https://www.last.fm/music/Nana+Grizol");
+        StringBuilder row = new StringBuilder();
+        TrackCopyWriter.appendCsvRow(row, track, "2019-07-17 00:00:00.0");
+        assertEquals("\"Nana Grizol\",\"Ruth\",\"Tuesday, \"\"Thursday\"\"\",\"2019-07-16 13:18:12.0\","
+                + "\"2019-07-17 00:00:00.0\",\"2019-07-17 00:00:00.0\",\"https://www.last.fm/music/Nana+Grizol\",\n",
+                row.toString());
+    }
+}
@@ -0,0 +1,318 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackFetcherTest {
+    /**
+     * The time of the newest scrobble on the mock server, in seconds, and the gap between scrobbles. The other tests
+     * against the mock server share these and {@link #newServer(int, long)}.
+     */
+    static final long NEWEST_UTS = 1563768000L;
+    static final int SPACING_SECONDS = 180;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockLastFmServer server;
+
+    /**
+     * Makes a mock server whose newest scrobble is at {@link #NEWEST_UTS}.
+     *
+     * @param totalTracks   the number of scrobbles in its history.
+     * @param latencyMillis the latency added to every response.
+     * @return the server, not started.
+     */
+    static MockLastFmServer newServer(int totalTracks, long latencyMillis) {
+        return new MockLastFmServer(totalTracks, NEWEST_UTS, SPACING_SECONDS, latencyMillis);
+    }
+
+    /**
+     * Gets the time of the scrobble a number of scrobbles older than the newest on the mock server.
+     */
+    static Date scrobblesBeforeNewest(long count) {
+        return new Date((NEWEST_UTS - count * SPACING_SECONDS) * 1000L);
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = newServer(1234, 5);
+        server.start(0);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    private TrackFetcher newFetcher(Date lastTime) {
+        return new TrackFetcher(server.getApiRoot(), "key", "user", null, lastTime);
+    }
+
+    @Test
+    public void whenFetchingConcurrentlyTheTracksAreInPageOrder() {
+        TrackFetcher sequential = newFetcher(new Date(0));
+        sequential.fetchNewTracks();
+
+        TrackFetcher concurrent = newFetcher(new Date(0));
+        concurrent.setConcurrency(8);
+        concurrent.fetchNewTracks();
+
+        List<Track> tracks = concurrent.getTracks();
+        assertEquals(1234, tracks.size());
+        assertEquals(sequential.getTracks(), tracks);
+        for (int i = 1; i < tracks.size(); i++)
+            assertTrue(tracks.get(i - 1).getListenedAt().after(tracks.get(i).getListenedAt()));
+    }
+
+    @Test
+    public void whenFetchingTheFirstPageIsOnlyRequestedOnce() {
+        TrackFetcher fetcher = newFetcher(new Date(0));
+        fetcher.fetchNewTracks();
+
+        assertEquals(1234, fetcher.getTracks().size());
+        assertEquals((1234 + TrackFetcher.MAX_PAGE_SIZE - 1) / TrackFetcher.MAX_PAGE_SIZE, server.getRequestCount());
+    }
+
+    @Test
+    public void whenFetchingConcurrentlyItStopsAtTheLastTime() {
+        Date lastTime = scrobblesBeforeNewest(120);
+        TrackFetcher concurrent = newFetcher(lastTime);
+        concurrent.setConcurrency(4);
+        concurrent.fetchNewTracks();
+
+        assertEquals(120, concurrent.getTracks().size());
+        assertTrue(server.getRequestCount() < 1 + 3 + 4);
+    }
+
+    @Test
+    public void whenFetchingPagesTheResponsesAreCompressedAndConnectionsReused() {
+        TrackFetcher fetcher = newFetcher(new Date(0));
+        fetcher.fetchNewTracks();
+
+        LastFmHttpClient client = fetcher.getHttpClient();
+        assertEquals(1234, fetcher.getTracks().size());
+        assertEquals(server.getRequestCount(), client.getRequestCount());
+        assertEquals(client.getRequestCount(), client.getCompressedResponseCount());
+        assertTrue(client.getWireBytes() * 4 < client.getDecodedBytes());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void whenFetchingPagesTheirTracksAndLatenciesAreMeasured() {
+        TrackFetcher fetcher = newFetcher(new Date(0));
+        fetcher.setConcurrency(4);
+        FetchMetrics metrics = fetcher.getMetrics();
+        metrics.watch(fetcher.getHttpClient(), fetcher.getRetryPolicy());
+        fetcher.fetchNewTracks();
+
+        assertEquals(1234, metrics.getTracksFetched());
+        assertEquals(0, metrics.getPagesFailed());
+        assertTrue(metrics.getPagesFetched() > 0);
+        assertEquals(server.getRequestCount(), metrics.getRequestCount());
+        assertTrue(metrics.toPrometheus().contains("lastfm_tracks_fetched_total 1234\n"));
+    }
+
+    @Test
+    public void whenCachingSettledPagesTheNextRunOnlyFetchesTheNewestWindow() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        TrackFetcher first = newFetcher(new Date(0));
+        first.setWindowSize(100);
+        first.getHttpClient().setCache(new ResponseCache(1 << 20, directory, 64 << 20));
+        first.fetchNewTracks();
+        long requests = server.getRequestCount();
+
+        TrackFetcher second = newFetcher(new Date(0));
+        second.setWindowSize(100);
+        ResponseCache cache = new ResponseCache(1 << 20, directory, 64 << 20);
+        second.getHttpClient().setCache(cache);
+        second.fetchNewTracks();
+
+        // Only the newest window, which ends now and so may still gain scrobbles, is fetched again.
+        long refetched = second.getHttpClient().getRequestCount();
+        assertEquals(requests + refetched, server.getRequestCount());
+        assertTrue(refetched < requests / 2);
+        assertEquals(requests - refetched, cache.getDiskHitCount());
+        assertEquals(first.getTracks(), second.getTracks());
+    }
+
+    @Test
+    public void whenPagesAreCachedTheyAreReadWithoutWaitingOnTheRateLimit() throws IOException {
+        ResponseCache cache = new ResponseCache(1 << 20);
+        TrackFetcher first = newFetcher(new Date(0));
+        first.getHttpClient().setCache(cache);
+        first.fetchNewTracks();
+
+        // At one request a second, waiting for a permit for each cached page would take several seconds.
+        TrackFetcher second = newFetcher(new Date(0));
+        second.getHttpClient().setCache(cache);
+        second.setRequestsPerSecond(1);
+        long started = System.nanoTime();
+        second.fetchNewTracks();
+
+        assertEquals(0, second.getHttpClient().getRequestCount());
+        assertTrue(System.nanoTime() - started < 1000000000L);
+        assertEquals(first.getTracks(), second.getTracks());
+    }
+
+    @Test
+    public void whenTheServerFailsAndThrottlesEveryPageIsStillFetched() {
+        server.setFailureRates(0.1, 0.1);
+        server.setRetryAfterSeconds(0);
+        TrackFetcher fetcher = newFetcher(new Date(0));
+        fetcher.setPageSize(50);
+        fetcher.setConcurrency(4);
+        fetcher.setRetryPolicy(new RetryPolicy(10, 1, 10));
+        fetcher.fetchNewTracks();
+
+        assertEquals(1234, fetcher.getTracks().size());
+        assertTrue(fetcher.getFailedPages().isEmpty());
+        assertTrue(server.getErrorCount() > 0);
+        assertTrue(server.getThrottleCount() > 0);
+        assertEquals(server.getErrorCount() + server.getThrottleCount(), fetcher.getRetryPolicy().getRetryCount());
+    }
+
+    @Test
+    public void whenReplayingARecordingTheSameTracksAreFetched() throws IOException {
+        ResponseRecording recording = new ResponseRecording(folder.getRoot().toPath().resolve("recording"));
+        TrackFetcher recorded = newFetcher(new Date(0));
+        recorded.getHttpClient().setRecording(recording);
+        recorded.fetchNewTracks();
+
+        MockLastFmServer replay = new MockLastFmServer(recording, 0);
+        replay.start(0);
+        try {
+            TrackFetcher replayed = new TrackFetcher(replay.getApiRoot(), "another key", "user", null, new Date(0));
+            replayed.setConcurrency(4);
+            replayed.fetchNewTracks();
+
+            assertEquals(recorded.getTracks(), replayed.getTracks());
+            assertEquals(server.getRequestCount(), replay.getRequestCount());
+        } finally {
+            replay.stop();
+        }
+    }
+
+    @Test
+    public void whenResumingFromACheckpointOnlyTheUnwrittenPagesAreFetched() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("fetch.checkpoint");
+        List<Track> written = new ArrayList<>();
+
+        TrackFetcher interrupted = newFetcher(new Date(0));
+        interrupted.setPageSize(50);
+        interrupted.setCheckpoint(FetchCheckpoint.load(path));
+        try {
+            interrupted.fetchNewTracks(track -> {
+                if (written.size() == 320) throw new IOException("Connection lost");
+                written.add(track);
+            });
+            fail("The sink should have failed");
+        } catch (IOException expected) {
+            // The first 6 pages of 50 were written before the sink failed part way through the 7th.
+        }
+        assertEquals(6, FetchCheckpoint.load(path).getCompletedCount());
+
+        long requestsBefore = server.getRequestCount();
+        List<Track> resumed = new ArrayList<>();
+        TrackFetcher resuming = newFetcher(new Date(0));
+        resuming.setPageSize(50);
+        resuming.setCheckpoint(FetchCheckpoint.load(path));
+        resuming.setConcurrency(4);
+        resuming.fetchNewTracks(resumed::add);
+
+        // Planning fetches page 1, which was already written, so only the pages after it are fetched on top.
+        assertEquals(1 + 25 - 6, server.getRequestCount() - requestsBefore);
+        TrackFetcher full = newFetcher(new Date(0));
+        full.fetchNewTracks();
+        assertEquals(full.getTracks().subList(300, 1234), resumed);
+        assertEquals(full.getTracks().subList(0, 300), written.subList(0, 300));
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void whenFetchingInTimeWindowsTheTracksMatchASingleCursor() {
+        TrackFetcher sequential = newFetcher(new Date(0));
+        sequential.fetchNewTracks();
+
+        TrackFetcher sharded = newFetcher(new Date(0));
+        sharded.setWindowSize(100);
+        sharded.setConcurrency(8);
+        sharded.fetchNewTracks();
+
+        assertEquals(1234, sharded.getTracks().size());
+        assertEquals(sequential.getTracks(), sharded.getTracks());
+    }
+
+    @Test
+    public void whenFetchingInTimeWindowsItStopsAtTheLastTime() {
+        Date lastTime = scrobblesBeforeNewest(500);
+        TrackFetcher sharded = newFetcher(lastTime);
+        sharded.setWindowSize(100);
+        sharded.fetchNewTracks();
+
+        List<Track> tracks = sharded.getTracks();
+        assertEquals(500, tracks.size());
+        assertTrue(tracks.get(tracks.size() - 1).getListenedAt().after(lastTime));
+    }
+
+    @Test
+    public void whenPollingOnlyTheNewTracksAreFetchedInASingleRequest() throws IOException {
+        TrackFetcher fetcher = newFetcher(scrobblesBeforeNewest(10));
+        List<Track> written = new ArrayList<>();
+
+        assertEquals(10, fetcher.pollNewTracks(written::add));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(new Date(NEWEST_UTS * 1000L), fetcher.getLastTime());
+
+        assertEquals(0, fetcher.pollNewTracks(written::add));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(10, written.size());
+    }
+
+    @Test
+    public void whenADaemonsSinkFailsTheTracksAreFetchedAgainThroughANewPipeline() throws IOException {
+        Date lastTime = scrobblesBeforeNewest(10);
+        TrackFetcher fetcher = newFetcher(lastTime);
+        List<Track> written = new ArrayList<>();
+        int[] opened = new int[1];
+        SyncDaemon daemon = new SyncDaemon(fetcher, () -> {
+            boolean failing = opened[0]++ == 0;
+            return new TrackPipeline(track -> {
+                if (failing) throw new IOException("Database is down");
+                written.add(track);
+            }, 100);
+        }, 60000);
+
+        assertFalse(daemon.poll());
+        assertEquals(lastTime, fetcher.getLastTime());
+        assertTrue(daemon.poll());
+        assertEquals(2, opened[0]);
+        assertEquals(10, written.size());
+        assertEquals(new Date(NEWEST_UTS * 1000L), fetcher.getLastTime());
+        assertTrue(daemon.poll());
+        assertEquals(2, opened[0]);
+        daemon.close();
+    }
+
+    @Test
+    public void whenPollingAfterAPauseEveryPageOfNewTracksIsFetched() throws IOException {
+        TrackFetcher fetcher = newFetcher(scrobblesBeforeNewest(120));
+        fetcher.setPageSize(50);
+        List<Track> written = new ArrayList<>();
+
+        assertEquals(120, fetcher.pollNewTracks(written::add));
+        assertEquals(120, written.size());
+        assertEquals(3, server.getRequestCount());
+        assertEquals(0, fetcher.pollNewTracks(written::add));
+    }
+}
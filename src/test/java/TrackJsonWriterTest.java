@@ -0,0 +1,38 @@
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class TrackJsonWriterTest {
+    @Test
+    public void whenSerializingATrackTheJsonMatchesOrgJson() {
+        Track[] tracks = {
+                new Track("Parquet Courts", "Wide Awake!", "Tenderness", new Date(1563283092000L),
+                        "https://lastfm-img2.akamaized.net/i/u/300x300/a.png", "https://www.last.fm/music/Parquet+Courts"),
+                new Track("Snail \"Mail\"", null, "Tab\tNew\nLine</b>\\ \u0001\u0085\u00e9\u2028\ud83c\udfb5",
+                        new Date(0), null, "a/b"),
+                new Track(null, null, null, null, null, null),
+        };
+        for (Track track : tracks)
+            assertEquals(new JSONObject(track).toString(), TrackJsonWriter.toJson(track));
+    }
+
+    @Test
+    public void whenWritingNdjsonEachTrackIsALineWithItsTime() throws Exception {
+        Track track = new Track("Nana Grizol", "Love It Love It", "Tenderness", new Date(1563283092000L), null, "url");
+        StringWriter output = new StringWriter();
+        try (TrackJsonWriter writer = new TrackJsonWriter(output)) {
+            writer.writeLine(track);
+            writer.writeLine(track);
+        }
+        String[] lines = output.toString().split("\n");
+        assertEquals(2, lines.length);
+        JSONObject parsed = new JSONObject(lines[0]);
+        assertEquals(1563283092L, parsed.getLong("uts"));
+        assertEquals("Tenderness", parsed.getString("name"));
+        assertFalse(parsed.has("imageUrl"));
+    }
+}
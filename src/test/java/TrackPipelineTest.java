@@ -0,0 +1,59 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.junit.Assert.*;
+
+public class TrackPipelineTest {
+    /**
+     * Makes tracks a second apart, newest first, each with its own name. The other writer tests share them.
+     */
+    static List<Track> sampleTracks(int count) {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            tracks.add(new Track("Waxahatchee", "Out in the Storm", "Track " + i,
+                    new Date((1563768000L - i) * 1000L), "https://example.com/art.png", "https://example.com/" + i));
+        return tracks;
+    }
+
+    @Test
+    public void whenTracksFlowThroughThePipelineTheJsonMatchesTheBufferedDump() throws IOException {
+        List<Track> tracks = sampleTracks(250);
+        StringWriter output = new StringWriter();
+        try (TrackPipeline pipeline = new TrackPipeline(new JsonTrackSink(new PrintWriter(output)), 8)) {
+            for (Track track : tracks)
+                pipeline.accept(track);
+        }
+
+        // Each object is the buffered dump's, with the time as uts added at the end.
+        StringJoiner expected = new StringJoiner(",", "[", "]" + System.lineSeparator());
+        for (Track track : tracks) {
+            String json = track.toJsonObject().toString();
+            expected.add(json.substring(0, json.length() - 1) + ",\"uts\":" + track.getListenedAt().getTime() / 1000L
+                    + "}");
+        }
+        assertEquals(expected.toString(), output.toString());
+    }
+
+    @Test
+    public void whenTheSinkFailsTheErrorReachesTheProducer() {
+        TrackSink failing = track -> {
+            throw new IOException("disk full");
+        };
+        try {
+            try (TrackPipeline pipeline = new TrackPipeline(failing, 2)) {
+                for (Track track : sampleTracks(100))
+                    pipeline.accept(track);
+            }
+            fail("Expected the sink failure to be rethrown");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackRollupsTest {
+    /**
+     * Records the statements run on a connection, and reports the tracks named "Duplicate" as already in the table.
+     */
+    private static class RecordingConnection {
+        final List<String> events = new ArrayList<>();
+        final List<List<Object>> rollupRows = new ArrayList<>();
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "prepareStatement":
+                                return statement((String) args[0]);
+                            case "commit":
+                                events.add("commit");
+                                return null;
+                            case "getAutoCommit":
+                                return true;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        private PreparedStatement statement(String sql) {
+            List<Object> row = new ArrayList<>();
+            List<List<Object>> batch = new ArrayList<>();
+            String table = sql.split(" ")[2];
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        String name = method.getName();
+                        if (name.startsWith("set")) {
+                            row.add(args[1]);
+                        } else if (name.equals("addBatch")) {
+                            batch.add(new ArrayList<>(row));
+                            row.clear();
+                        } else if (name.equals("executeBatch")) {
+                            events.add(table);
+                            int[] counts = new int[batch.size()];
+                            for (int i = 0; i < counts.length; i++) {
+                                List<Object> added = batch.get(i);
+                                counts[i] = "Duplicate".equals(added.get(2)) ? 0 : 1;
+                                if (!table.equals("tracks")) {
+                                    List<Object> rollupRow = new ArrayList<>(Arrays.asList(table));
+                                    rollupRow.addAll(added);
+                                    rollupRows.add(rollupRow);
+                                }
+                            }
+                            batch.clear();
+                            return counts;
+                        }
+                        return null;
+                    });
+        }
+    }
+
+    @Test
+    public void whenBatchesAreCommittedTheInsertedRowsAreCountedFirst() throws Exception {
+        RecordingConnection recording = new RecordingConnection();
+        TrackBatchWriter writer = new TrackBatchWriter(recording.connection(), 2, 4);
+        writer.setRollups(new TrackRollups());
+        long noon = Timestamp.valueOf("2019-07-16 12:00:00").getTime();
+        writer.accept(new Track("Snail Mail", "Lush", "Pristine", new Date(noon), null, null));
+        writer.accept(new Track("Snail Mail", "Lush", "Heat Wave", new Date(noon + 60000), null, null));
+        writer.accept(new Track("Snail Mail", "Lush", "Duplicate", new Date(noon + 120000), null, null));
+        writer.accept(new Track("Snail Mail", null, "Pristine", new Date(noon + 86400000), null, null));
+        writer.close();
+
+        assertEquals(Arrays.asList("tracks", "tracks", "artist_daily_plays", "album_daily_plays",
+                "track_daily_plays", "commit"), recording.events);
+        java.sql.Date july16 = java.sql.Date.valueOf("2019-07-16");
+        java.sql.Date july17 = java.sql.Date.valueOf("2019-07-17");
+        assertEquals(Arrays.asList(
+                Arrays.asList("artist_daily_plays", july16, "Snail Mail", 2),
+                Arrays.asList("artist_daily_plays", july17, "Snail Mail", 1),
+                Arrays.asList("album_daily_plays", july16, "Snail Mail", "Lush", 2),
+                Arrays.asList("album_daily_plays", july17, "Snail Mail", "", 1),
+                Arrays.asList("track_daily_plays", july16, "Snail Mail", "Heat Wave", 1),
+                Arrays.asList("track_daily_plays", july16, "Snail Mail", "Pristine", 1),
+                Arrays.asList("track_daily_plays", july17, "Snail Mail", "Pristine", 1)), recording.rollupRows);
+        assertEquals(3, writer.getInsertedRows());
+    }
+
+    @Test
+    public void whenCopyingTheMergeAddsTheInsertedRowsToEveryRollup() {
+        String sql = TrackCopyWriter.MERGE_WITH_ROLLUPS_SQL;
+        assertTrue(sql.startsWith("WITH inserted AS (INSERT INTO tracks"));
+        assertTrue(sql.contains("ON CONFLICT (artist, name, listened_at) DO NOTHING RETURNING"));
+        for (TrackRollups.Table table : TrackRollups.Table.values())
+            assertTrue(sql.contains("INSERT INTO " + table.getTableName()));
+        assertTrue(sql.endsWith("SELECT count(*) FROM inserted"));
+    }
+}
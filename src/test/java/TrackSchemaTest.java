@@ -0,0 +1,13 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrackSchemaTest {
+    @Test
+    public void whenAUserIsNamedLoadingTheirSchemaIsNotTheBackfillSchema() {
+        assertNotEquals(TrackSchema.LOADING_SCHEMA, PostgresUserStore.schemaName("loading"));
+        assertNotEquals(TrackSchema.LOADING_SCHEMA, PostgresUserStore.schemaName("_loading"));
+        // Every user schema shares a prefix, so no username can produce the backfill schema.
+        assertFalse(TrackSchema.LOADING_SCHEMA.startsWith(PostgresUserStore.schemaName("")));
+    }
+}
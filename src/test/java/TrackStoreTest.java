@@ -0,0 +1,109 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrackStoreTest {
+    private static final long NEWEST = 1563768000L;
+
+    @Test
+    public void whenTracksArriveNewestFirstTheyAreReadBackInTheSameOrder() {
+        List<Track> tracks = tracks(5000, 0);
+        TrackStore store = new TrackStore(16, false);
+        for (Track track : tracks)
+            store.accept(track);
+        assertEquals(tracks.size(), store.size());
+        assertEquals(tracks, store.getTracks(new TimeWindow(0, 0)));
+        assertEquals(NEWEST, store.getNewest());
+        assertEquals(NEWEST - 4999 * 180, store.getOldest());
+    }
+
+    @Test
+    public void whenTracksArriveInAnyOrderTheyAreSortedOnTheNextQuery() {
+        List<Track> tracks = tracks(3000, 0);
+        List<Track> shuffled = new ArrayList<>(tracks);
+        Collections.shuffle(shuffled, new Random(1));
+        TrackStore store = TrackStore.of(shuffled.subList(0, 1000));
+        assertEquals(1000, store.count(new TimeWindow(0, 0)));
+        // Appending after a query merges the new tracks with those already sorted.
+        for (Track track : shuffled.subList(1000, shuffled.size()))
+            store.add(track);
+        assertEquals(tracks, store.getTracks(new TimeWindow(0, 0)));
+    }
+
+    @Test
+    public void whenPollingNewerTracksAreAppended() {
+        List<Track> older = tracks(100, 1000);
+        List<Track> newer = tracks(10, 0);
+        TrackStore store = TrackStore.of(older);
+        assertEquals(older.get(0), store.iterator().next());
+        newer.forEach(store::add);
+        List<Track> all = new ArrayList<>(newer);
+        all.addAll(older);
+        List<Track> read = new ArrayList<>();
+        store.forEach(read::add);
+        assertEquals(all, read);
+    }
+
+    @Test
+    public void whenQueryingAWindowOnlyItsTracksAreWalked() {
+        List<Track> tracks = tracks(1000, 0);
+        TrackStore store = new TrackStore(64, true);
+        tracks.forEach(store::add);
+        assertTrue(store.isOffHeap());
+        long from = NEWEST - 99 * 180;
+        TimeWindow window = new TimeWindow(from, NEWEST);
+        assertEquals(99, store.count(window));
+        TrackStore.Cursor cursor = store.cursor(window);
+        assertEquals(99, cursor.size());
+        int walked = 0;
+        while (cursor.next()) {
+            Track expected = tracks.get(++walked);
+            assertEquals(expected.getListenedAt().getTime() / 1000L, cursor.getTime());
+            assertEquals(expected.getArtist(), cursor.getString(TrackArchive.Column.ARTIST));
+            assertEquals(expected.getArtist(), store.getString(TrackArchive.Column.ARTIST,
+                    cursor.getId(TrackArchive.Column.ARTIST)));
+        }
+        assertEquals(99, walked);
+        assertEquals(0, store.count(new TimeWindow(NEWEST + 1, 0)));
+        assertEquals(1000, store.count(new TimeWindow(1, NEWEST + 1)));
+    }
+
+    @Test
+    public void whenStringsRepeatEachIsStoredOnce() {
+        TrackStore store = TrackStore.of(tracks(1000, 0));
+        assertEquals(7, store.getDictionarySize(TrackArchive.Column.ARTIST));
+        assertEquals(0, store.getDictionarySize(TrackArchive.Column.IMAGE_URL));
+        Track track = store.iterator().next();
+        assertNull(track.getImageUrl());
+        assertEquals(28L * 1024, store.getColumnBytes());
+    }
+
+    @Test
+    public void whenBuildingAnalyticsFromAStoreTheyMatchThoseBuiltFromTracks() {
+        List<Track> tracks = tracks(2000, 0);
+        ListeningAnalytics fromTracks = ListeningAnalytics.of(tracks);
+        ListeningAnalytics fromStore = ListeningAnalytics.of(TrackStore.of(tracks));
+        TimeWindow all = new TimeWindow(0, 0);
+        assertEquals(fromTracks.topArtists(all, 5).toString(), fromStore.topArtists(all, 5).toString());
+        assertEquals(fromTracks.topTracks(all, 5, true).toString(), fromStore.topTracks(all, 5, true).toString());
+    }
+
+    /**
+     * Creates tracks three minutes apart, newest first.
+     */
+    private static List<Track> tracks(int count, int skip) {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = skip; i < skip + count; i++)
+            tracks.add(new Track("Artist " + i % 7, i % 50 == 0 ? "" : "Album " + i % 11, "Track " + i % 13,
+                    new Date((NEWEST - i * 180L) * 1000L), null, "url " + i % 13));
+        tracks.sort(Comparator.comparing(Track::getListenedAt).reversed());
+        return tracks;
+    }
+}
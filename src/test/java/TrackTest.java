@@ -1,8 +1,17 @@
 import org.junit.Test;
 
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -23,4 +32,68 @@ public class TrackTest {
         assertEquals(url, track.getUrl());
         assertEquals(imageUrl, track.getImageUrl());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void whenTwoTracksAreEqualTheirHashCodesAreEqual() {
+        Date listenedAt = new GregorianCalendar(2019, Calendar.JULY, 16, 13, 18, 12).getTime();
+        Track track = new Track("Parquet Courts", "Wide Awake!", "Tenderness", listenedAt, "image", "url");
+        Track copy = new Track(new String("Parquet Courts"), new String("Wide Awake!"), new String("Tenderness"),
+                new Date(listenedAt.getTime()), null, null);
+        assertEquals(track, copy);
+        assertEquals(track.hashCode(), copy.hashCode());
+        assertEquals(1, new HashSet<>(Arrays.asList(track, copy)).size());
+    }
+
+    @Test
+    public void whenTheTableHoldsDuplicatesTheUniqueIndexFailsUnlessAskedToDeleteThem() throws SQLException {
+        List<String> statements = new ArrayList<>();
+        Connection connection = duplicatesConnection(statements);
+        try {
+            Track.createUniqueIndex(connection, true, false);
+            fail("Expected the duplicates to stop the index");
+        } catch (SQLException e) {
+            assertEquals("23505", e.getSQLState());
+            assertTrue(e.getMessage().contains("--delete-duplicates"));
+        }
+        // Nothing is deleted, and the invalid index the failed concurrent build left is dropped.
+        assertEquals(Arrays.asList(Track.UNIQUE_INDEX_CONCURRENTLY_SQL,
+                "DROP INDEX CONCURRENTLY IF EXISTS " + Track.UNIQUE_INDEX), statements);
+
+        statements.clear();
+        Track.createUniqueIndex(duplicatesConnection(statements), true, true);
+        assertEquals(4, statements.size());
+        assertTrue(statements.get(2).startsWith("DELETE FROM tracks"));
+        assertEquals(Track.UNIQUE_INDEX_CONCURRENTLY_SQL, statements.get(3));
+    }
+
+    /**
+     * Makes a connection whose tracks table holds duplicates until they are deleted, recording every statement run
+     * on it but the catalog lookups.
+     */
+    private static Connection duplicatesConnection(List<String> statements) {
+        boolean[] deleted = {false};
+        Statement statement = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                new Class<?>[]{Statement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "executeQuery":
+                            return Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                                    new Class<?>[]{ResultSet.class}, (result, resultMethod, resultArgs) ->
+                                            resultMethod.getName().equals("next") ? false : null);
+                        case "execute":
+                            statements.add((String) args[0]);
+                            if (((String) args[0]).startsWith("CREATE") && !deleted[0])
+                                throw new SQLException("could not create unique index", "23505");
+                            return false;
+                        case "executeUpdate":
+                            statements.add((String) args[0]);
+                            deleted[0] = true;
+                            return 3;
+                        default:
+                            return null;
+                    }
+                });
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) ->
+                        method.getName().equals("createStatement") ? statement : null);
+    }
+}